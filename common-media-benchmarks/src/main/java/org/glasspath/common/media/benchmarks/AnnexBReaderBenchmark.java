@@ -0,0 +1,170 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.media.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.glasspath.common.media.h264.H264AnnexBReader;
+import org.glasspath.common.media.h264.H264BufferPool;
+import org.glasspath.common.media.h264.H264NalUnit;
+import org.glasspath.common.media.h264.H264StartCodeScanner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// NAL units per second through H264StartCodeScanner (in memory, compared with a byte by byte scan) and
+// H264AnnexBReader (memory mapped file, pooled NAL units), on a synthetic Annex B stream (random slice data
+// with emulation prevention, an IDR picture every GOP_LENGTH pictures)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class AnnexBReaderBenchmark {
+
+	public static final int PICTURE_COUNT = 300;
+	public static final int GOP_LENGTH = 30;
+	public static final int IDR_SIZE = 150 * 1024;
+	public static final int NON_IDR_SIZE = 15 * 1024;
+	public static final int NAL_UNIT_COUNT = 2 + PICTURE_COUNT + 2 * (PICTURE_COUNT / GOP_LENGTH);
+
+	private byte[] stream;
+	private File file;
+	private H264BufferPool pool;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+
+		stream = createStream(new Random(1));
+
+		file = File.createTempFile("annexb-benchmark", ".h264");
+		try (FileOutputStream out = new FileOutputStream(file)) {
+			out.write(stream);
+		}
+
+		pool = new H264BufferPool();
+
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		file.delete();
+		pool.clear();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NAL_UNIT_COUNT)
+	public void scanWordAtATime(Blackhole blackhole) {
+		int position = 0;
+		while ((position = H264StartCodeScanner.findStartCode(stream, position, stream.length)) >= 0) {
+			blackhole.consume(position);
+			position += 3;
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NAL_UNIT_COUNT)
+	public void scanBytewise(Blackhole blackhole) {
+		for (int i = 0; i + 2 < stream.length; i++) {
+			if (stream[i] == 0 && stream[i + 1] == 0 && stream[i + 2] == 1) {
+				blackhole.consume(i);
+				i += 2;
+			}
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NAL_UNIT_COUNT)
+	public void readFile(Blackhole blackhole) throws IOException {
+		try (H264AnnexBReader reader = new H264AnnexBReader(file, false, pool, H264AnnexBReader.DEFAULT_MAP_SIZE)) {
+			H264NalUnit nalUnit;
+			while ((nalUnit = reader.next()) != null) {
+				blackhole.consume(nalUnit.getType());
+				nalUnit.release();
+			}
+		}
+	}
+
+	private static byte[] createStream(Random random) {
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		for (int i = 0; i < PICTURE_COUNT; i++) {
+			if (i % GOP_LENGTH == 0) {
+				writeNalUnit(out, random, 0x67, 16); // SPS
+				writeNalUnit(out, random, 0x68, 4); // PPS
+				writeNalUnit(out, random, 0x65, IDR_SIZE);
+			} else {
+				writeNalUnit(out, random, 0x41, NON_IDR_SIZE);
+			}
+		}
+
+		return out.toByteArray();
+
+	}
+
+	private static void writeNalUnit(ByteArrayOutputStream out, Random random, int header, int size) {
+
+		out.write(0);
+		out.write(0);
+		out.write(0);
+		out.write(1);
+		out.write(header);
+
+		byte[] payload = new byte[size];
+		random.nextBytes(payload);
+
+		// Emulation prevention, as in a real stream there is no start code in the payload
+		int zeroCount = 0;
+		for (byte b : payload) {
+			if (zeroCount >= 2 && (b & 0xFF) <= 3) {
+				out.write(3);
+				zeroCount = 0;
+			}
+			out.write(b);
+			zeroCount = b == 0 ? zeroCount + 1 : 0;
+		}
+		if (payload[payload.length - 1] == 0) {
+			out.write(3);
+		}
+
+	}
+
+}
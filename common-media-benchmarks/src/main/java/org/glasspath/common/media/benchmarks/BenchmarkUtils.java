@@ -0,0 +1,70 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.media.benchmarks;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+public class BenchmarkUtils {
+
+	private BenchmarkUtils() {
+
+	}
+
+	// Parses "<width>x<height>"
+	public static int[] parseResolution(String resolution) {
+		String[] parts = resolution.split("x");
+		return new int[] { Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()) };
+	}
+
+	// A static gradient background with a moving box, similar to surveillance footage
+	public static BufferedImage[] createFrames(int width, int height, int count) {
+
+		BufferedImage background = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				background.setRGB(x, y, ((x * 255 / width) << 16) | ((y * 255 / height) << 8) | ((x ^ y) & 0xFF));
+			}
+		}
+
+		int boxSize = Math.max(4, height / 10);
+
+		BufferedImage[] frames = new BufferedImage[count];
+		for (int i = 0; i < count; i++) {
+
+			frames[i] = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+
+			Graphics2D g2d = frames[i].createGraphics();
+			g2d.drawImage(background, 0, 0, null);
+			g2d.setColor(Color.RED);
+			g2d.fillRect((i * boxSize / 2) % Math.max(1, width - boxSize), height / 3, boxSize, boxSize);
+			g2d.dispose();
+
+		}
+
+		return frames;
+
+	}
+
+}
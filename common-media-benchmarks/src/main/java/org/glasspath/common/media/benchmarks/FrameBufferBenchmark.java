@@ -0,0 +1,252 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.media.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.glasspath.common.media.video.Frame;
+import org.glasspath.common.media.video.FrameBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Frames per second through a FrameBuffer with a synthetic decoder (fills a BGR buffer) and converter (copies it
+// into the image), measures the overhead of the pipeline (hand-off, state changes, image swapping) per frame
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class FrameBufferBenchmark {
+
+	public static final int FRAMES_PER_INVOCATION = 100;
+	public static final int BUFFER_SIZE = 3;
+
+	@Param({ "640x360", "1920x1080" })
+	public String resolution;
+
+	@Param({ "true", "false" })
+	public boolean handoffMode;
+
+	@Param({ "0", "1" })
+	public int converterThreads;
+
+	private SyntheticBufferedFrame[] buffer;
+	private SyntheticFrameBuffer frameBuffer;
+	private Frame frame;
+	private int index = 0;
+
+	@Setup(Level.Trial)
+	public void setup() {
+
+		int[] size = BenchmarkUtils.parseResolution(resolution);
+
+		buffer = new SyntheticBufferedFrame[BUFFER_SIZE];
+		for (int i = 0; i < buffer.length; i++) {
+			buffer[i] = new SyntheticBufferedFrame();
+		}
+
+		frameBuffer = new SyntheticFrameBuffer(converterThreads, size[0], size[1]);
+		frameBuffer.setHandoffMode(handoffMode);
+		frameBuffer.start();
+
+		frame = new Frame();
+		index = 0;
+
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws InterruptedException {
+
+		frameBuffer.reset();
+		frameBuffer.exit();
+		frameBuffer.resume();
+
+		while (!frameBuffer.isExited()) {
+			Thread.sleep(1);
+		}
+
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(FRAMES_PER_INVOCATION)
+	public void consumeFrames(Blackhole blackhole) {
+
+		for (int i = 0; i < FRAMES_PER_INVOCATION; i++) {
+
+			SyntheticBufferedFrame bufferedFrame = buffer[index];
+			while (!bufferedFrame.isImageReady()) {
+				Thread.yield();
+			}
+
+			BufferedImage swapImage = frame.getImage();
+			frame.setImage(bufferedFrame.getImage());
+			frame.setTimestamp(bufferedFrame.getTimestampValue());
+			bufferedFrame.reset(swapImage);
+
+			blackhole.consume(frame.getImage());
+
+			index = frameBuffer.nextIndex(index);
+
+		}
+
+	}
+
+	public static class SyntheticBufferedFrame extends FrameBuffer.BufferedFrame<byte[]> {
+
+	}
+
+	private class SyntheticFrameBuffer extends FrameBuffer<byte[]> {
+
+		private final int width;
+		private final int height;
+		private long timestamp = 0L;
+
+		private SyntheticFrameBuffer(int converterThreads, int width, int height) {
+			super(1, 0, converterThreads, 0, null);
+			this.width = width;
+			this.height = height;
+		}
+
+		@Override
+		protected BufferedFrame<byte[]>[] createBuffer() {
+			return buffer;
+		}
+
+		@Override
+		protected boolean createDecoder(int thread) {
+			return true;
+		}
+
+		@Override
+		protected long getDecoderTimestamp(int thread, byte[] frame) {
+			return timestamp;
+		}
+
+		@Override
+		protected void setDecoderTimestamp(int thread, long timestamp) {
+			this.timestamp = timestamp;
+		}
+
+		@Override
+		protected byte[] decode(int thread, byte[] frame) {
+
+			if (frame == null) {
+				frame = new byte[width * height * 3];
+			}
+
+			timestamp += 33333L;
+			Arrays.fill(frame, (byte) timestamp);
+
+			return frame;
+
+		}
+
+		@Override
+		protected boolean isEndOfVideoReached(int thread) {
+			return false;
+		}
+
+		@Override
+		protected boolean isRepeatEnabled(int thread) {
+			return false;
+		}
+
+		@Override
+		protected void closeDecoder(int thread) {
+
+		}
+
+		@Override
+		protected boolean createPreProcessor(int thread) {
+			return true;
+		}
+
+		@Override
+		protected byte[] preProcess(int thread, byte[] frame) {
+			return frame;
+		}
+
+		@Override
+		protected void closePreProcessor(int thread) {
+
+		}
+
+		@Override
+		protected boolean createConverter(int thread) {
+			return true;
+		}
+
+		@Override
+		protected BufferedImage convert(int thread, byte[] frame, BufferedImage image) {
+
+			if (image == null) {
+				image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+			}
+
+			byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+			System.arraycopy(frame, 0, pixels, 0, pixels.length);
+
+			return image;
+
+		}
+
+		@Override
+		protected void closeConverter(int thread) {
+
+		}
+
+		@Override
+		protected boolean createPostProcessor(int thread) {
+			return true;
+		}
+
+		@Override
+		protected void postProcess(int thread, BufferedImage image) {
+
+		}
+
+		@Override
+		protected void closePostProcessor(int thread) {
+
+		}
+
+	}
+
+}
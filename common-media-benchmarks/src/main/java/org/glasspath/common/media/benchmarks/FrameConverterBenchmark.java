@@ -0,0 +1,86 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.media.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.bytedeco.javacv.Frame;
+import org.glasspath.common.media.ffmpeg.FFVideoFrameConverter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// FFVideoFrameConverter.createBufferedImage(), the optimized path (bulk copy into the image) against DefaultFrameConverter
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class FrameConverterBenchmark {
+
+	@Param({ "640x360", "1920x1080", "3840x2160" })
+	public String resolution;
+
+	@Param({ "true", "false" })
+	public boolean optimized;
+
+	private Frame frame;
+	private FFVideoFrameConverter converter;
+	private BufferedImage image;
+
+	@Setup(Level.Trial)
+	public void setup() {
+
+		int[] size = BenchmarkUtils.parseResolution(resolution);
+
+		frame = new Frame(size[0], size[1], Frame.DEPTH_UBYTE, 3);
+
+		ByteBuffer buffer = (ByteBuffer) frame.image[0];
+		for (int i = 0; i < buffer.capacity(); i++) {
+			buffer.put(i, (byte) i);
+		}
+
+		converter = new FFVideoFrameConverter(optimized);
+		image = null;
+
+	}
+
+	@Benchmark
+	public BufferedImage createBufferedImage() {
+		image = converter.createBufferedImage(frame, image);
+		return image;
+	}
+
+}
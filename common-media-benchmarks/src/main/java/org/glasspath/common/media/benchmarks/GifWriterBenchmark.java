@@ -0,0 +1,106 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.media.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import org.glasspath.common.media.image.GifEncoder;
+import org.glasspath.common.media.image.GifExporter;
+import org.glasspath.common.media.image.GifWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Time per frame for writing a loop export, GifExporter (ImageIO) against GifEncoder with and without delta encoding
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class GifWriterBenchmark {
+
+	public static final int FRAMES_PER_INVOCATION = 20;
+	public static final int INTERVAL = 100;
+
+	@Param({ "640x360" })
+	public String resolution;
+
+	@Param({ "IMAGE_IO", "PARALLEL", "PARALLEL_DELTA" })
+	public String encoder;
+
+	private BufferedImage[] frames;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		int[] size = BenchmarkUtils.parseResolution(resolution);
+		frames = BenchmarkUtils.createFrames(size[0], size[1], FRAMES_PER_INVOCATION);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(FRAMES_PER_INVOCATION)
+	public int writeImages() throws IOException {
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageOutputStream imageOutputStream = null;
+		GifWriter gifWriter;
+
+		if ("IMAGE_IO".equals(encoder)) {
+			imageOutputStream = new MemoryCacheImageOutputStream(out);
+			gifWriter = new GifExporter(imageOutputStream, frames[0].getType(), INTERVAL, true);
+		} else {
+			GifEncoder gifEncoder = new GifEncoder(out, INTERVAL, true);
+			gifEncoder.setDeltaEncoding("PARALLEL_DELTA".equals(encoder));
+			gifWriter = gifEncoder;
+		}
+
+		for (BufferedImage frame : frames) {
+			gifWriter.writeImage(frame);
+		}
+
+		gifWriter.close();
+		if (imageOutputStream != null) {
+			imageOutputStream.close();
+		}
+
+		return out.size();
+
+	}
+
+}
@@ -0,0 +1,193 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.media.h264;
+
+import java.util.List;
+
+// All NAL units of one picture (ITU-T H.264 7.4.1.2.3), the NAL units are not copied into a new array, use
+// addTo(H264GatherList) or toByteArray() to pass the access unit to a decoder or muxer. If the access unit
+// consists of a single NAL unit bytes, offset and length are those of the NAL unit, otherwise bytes is null
+// and length is the length of the complete access unit in Annex B format. The access unit owns the references
+// of its NAL units, retain() and release() are applied to all of them
+public class H264AccessUnit extends H264NalUnit {
+
+	private final List<H264NalUnit> nalUnits;
+	private final int sliceCount;
+	private final boolean idr;
+
+	public H264AccessUnit(List<H264NalUnit> nalUnits, int nalUnitType, long timestamp, long receivedAt, int sliceCount, boolean idr) {
+		super(getBuffer(nalUnits), getBytes(nalUnits), getOffset(nalUnits), getLength(nalUnits), nalUnitType, timestamp, receivedAt, true);
+		this.nalUnits = nalUnits;
+		this.sliceCount = sliceCount;
+		this.idr = idr;
+	}
+
+	private static byte[] getBytes(List<H264NalUnit> nalUnits) {
+		return nalUnits.size() == 1 ? nalUnits.get(0).bytes : null;
+	}
+
+	private static H264Buffer getBuffer(List<H264NalUnit> nalUnits) {
+		return nalUnits.size() == 1 ? nalUnits.get(0).buffer : null;
+	}
+
+	private static int getOffset(List<H264NalUnit> nalUnits) {
+		return nalUnits.size() == 1 ? nalUnits.get(0).offset : 0;
+	}
+
+	private static int getLength(List<H264NalUnit> nalUnits) {
+		if (nalUnits.size() == 1) {
+			return nalUnits.get(0).length;
+		} else {
+			int length = 0;
+			for (H264NalUnit nalUnit : nalUnits) {
+				length += nalUnit.getAnnexBLength();
+			}
+			return length;
+		}
+	}
+
+	public List<H264NalUnit> getNalUnits() {
+		return nalUnits;
+	}
+
+	public int getSliceCount() {
+		return sliceCount;
+	}
+
+	public boolean containsNalUnitType(int type) {
+		for (H264NalUnit nalUnit : nalUnits) {
+			if (nalUnit.getType() == type) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// Returns the type of the first slice, or of the first NAL unit if the access unit has no slices
+	@Override
+	public int getType() {
+		if (sliceCount > 0) {
+			for (H264NalUnit nalUnit : nalUnits) {
+				if (nalUnit.isFrame()) {
+					return nalUnit.getType();
+				}
+			}
+		}
+		return nalUnits.get(0).getType();
+	}
+
+	@Override
+	public boolean isHevc() {
+		return nalUnits.get(0).isHevc();
+	}
+
+	@Override
+	public H264NalUnit retain() {
+		for (int i = 0; i < nalUnits.size(); i++) {
+			if (nalUnits.get(i).retain() == null) {
+				for (int j = 0; j < i; j++) {
+					nalUnits.get(j).release();
+				}
+				return null;
+			}
+		}
+		return this;
+	}
+
+	// Returns true if the last reference of every pooled NAL unit was released
+	@Override
+	public boolean release() {
+		boolean released = true;
+		for (H264NalUnit nalUnit : nalUnits) {
+			if (nalUnit.buffer != null && !nalUnit.release()) {
+				released = false;
+			}
+		}
+		return released;
+	}
+
+	@Override
+	public boolean hasStartCode() {
+		return bytes == null || super.hasStartCode();
+	}
+
+	@Override
+	public int getAnnexBLength() {
+		return bytes == null ? length : super.getAnnexBLength();
+	}
+
+	@Override
+	public void addTo(H264GatherList list) {
+		for (H264NalUnit nalUnit : nalUnits) {
+			nalUnit.addTo(list);
+		}
+	}
+
+	@Override
+	public boolean isFrame() {
+		return sliceCount > 0;
+	}
+
+	// Only true for access units without slices (parameter sets received without a picture)
+	@Override
+	public boolean isVideoParameterSet() {
+		if (sliceCount == 0) {
+			for (H264NalUnit nalUnit : nalUnits) {
+				if (nalUnit.isVideoParameterSet()) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public boolean isSequenceParameterSet() {
+		if (sliceCount == 0) {
+			for (H264NalUnit nalUnit : nalUnits) {
+				if (nalUnit.isSequenceParameterSet()) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public boolean isPictureParameterSet() {
+		if (sliceCount == 0) {
+			for (H264NalUnit nalUnit : nalUnits) {
+				if (nalUnit.isPictureParameterSet()) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public boolean isIFrame() {
+		return idr;
+	}
+
+}
@@ -0,0 +1,140 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.media.h264;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Groups NAL units into access units (pictures), a new access unit is started by an access unit delimiter,
+// by a SPS, PPS or SEI after the first slice, by a slice with first_mb_in_slice 0 or by a slice with a
+// different timestamp. An access unit is completed immediately when a NAL unit has the end of access
+// unit flag (RTP marker bit) set or when an end of sequence / end of stream NAL unit is received. Without
+// AUDs or marker bits the end of a picture is only known when the next picture starts (or on flush()), the
+// number of slices can differ per picture so it can't be used to complete a picture early. The NAL unit
+// types are checked by the NAL unit, so HEVC (H265NalUnit) is grouped by the same rules
+public class H264AccessUnitAssembler {
+
+	public static boolean TODO_DEBUG = false;
+
+	private final List<H264NalUnit> nalUnits = new ArrayList<>();
+	private int sliceCount = 0;
+	private boolean idr = false;
+	private H264NalUnit firstSlice = null;
+
+	public H264AccessUnitAssembler() {
+
+	}
+
+	// Adds the NAL unit, completed access units are added to accessUnits
+	public void add(H264NalUnit nalUnit, List<H264AccessUnit> accessUnits) {
+
+		boolean slice = nalUnit.isFrame();
+
+		if (nalUnits.size() > 0 && isFirstOfAccessUnit(nalUnit, slice)) {
+			complete(accessUnits);
+		}
+
+		nalUnits.add(nalUnit);
+
+		if (slice) {
+			if (firstSlice == null) {
+				firstSlice = nalUnit;
+			}
+			if (nalUnit.isIFrame()) {
+				idr = true;
+			}
+			sliceCount++;
+		}
+
+		if ((nalUnit.endOfAccessUnit && sliceCount > 0) || nalUnit.isEndOfSequence()) {
+			complete(accessUnits);
+		}
+
+	}
+
+	// Returns the NAL units received since the last completed access unit as an access unit, or null if there are none
+	public H264AccessUnit flush() {
+		List<H264AccessUnit> accessUnits = new ArrayList<>(1);
+		if (nalUnits.size() > 0) {
+			complete(accessUnits);
+		}
+		return accessUnits.size() > 0 ? accessUnits.get(0) : null;
+	}
+
+	public void reset() {
+		nalUnits.clear();
+		sliceCount = 0;
+		idr = false;
+		firstSlice = null;
+	}
+
+	private boolean isFirstOfAccessUnit(H264NalUnit nalUnit, boolean slice) {
+
+		if (nalUnit.isAccessUnitDelimiter()) {
+			return true;
+		} else if (sliceCount == 0) {
+			return false;
+		} else if (nalUnit.isAccessUnitPrefix()) {
+			return true;
+		} else if (slice) {
+			return nalUnit.timestamp != firstSlice.timestamp || nalUnit.isFirstSliceOfPicture();
+		} else {
+			return false;
+		}
+
+	}
+
+	// The NAL units are referenced by the access unit, not copied
+	private void complete(List<H264AccessUnit> accessUnits) {
+
+		H264NalUnit first = firstSlice != null ? firstSlice : nalUnits.get(0);
+		H264AccessUnit accessUnit = new H264AccessUnit(new ArrayList<>(nalUnits), first.nalUnitType, first.timestamp, nalUnits.get(0).receivedAt, sliceCount, idr);
+
+		if (TODO_DEBUG && sliceCount > 1) {
+			System.out.println("H264AccessUnitAssembler, " + sliceCount + " slices, " + nalUnits.size() + " nal units, " + accessUnit.getAnnexBLength() + " bytes");
+		}
+
+		accessUnits.add(accessUnit);
+
+		reset();
+
+	}
+
+	// Returns first_mb_in_slice, or -1 if the slice header could not be read
+	public static int getFirstMbInSlice(H264NalUnit nalUnit) {
+
+		int headerOffset = nalUnit.getHeaderOffset();
+		int end = nalUnit.offset + nalUnit.length;
+		if (headerOffset < 0 || headerOffset + 1 >= end) {
+			return -1;
+		}
+
+		try {
+			return new H264BitReader(nalUnit.bytes, headerOffset + 1, end - headerOffset - 1).readUE();
+		} catch (Exception e) {
+			return -1;
+		}
+
+	}
+
+}
@@ -0,0 +1,225 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.media.h264;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+
+import org.glasspath.common.media.h265.H265NalUnit;
+
+// Reads NAL units from a raw Annex B file (.h264 / .h265, as written by H264AnnexBWriter) without a demuxer. The
+// file is memory mapped in windows and scanned with H264StartCodeScanner, each NAL unit is copied once into a
+// buffer of the pool (H264NalUnit needs an array), the caller releases it when done. Raw files have no timestamps,
+// the timestamp is increased by the timestamp increment at the first slice of every picture after the first
+public class H264AnnexBReader implements Closeable {
+
+	public static final int DEFAULT_MAP_SIZE = 64 * 1024 * 1024;
+	public static final int MAX_MAP_SIZE = Integer.MAX_VALUE - 8;
+	public static final long DEFAULT_TIMESTAMP_INCREMENT = 3000L; // 90 kHz clock, 30 fps
+
+	private final FileChannel channel;
+	private final long size;
+	private final boolean hevc;
+	private final H264BufferPool pool;
+	private int mapSize;
+	private MappedByteBuffer map = null;
+	private ByteBuffer mapView = null;
+	private long mapPosition = 0L;
+	private int position = 0;
+	private long timestampIncrement = DEFAULT_TIMESTAMP_INCREMENT;
+	private long timestamp = 0L;
+	private boolean sliceRead = false;
+	private long nalUnitCount = 0L;
+
+	public H264AnnexBReader(File file) throws IOException {
+		this(file, false);
+	}
+
+	public H264AnnexBReader(File file, boolean hevc) throws IOException {
+		this(file, hevc, H264BufferPool.getDefault(), DEFAULT_MAP_SIZE);
+	}
+
+	public H264AnnexBReader(File file, boolean hevc, H264BufferPool pool, int mapSize) throws IOException {
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		this.size = channel.size();
+		this.hevc = hevc;
+		this.pool = pool;
+		this.mapSize = mapSize;
+	}
+
+	public boolean isHevc() {
+		return hevc;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	// File position of the next byte to scan
+	public long getPosition() {
+		return mapPosition + position;
+	}
+
+	public long getNalUnitCount() {
+		return nalUnitCount;
+	}
+
+	public long getTimestampIncrement() {
+		return timestampIncrement;
+	}
+
+	public void setTimestampIncrement(long timestampIncrement) {
+		this.timestampIncrement = timestampIncrement;
+	}
+
+	// Starts reading at the beginning of the file again, timestamps keep increasing so a file can be replayed in a loop
+	public void rewind() {
+		map = null;
+		mapView = null;
+		mapPosition = 0L;
+		position = 0;
+		if (sliceRead) {
+			timestamp += timestampIncrement;
+			sliceRead = false;
+		}
+	}
+
+	// Returns the next NAL unit in Annex B format, or null at the end of the file. The NAL unit is backed by a
+	// pooled buffer, release it when done
+	public H264NalUnit next() throws IOException {
+
+		while (true) {
+
+			if (map == null) {
+				if (mapPosition >= size) {
+					return null;
+				}
+				map(mapPosition);
+			}
+
+			int limit = map.limit();
+			boolean lastWindow = mapPosition + limit >= size;
+
+			int start = H264StartCodeScanner.findStartCode(map, position, limit);
+			if (start < 0) {
+
+				if (lastWindow) {
+					position = limit;
+					return null;
+				}
+
+				// Keep the last bytes, a start code can cross the end of the window
+				mapPosition += Math.max(position, limit - 2);
+				map = null;
+				continue;
+
+			}
+
+			int headerStart = start + 3;
+			int end = H264StartCodeScanner.findStartCode(map, headerStart, limit);
+			if (end < 0) {
+
+				if (lastWindow) {
+					end = limit;
+				} else {
+
+					// The NAL unit continues after the window, map the next window from the start code
+					// (with a larger window if the NAL unit is larger than the window)
+					if (start == 0) {
+						if (mapSize >= MAX_MAP_SIZE) {
+							throw new IOException("NAL unit at position " + mapPosition + " is larger than " + MAX_MAP_SIZE + " bytes");
+						}
+						mapSize = (int) Math.min(MAX_MAP_SIZE, 2L * mapSize);
+					}
+					mapPosition += start;
+					map = null;
+					continue;
+
+				}
+
+			}
+
+			int nalUnitEnd = H264StartCodeScanner.trimTrailingZeros(map, headerStart, end);
+			position = end;
+
+			int headerLength = hevc ? H265NalUnit.HEADER_LENGTH : 1;
+			if (nalUnitEnd - headerStart >= headerLength) {
+				return createNalUnit(headerStart, nalUnitEnd - headerStart, headerLength);
+			}
+
+		}
+
+	}
+
+	private void map(long filePosition) throws IOException {
+		map = channel.map(MapMode.READ_ONLY, filePosition, Math.min(mapSize, size - filePosition));
+		mapView = map.duplicate();
+		mapPosition = filePosition;
+		position = 0;
+	}
+
+	private H264NalUnit createNalUnit(int headerStart, int length, int headerLength) {
+
+		int annexBLength = H264NalUnit.NAL_START_PREFIX_CODE.length + length;
+		H264Buffer buffer = pool.acquire(annexBLength);
+		System.arraycopy(H264NalUnit.NAL_START_PREFIX_CODE, 0, buffer.getArray(), 0, H264NalUnit.NAL_START_PREFIX_CODE.length);
+
+		mapView.position(headerStart);
+		mapView.get(buffer.getArray(), H264NalUnit.NAL_START_PREFIX_CODE.length, length);
+
+		int header = map.get(headerStart) & 0xFF;
+		int type = hevc ? H265NalUnit.getType((byte) header) : header & 0x1F;
+		boolean slice = hevc ? type <= 31 : type >= 1 && type <= 5;
+
+		// The first bit after the header is first_slice_segment_in_pic_flag (HEVC) or ue(v) first_mb_in_slice 0 (H.264)
+		if (slice && length > headerLength && (map.get(headerStart + headerLength) & 0x80) != 0) {
+			if (sliceRead) {
+				timestamp += timestampIncrement;
+			}
+			sliceRead = true;
+		}
+
+		nalUnitCount++;
+
+		if (hevc) {
+			return new H265NalUnit(buffer, 0, annexBLength, type, timestamp, System.currentTimeMillis(), false);
+		} else {
+			return new H264NalUnit(buffer, 0, annexBLength, header, timestamp, System.currentTimeMillis(), false);
+		}
+
+	}
+
+	@Override
+	public void close() throws IOException {
+		map = null;
+		mapView = null;
+		channel.close();
+	}
+
+}
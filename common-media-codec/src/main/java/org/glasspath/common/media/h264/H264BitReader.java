@@ -0,0 +1,135 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.media.h264;
+
+// Reads the RBSP of a NAL unit bit by bit, emulation prevention bytes (0x03 after 0x00 0x00) are skipped
+public class H264BitReader {
+
+	private final byte[] bytes;
+	private final int end;
+	private int position;
+	private int bitOffset = 0;
+	private int zeroCount = 0;
+	private int currentByte = -1;
+
+	public H264BitReader(byte[] bytes, int offset, int length) {
+		this.bytes = bytes;
+		this.end = offset + length;
+		this.position = offset;
+	}
+
+	public int readBit() {
+
+		if (bitOffset == 0) {
+			currentByte = nextByte();
+		}
+
+		int bit = (currentByte >> (7 - bitOffset)) & 1;
+		bitOffset = (bitOffset + 1) & 7;
+
+		return bit;
+
+	}
+
+	public boolean readFlag() {
+		return readBit() == 1;
+	}
+
+	// Reads up to 32 bits, returned as unsigned value
+	public long readBits(int count) {
+		long value = 0;
+		for (int i = 0; i < count; i++) {
+			value = (value << 1) | readBit();
+		}
+		return value;
+	}
+
+	public int readUnsignedInt(int count) {
+		return (int) readBits(count);
+	}
+
+	public void skipBits(int count) {
+		for (int i = 0; i < count; i++) {
+			readBit();
+		}
+	}
+
+	// ue(v), unsigned Exp-Golomb code
+	public int readUE() {
+
+		int leadingZeros = 0;
+		while (readBit() == 0) {
+			leadingZeros++;
+			if (leadingZeros > 31) {
+				throw new IllegalStateException("Invalid Exp-Golomb code");
+			}
+		}
+
+		return (int) ((1L << leadingZeros) - 1 + readBits(leadingZeros));
+
+	}
+
+	// se(v), signed Exp-Golomb code
+	public int readSE() {
+		int value = readUE();
+		return (value & 1) == 1 ? (value + 1) / 2 : -(value / 2);
+	}
+
+	public boolean hasMoreBits() {
+		return bitOffset != 0 || position < end;
+	}
+
+	private int nextByte() {
+
+		if (position >= end) {
+			throw new IllegalStateException("End of NAL unit reached");
+		}
+
+		int value = bytes[position++] & 0xFF;
+
+		if (zeroCount >= 2 && value == 0x03) {
+			zeroCount = 0;
+			if (position >= end) {
+				throw new IllegalStateException("End of NAL unit reached");
+			}
+			value = bytes[position++] & 0xFF;
+		}
+
+		zeroCount = value == 0 ? zeroCount + 1 : 0;
+
+		return value;
+
+	}
+
+	// Returns the offset of the NAL unit header (the byte after the start code), or the offset itself if there is no start code
+	public static int skipStartCode(byte[] bytes, int offset, int length) {
+		if (length >= 4 && bytes[offset] == 0 && bytes[offset + 1] == 0 && bytes[offset + 2] == 0 && bytes[offset + 3] == 1) {
+			return offset + 4;
+		} else if (length >= 3 && bytes[offset] == 0 && bytes[offset + 1] == 0 && bytes[offset + 2] == 1) {
+			return offset + 3;
+		} else {
+			return offset;
+		}
+	}
+
+}
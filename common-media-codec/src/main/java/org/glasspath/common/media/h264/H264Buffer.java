@@ -0,0 +1,89 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.media.h264;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Reference counted array acquired from a H264BufferPool, the creator holds the first reference, every consumer
+// that keeps the buffer calls retain() and release() when done, the array is returned to the pool when the last
+// reference is released and must not be used after that
+public class H264Buffer {
+
+	private final H264BufferPool pool;
+	private final byte[] array;
+	private final AtomicInteger referenceCount = new AtomicInteger(1);
+	volatile H264BufferPool.LeakTracker leakTracker = null;
+
+	H264Buffer(H264BufferPool pool, byte[] array) {
+		this.pool = pool;
+		this.array = array;
+	}
+
+	public byte[] getArray() {
+		if (referenceCount.get() <= 0) {
+			throw new IllegalStateException("Buffer is released");
+		}
+		return array;
+	}
+
+	public int getCapacity() {
+		return array.length;
+	}
+
+	public int getReferenceCount() {
+		return referenceCount.get();
+	}
+
+	// Returns this buffer, or null if the last reference was already released (the array may be reused then)
+	public H264Buffer retain() {
+
+		while (true) {
+
+			int count = referenceCount.get();
+			if (count <= 0) {
+				return null;
+			} else if (referenceCount.compareAndSet(count, count + 1)) {
+				return this;
+			}
+
+		}
+
+	}
+
+	// Returns true if this was the last reference
+	public boolean release() {
+
+		int count = referenceCount.decrementAndGet();
+		if (count == 0) {
+			pool.recycle(this, array);
+			return true;
+		} else if (count < 0) {
+			referenceCount.incrementAndGet();
+			throw new IllegalStateException("Buffer is already released");
+		} else {
+			return false;
+		}
+
+	}
+
+}
@@ -0,0 +1,280 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.media.h264;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+// Size classed pool of arrays for NAL unit payloads, arrays are rounded up to a power of two between 1 KB and 8 MB
+// (larger arrays are not pooled) and idle arrays are kept until the byte budget is reached. Keeping the arrays of
+// large key frames alive avoids allocating (and promoting) hundreds of kilobytes per frame. When leak detection is
+// enabled the allocation site of every buffer is recorded and buffers that are garbage collected without being
+// released are reported (and counted)
+public class H264BufferPool {
+
+	public static boolean TODO_DEBUG = false;
+
+	public static final int MIN_SIZE_CLASS = 10;
+	public static final int MAX_SIZE_CLASS = 23;
+	public static final long DEFAULT_MAX_POOLED_BYTES = 64L * 1024L * 1024L;
+
+	private static H264BufferPool defaultPool = null;
+
+	public static synchronized H264BufferPool getDefault() {
+		if (defaultPool == null) {
+			defaultPool = new H264BufferPool(DEFAULT_MAX_POOLED_BYTES);
+		}
+		return defaultPool;
+	}
+
+	private final List<ArrayDeque<byte[]>> idleArrays = new ArrayList<>(MAX_SIZE_CLASS + 1);
+	private final Set<LeakTracker> leakTrackers = Collections.newSetFromMap(new IdentityHashMap<LeakTracker, Boolean>());
+	private final ReferenceQueue<H264Buffer> leakQueue = new ReferenceQueue<>();
+	private long maxPooledBytes;
+	private boolean leakDetection = TODO_DEBUG;
+	private long pooledBytes = 0;
+	private int pooledCount = 0;
+	private long outstandingBytes = 0;
+	private int outstandingCount = 0;
+	private long peakOutstandingBytes = 0;
+	private long hitCount = 0;
+	private long missCount = 0;
+	private long leakCount = 0;
+
+	public H264BufferPool() {
+		this(DEFAULT_MAX_POOLED_BYTES);
+	}
+
+	public H264BufferPool(long maxPooledBytes) {
+		this.maxPooledBytes = maxPooledBytes;
+		// Indexed by size class, the classes below MIN_SIZE_CLASS are never used
+		for (int i = 0; i <= MAX_SIZE_CLASS; i++) {
+			idleArrays.add(i < MIN_SIZE_CLASS ? null : new ArrayDeque<byte[]>());
+		}
+	}
+
+	public synchronized long getMaxPooledBytes() {
+		return maxPooledBytes;
+	}
+
+	public synchronized void setMaxPooledBytes(long maxPooledBytes) {
+		this.maxPooledBytes = maxPooledBytes;
+		for (int i = MAX_SIZE_CLASS; i >= MIN_SIZE_CLASS && pooledBytes > maxPooledBytes; i--) {
+			while (pooledBytes > maxPooledBytes && !idleArrays.get(i).isEmpty()) {
+				pooledBytes -= idleArrays.get(i).pollFirst().length;
+				pooledCount--;
+			}
+		}
+	}
+
+	public synchronized boolean isLeakDetection() {
+		return leakDetection;
+	}
+
+	// Recording allocation sites is expensive, should only be enabled while debugging
+	public synchronized void setLeakDetection(boolean leakDetection) {
+		this.leakDetection = leakDetection;
+	}
+
+	// Returns a buffer with a capacity of at least the specified length
+	public H264Buffer acquire(int length) {
+
+		int sizeClass = getSizeClass(length);
+		byte[] array = null;
+		H264Buffer buffer;
+
+		synchronized (this) {
+
+			pollLeaks();
+
+			if (sizeClass <= MAX_SIZE_CLASS) {
+				array = idleArrays.get(sizeClass).pollLast();
+			}
+
+			if (array != null) {
+				pooledBytes -= array.length;
+				pooledCount--;
+				hitCount++;
+			} else {
+				missCount++;
+			}
+
+		}
+
+		// Allocate outside of the lock, large arrays can take a while to clear
+		if (array == null) {
+			array = new byte[sizeClass <= MAX_SIZE_CLASS ? 1 << sizeClass : length];
+		}
+
+		buffer = new H264Buffer(this, array);
+
+		synchronized (this) {
+
+			outstandingBytes += array.length;
+			outstandingCount++;
+			if (outstandingBytes > peakOutstandingBytes) {
+				peakOutstandingBytes = outstandingBytes;
+			}
+
+			if (leakDetection) {
+				LeakTracker leakTracker = new LeakTracker(buffer, leakQueue, array.length);
+				leakTrackers.add(leakTracker);
+				buffer.leakTracker = leakTracker;
+			}
+
+		}
+
+		return buffer;
+
+	}
+
+	synchronized void recycle(H264Buffer buffer, byte[] array) {
+
+		outstandingBytes -= array.length;
+		outstandingCount--;
+
+		LeakTracker leakTracker = buffer.leakTracker;
+		if (leakTracker != null) {
+			leakTrackers.remove(leakTracker);
+			leakTracker.clear();
+			buffer.leakTracker = null;
+		}
+
+		int sizeClass = getSizeClass(array.length);
+		if (sizeClass <= MAX_SIZE_CLASS && array.length == 1 << sizeClass && pooledBytes + array.length <= maxPooledBytes) {
+			idleArrays.get(sizeClass).addLast(array);
+			pooledBytes += array.length;
+			pooledCount++;
+		}
+
+		if (TODO_DEBUG) {
+			System.out.println("H264BufferPool, outstanding: " + outstandingCount + " (" + outstandingBytes + " bytes), pooled: " + pooledCount + " (" + pooledBytes + " bytes), hits: " + hitCount + ", misses: " + missCount + ", leaks: " + leakCount);
+		}
+
+	}
+
+	// Reports buffers that were garbage collected without being released, returns the number of leaks found
+	public synchronized int checkLeaks() {
+		return pollLeaks();
+	}
+
+	private int pollLeaks() {
+
+		int leaks = 0;
+
+		LeakTracker leakTracker;
+		while ((leakTracker = (LeakTracker) leakQueue.poll()) != null) {
+
+			if (leakTrackers.remove(leakTracker)) {
+
+				outstandingBytes -= leakTracker.capacity;
+				outstandingCount--;
+				leakCount++;
+				leaks++;
+
+				System.err.println("H264BufferPool, buffer of " + leakTracker.capacity + " bytes was not released, acquired at:");
+				leakTracker.allocationSite.printStackTrace();
+
+			}
+
+		}
+
+		return leaks;
+
+	}
+
+	public synchronized void clear() {
+		for (int i = MIN_SIZE_CLASS; i <= MAX_SIZE_CLASS; i++) {
+			idleArrays.get(i).clear();
+		}
+		pooledBytes = 0;
+		pooledCount = 0;
+	}
+
+	public synchronized long getPooledBytes() {
+		return pooledBytes;
+	}
+
+	public synchronized int getPooledCount() {
+		return pooledCount;
+	}
+
+	public synchronized int getPooledCount(int sizeClass) {
+		return sizeClass >= MIN_SIZE_CLASS && sizeClass <= MAX_SIZE_CLASS ? idleArrays.get(sizeClass).size() : 0;
+	}
+
+	// Bytes of the buffers that were acquired and not released yet
+	public synchronized long getOutstandingBytes() {
+		return outstandingBytes;
+	}
+
+	public synchronized int getOutstandingCount() {
+		return outstandingCount;
+	}
+
+	public synchronized long getPeakOutstandingBytes() {
+		return peakOutstandingBytes;
+	}
+
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	public synchronized long getLeakCount() {
+		return leakCount;
+	}
+
+	// Returns the smallest size class (log2 of the array length) that fits the length, or MAX_SIZE_CLASS + 1 if the length is too large
+	public static int getSizeClass(int length) {
+		if (length <= 1 << MIN_SIZE_CLASS) {
+			return MIN_SIZE_CLASS;
+		} else if (length > 1 << MAX_SIZE_CLASS) {
+			return MAX_SIZE_CLASS + 1;
+		} else {
+			return 32 - Integer.numberOfLeadingZeros(length - 1);
+		}
+	}
+
+	static class LeakTracker extends WeakReference<H264Buffer> {
+
+		private final Throwable allocationSite = new Throwable("Buffer acquired");
+		private final int capacity;
+
+		private LeakTracker(H264Buffer buffer, ReferenceQueue<H264Buffer> queue, int capacity) {
+			super(buffer, queue);
+			this.capacity = capacity;
+		}
+
+	}
+
+}
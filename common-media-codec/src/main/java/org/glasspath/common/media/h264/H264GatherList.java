@@ -0,0 +1,139 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.media.h264;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Scatter/gather list of byte ranges, NAL units and access units are added as ranges of the arrays they
+// were received in so start codes and parameter sets can be prepended without concatenating arrays, the
+// ranges are only copied once, into the buffer of the consumer (decoder packet, muxer sample, etc.)
+public class H264GatherList {
+
+	public static final int DEFAULT_CAPACITY = 8;
+
+	private byte[][] arrays;
+	private int[] offsets;
+	private int[] lengths;
+	private int count = 0;
+	private int length = 0;
+
+	public H264GatherList() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public H264GatherList(int capacity) {
+		arrays = new byte[capacity][];
+		offsets = new int[capacity];
+		lengths = new int[capacity];
+	}
+
+	public void add(byte[] array, int offset, int length) {
+
+		if (length <= 0) {
+			return;
+		}
+
+		// Ranges that continue the previous range (adjacent NAL units in a receive buffer) are merged
+		if (count > 0 && arrays[count - 1] == array && offsets[count - 1] + lengths[count - 1] == offset) {
+			lengths[count - 1] += length;
+		} else {
+
+			if (count == arrays.length) {
+				int capacity = arrays.length * 2;
+				arrays = Arrays.copyOf(arrays, capacity);
+				offsets = Arrays.copyOf(offsets, capacity);
+				lengths = Arrays.copyOf(lengths, capacity);
+			}
+
+			arrays[count] = array;
+			offsets[count] = offset;
+			lengths[count] = length;
+			count++;
+
+		}
+
+		this.length += length;
+
+	}
+
+	public void add(H264NalUnit nalUnit) {
+		nalUnit.addTo(this);
+	}
+
+	public void clear() {
+		Arrays.fill(arrays, 0, count, null);
+		count = 0;
+		length = 0;
+	}
+
+	public int getSegmentCount() {
+		return count;
+	}
+
+	public byte[] getArray(int segment) {
+		return arrays[segment];
+	}
+
+	public int getOffset(int segment) {
+		return offsets[segment];
+	}
+
+	public int getLength(int segment) {
+		return lengths[segment];
+	}
+
+	// Total length of all segments
+	public int getLength() {
+		return length;
+	}
+
+	public int copyTo(byte[] dst, int dstOffset) {
+		for (int i = 0; i < count; i++) {
+			System.arraycopy(arrays[i], offsets[i], dst, dstOffset, lengths[i]);
+			dstOffset += lengths[i];
+		}
+		return length;
+	}
+
+	public void copyTo(ByteBuffer dst) {
+		for (int i = 0; i < count; i++) {
+			dst.put(arrays[i], offsets[i], lengths[i]);
+		}
+	}
+
+	public void writeTo(OutputStream outputStream) throws IOException {
+		for (int i = 0; i < count; i++) {
+			outputStream.write(arrays[i], offsets[i], lengths[i]);
+		}
+	}
+
+	public byte[] toByteArray() {
+		byte[] bytes = new byte[length];
+		copyTo(bytes, 0);
+		return bytes;
+	}
+
+}
@@ -34,7 +34,10 @@ public class H264NalUnit {
 	public static enum NalUnitType {
 
 		UNKNOWN(-1),
-		// TODO
+		CODED_SLICE_NON_IDR_PICTURE(1),
+		CODED_SLICE_DATA_PARTITION_A(2),
+		CODED_SLICE_DATA_PARTITION_B(3),
+		CODED_SLICE_DATA_PARTITION_C(4),
 		CODED_SLICE_IDR_PICTURE(5),
 		SUPPLEMENTAL_ENHANCEMENT_INFORMATION(6),
 		SEQUENCE_PARAMETER_SET(7),
@@ -91,32 +94,156 @@ public class H264NalUnit {
 
 	}
 
+	// The NAL unit is bytes[offset, offset + length), with or without start code, so a NAL unit
+	// can be a view on a receive buffer (shared, the bytes should not be modified)
+	public final H264Buffer buffer;
 	public final byte[] bytes;
+	public final int offset;
+	public final int length;
 	public final int nalUnitType;
 	public final long timestamp;
 	public final long receivedAt;
+	public final boolean endOfAccessUnit;
 
 	public H264NalUnit(byte[] bytes, int nalUnitType, long timestamp, long receivedAt) {
+		this(bytes, 0, bytes.length, nalUnitType, timestamp, receivedAt, false);
+	}
+
+	public H264NalUnit(byte[] bytes, int nalUnitType, long timestamp, long receivedAt, boolean endOfAccessUnit) {
+		this(bytes, 0, bytes.length, nalUnitType, timestamp, receivedAt, endOfAccessUnit);
+	}
+
+	// endOfAccessUnit should be true if the NAL unit is the last of a picture (RTP marker bit)
+	public H264NalUnit(byte[] bytes, int offset, int length, int nalUnitType, long timestamp, long receivedAt, boolean endOfAccessUnit) {
+		this(null, bytes, offset, length, nalUnitType, timestamp, receivedAt, endOfAccessUnit);
+	}
+
+	// The NAL unit takes over the reference of the (pooled) buffer, see retain() and release()
+	public H264NalUnit(H264Buffer buffer, int offset, int length, int nalUnitType, long timestamp, long receivedAt, boolean endOfAccessUnit) {
+		this(buffer, buffer.getArray(), offset, length, nalUnitType, timestamp, receivedAt, endOfAccessUnit);
+	}
+
+	protected H264NalUnit(H264Buffer buffer, byte[] bytes, int offset, int length, int nalUnitType, long timestamp, long receivedAt, boolean endOfAccessUnit) {
+		this.buffer = buffer;
 		this.bytes = bytes;
+		this.offset = offset;
+		this.length = length;
 		this.nalUnitType = nalUnitType;
 		this.timestamp = timestamp;
 		this.receivedAt = receivedAt;
+		this.endOfAccessUnit = endOfAccessUnit;
 	}
 
+	// Returns nal_unit_type (0 - 31), read from the NAL unit header if the bytes are available, nalUnitType
+	// is used otherwise (which can be the complete header byte or only the type, depending on the source)
+	public int getType() {
+		int headerOffset = getHeaderOffset();
+		if (headerOffset >= 0) {
+			return bytes[headerOffset] & 0x1F;
+		}
+		return nalUnitType & 0x1F;
+	}
+
+	// Returns the offset of the NAL unit header in bytes (after the start code), or -1 if there are no bytes
+	public int getHeaderOffset() {
+		if (bytes != null && length > 0) {
+			int headerOffset = H264BitReader.skipStartCode(bytes, offset, length);
+			if (headerOffset < offset + length) {
+				return headerOffset;
+			}
+		}
+		return -1;
+	}
+
+	public boolean hasStartCode() {
+		return bytes != null && H264BitReader.skipStartCode(bytes, offset, length) > offset;
+	}
+
+	// Length in Annex B format, a start code is added if the NAL unit doesn't have one
+	public int getAnnexBLength() {
+		return hasStartCode() ? length : NAL_START_PREFIX_CODE.length + length;
+	}
+
+	// Adds the NAL unit in Annex B format to the list, without copying
+	public void addTo(H264GatherList list) {
+		if (!hasStartCode()) {
+			list.add(NAL_START_PREFIX_CODE, 0, NAL_START_PREFIX_CODE.length);
+		}
+		list.add(bytes, offset, length);
+	}
+
+	// NAL units backed by a pooled buffer are reference counted, a consumer that keeps the NAL unit after
+	// the call it received it in returns should retain it, and release it when done. Returns null if the
+	// NAL unit is already released, NAL units without a buffer are not counted (retain() returns this)
+	public H264NalUnit retain() {
+		return buffer == null || buffer.retain() != null ? this : null;
+	}
+
+	// Returns true if this was the last reference (the buffer is returned to the pool)
+	public boolean release() {
+		return buffer != null && buffer.release();
+	}
+
+	// Returns the NAL unit in Annex B format, bytes is returned (without copying) if it contains exactly
+	// that and is not pooled (a pooled array is reused after release)
+	public byte[] toByteArray() {
+		if (buffer == null && bytes != null && offset == 0 && length == bytes.length && hasStartCode()) {
+			return bytes;
+		} else {
+			H264GatherList list = new H264GatherList();
+			addTo(list);
+			return list.toByteArray();
+		}
+	}
+
+	// Coded slice of a picture, a picture can consist of multiple slices, see H264AccessUnitAssembler
 	public boolean isFrame() {
-		return nalUnitType == 1 || nalUnitType == 97 || nalUnitType == 101; // TODO
+		int type = getType();
+		return type >= 1 && type <= 5;
+	}
+
+	// False for H.264, see H265NalUnit
+	public boolean isHevc() {
+		return false;
+	}
+
+	// Only used by HEVC (H265NalUnit)
+	public boolean isVideoParameterSet() {
+		return false;
 	}
 
 	public boolean isSequenceParameterSet() {
-		return nalUnitType == 7; // TODO
+		return getType() == NalUnitType.SEQUENCE_PARAMETER_SET.getTypeValue();
 	}
 
 	public boolean isPictureParameterSet() {
-		return nalUnitType == 8; // TODO
+		return getType() == NalUnitType.PICTURE_PARAMETER_SET.getTypeValue();
 	}
 
 	public boolean isIFrame() {
-		return nalUnitType == 101; // TODO
+		return getType() == NalUnitType.CODED_SLICE_IDR_PICTURE.getTypeValue();
+	}
+
+	public boolean isAccessUnitDelimiter() {
+		return getType() == NalUnitType.ACCESS_UNIT_DELIMITER.getTypeValue();
+	}
+
+	// End of sequence or end of stream, completes the access unit
+	public boolean isEndOfSequence() {
+		int type = getType();
+		return type == NalUnitType.END_OF_SEQUENCE.getTypeValue() || type == NalUnitType.END_OF_STREAM.getTypeValue();
+	}
+
+	// NAL units that can only precede the first slice of an access unit (SEI, SPS, PPS, types 14 - 18), if
+	// received after a slice they start the next access unit
+	public boolean isAccessUnitPrefix() {
+		int type = getType();
+		return type == NalUnitType.SUPPLEMENTAL_ENHANCEMENT_INFORMATION.getTypeValue() || type == NalUnitType.SEQUENCE_PARAMETER_SET.getTypeValue() || type == NalUnitType.PICTURE_PARAMETER_SET.getTypeValue() || (type >= 14 && type <= 18);
+	}
+
+	// True for the first slice of a picture (first_mb_in_slice 0), false for other slices or if the slice header could not be read
+	public boolean isFirstSliceOfPicture() {
+		return H264AccessUnitAssembler.getFirstMbInSlice(this) == 0;
 	}
 
 }
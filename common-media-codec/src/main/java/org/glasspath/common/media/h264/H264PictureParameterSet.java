@@ -0,0 +1,165 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.media.h264;
+
+// Parsed picture parameter set (ITU-T H.264 7.3.2.2), up to redundant_pic_cnt_present_flag
+public class H264PictureParameterSet {
+
+	public static boolean TODO_DEBUG = false;
+
+	private int id = 0;
+	private int sequenceParameterSetId = 0;
+	private boolean entropyCodingMode = false;
+	private boolean bottomFieldPicOrderInFramePresent = false;
+	private int numSliceGroups = 1;
+	private int numRefIdxL0DefaultActive = 1;
+	private int numRefIdxL1DefaultActive = 1;
+	private boolean weightedPred = false;
+	private int weightedBipredIdc = 0;
+	private int picInitQp = 26;
+	private int chromaQpIndexOffset = 0;
+	private boolean deblockingFilterControlPresent = false;
+	private boolean constrainedIntraPred = false;
+	private boolean redundantPicCntPresent = false;
+
+	private H264PictureParameterSet() {
+
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public int getSequenceParameterSetId() {
+		return sequenceParameterSetId;
+	}
+
+	// True for CABAC, false for CAVLC
+	public boolean isEntropyCodingMode() {
+		return entropyCodingMode;
+	}
+
+	public boolean isBottomFieldPicOrderInFramePresent() {
+		return bottomFieldPicOrderInFramePresent;
+	}
+
+	public int getNumSliceGroups() {
+		return numSliceGroups;
+	}
+
+	public int getNumRefIdxL0DefaultActive() {
+		return numRefIdxL0DefaultActive;
+	}
+
+	public int getNumRefIdxL1DefaultActive() {
+		return numRefIdxL1DefaultActive;
+	}
+
+	public boolean isWeightedPred() {
+		return weightedPred;
+	}
+
+	public int getWeightedBipredIdc() {
+		return weightedBipredIdc;
+	}
+
+	public int getPicInitQp() {
+		return picInitQp;
+	}
+
+	public int getChromaQpIndexOffset() {
+		return chromaQpIndexOffset;
+	}
+
+	public boolean isDeblockingFilterControlPresent() {
+		return deblockingFilterControlPresent;
+	}
+
+	public boolean isConstrainedIntraPred() {
+		return constrainedIntraPred;
+	}
+
+	public boolean isRedundantPicCntPresent() {
+		return redundantPicCntPresent;
+	}
+
+	public static H264PictureParameterSet parse(H264NalUnit nalUnit) {
+		return nalUnit != null && nalUnit.bytes != null ? parse(nalUnit.bytes, nalUnit.offset, nalUnit.length) : null;
+	}
+
+	public static H264PictureParameterSet parse(byte[] bytes) {
+		return parse(bytes, 0, bytes.length);
+	}
+
+	// Parses a PPS NAL unit, with or without start code, returns null if the bytes are not a valid PPS
+	public static H264PictureParameterSet parse(byte[] bytes, int offset, int length) {
+
+		if (bytes == null || length <= 0) {
+			return null;
+		}
+
+		int start = H264BitReader.skipStartCode(bytes, offset, length);
+		if (start >= offset + length || (bytes[start] & 0x1F) != 8) {
+			return null;
+		}
+
+		try {
+
+			H264BitReader reader = new H264BitReader(bytes, start + 1, offset + length - start - 1);
+			H264PictureParameterSet pps = new H264PictureParameterSet();
+
+			pps.id = reader.readUE();
+			pps.sequenceParameterSetId = reader.readUE();
+			pps.entropyCodingMode = reader.readFlag();
+			pps.bottomFieldPicOrderInFramePresent = reader.readFlag();
+			pps.numSliceGroups = reader.readUE() + 1;
+
+			// Slice group maps (baseline FMO) are not supported, the fields that follow are left at their defaults
+			if (pps.numSliceGroups == 1) {
+
+				pps.numRefIdxL0DefaultActive = reader.readUE() + 1;
+				pps.numRefIdxL1DefaultActive = reader.readUE() + 1;
+				pps.weightedPred = reader.readFlag();
+				pps.weightedBipredIdc = reader.readUnsignedInt(2);
+				pps.picInitQp = reader.readSE() + 26;
+				reader.readSE(); // pic_init_qs_minus26
+				pps.chromaQpIndexOffset = reader.readSE();
+				pps.deblockingFilterControlPresent = reader.readFlag();
+				pps.constrainedIntraPred = reader.readFlag();
+				pps.redundantPicCntPresent = reader.readFlag();
+
+			}
+
+			return pps;
+
+		} catch (Exception e) {
+			if (TODO_DEBUG) {
+				e.printStackTrace();
+			}
+		}
+
+		return null;
+
+	}
+
+}
@@ -0,0 +1,341 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.media.h264;
+
+// Parsed sequence parameter set (ITU-T H.264 7.3.2.1), only the fields needed to learn the
+// picture size and frame rate before a decoder is started are kept
+public class H264SequenceParameterSet {
+
+	public static boolean TODO_DEBUG = false;
+
+	private int profileIdc = 0;
+	private int constraintFlags = 0;
+	private int levelIdc = 0;
+	private int id = 0;
+	private int chromaFormatIdc = 1;
+	private boolean separateColourPlane = false;
+	private int bitDepthLuma = 8;
+	private int bitDepthChroma = 8;
+	private int maxNumRefFrames = 0;
+	private int widthInMbs = 0;
+	private int heightInMapUnits = 0;
+	private boolean frameMbsOnly = true;
+	private int cropLeft = 0;
+	private int cropRight = 0;
+	private int cropTop = 0;
+	private int cropBottom = 0;
+	private int width = 0;
+	private int height = 0;
+	private boolean timingInfoPresent = false;
+	private long numUnitsInTick = 0;
+	private long timeScale = 0;
+	private boolean fixedFrameRate = false;
+	private int sarWidth = 1;
+	private int sarHeight = 1;
+
+	private H264SequenceParameterSet() {
+
+	}
+
+	public int getProfileIdc() {
+		return profileIdc;
+	}
+
+	public int getConstraintFlags() {
+		return constraintFlags;
+	}
+
+	public int getLevelIdc() {
+		return levelIdc;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public int getChromaFormatIdc() {
+		return chromaFormatIdc;
+	}
+
+	public int getBitDepthLuma() {
+		return bitDepthLuma;
+	}
+
+	public int getBitDepthChroma() {
+		return bitDepthChroma;
+	}
+
+	public int getMaxNumRefFrames() {
+		return maxNumRefFrames;
+	}
+
+	public boolean isFrameMbsOnly() {
+		return frameMbsOnly;
+	}
+
+	// Coded size in pixels (before cropping)
+	public int getCodedWidth() {
+		return widthInMbs * 16;
+	}
+
+	public int getCodedHeight() {
+		return (frameMbsOnly ? 1 : 2) * heightInMapUnits * 16;
+	}
+
+	// Display size in pixels (after cropping)
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getCropLeft() {
+		return cropLeft;
+	}
+
+	public int getCropRight() {
+		return cropRight;
+	}
+
+	public int getCropTop() {
+		return cropTop;
+	}
+
+	public int getCropBottom() {
+		return cropBottom;
+	}
+
+	public boolean isTimingInfoPresent() {
+		return timingInfoPresent;
+	}
+
+	public long getNumUnitsInTick() {
+		return numUnitsInTick;
+	}
+
+	public long getTimeScale() {
+		return timeScale;
+	}
+
+	public boolean isFixedFrameRate() {
+		return fixedFrameRate;
+	}
+
+	// Returns 0 if the VUI has no timing info, a frame takes 2 ticks (one per field)
+	public double getFrameRate() {
+		return timingInfoPresent && numUnitsInTick > 0 && timeScale > 0 ? timeScale / (2.0 * numUnitsInTick) : 0.0;
+	}
+
+	public int getSarWidth() {
+		return sarWidth;
+	}
+
+	public int getSarHeight() {
+		return sarHeight;
+	}
+
+	@Override
+	public String toString() {
+		return "SPS " + id + ", profile = " + profileIdc + ", level = " + levelIdc + ", " + width + "x" + height + (frameMbsOnly ? "" : " (interlaced)") + (timingInfoPresent ? ", " + getFrameRate() + " fps" : "");
+	}
+
+	public static H264SequenceParameterSet parse(H264NalUnit nalUnit) {
+		return nalUnit != null && nalUnit.bytes != null ? parse(nalUnit.bytes, nalUnit.offset, nalUnit.length) : null;
+	}
+
+	public static H264SequenceParameterSet parse(byte[] bytes) {
+		return parse(bytes, 0, bytes.length);
+	}
+
+	// Parses a SPS NAL unit, with or without start code, returns null if the bytes are not a valid SPS
+	public static H264SequenceParameterSet parse(byte[] bytes, int offset, int length) {
+
+		if (bytes == null || length <= 0) {
+			return null;
+		}
+
+		int start = H264BitReader.skipStartCode(bytes, offset, length);
+		if (start >= offset + length || (bytes[start] & 0x1F) != 7) {
+			return null;
+		}
+
+		try {
+
+			H264BitReader reader = new H264BitReader(bytes, start + 1, offset + length - start - 1);
+			H264SequenceParameterSet sps = new H264SequenceParameterSet();
+
+			sps.profileIdc = reader.readUnsignedInt(8);
+			sps.constraintFlags = reader.readUnsignedInt(8);
+			sps.levelIdc = reader.readUnsignedInt(8);
+			sps.id = reader.readUE();
+
+			if (hasChromaInfo(sps.profileIdc)) {
+
+				sps.chromaFormatIdc = reader.readUE();
+				if (sps.chromaFormatIdc == 3) {
+					sps.separateColourPlane = reader.readFlag();
+				}
+
+				sps.bitDepthLuma = reader.readUE() + 8;
+				sps.bitDepthChroma = reader.readUE() + 8;
+				reader.readFlag(); // qpprime_y_zero_transform_bypass_flag
+
+				if (reader.readFlag()) { // seq_scaling_matrix_present_flag
+					int count = sps.chromaFormatIdc != 3 ? 8 : 12;
+					for (int i = 0; i < count; i++) {
+						if (reader.readFlag()) {
+							skipScalingList(reader, i < 6 ? 16 : 64);
+						}
+					}
+				}
+
+			}
+
+			reader.readUE(); // log2_max_frame_num_minus4
+
+			int picOrderCntType = reader.readUE();
+			if (picOrderCntType == 0) {
+				reader.readUE(); // log2_max_pic_order_cnt_lsb_minus4
+			} else if (picOrderCntType == 1) {
+				reader.readFlag(); // delta_pic_order_always_zero_flag
+				reader.readSE(); // offset_for_non_ref_pic
+				reader.readSE(); // offset_for_top_to_bottom_field
+				int cycle = reader.readUE();
+				for (int i = 0; i < cycle; i++) {
+					reader.readSE(); // offset_for_ref_frame
+				}
+			}
+
+			sps.maxNumRefFrames = reader.readUE();
+			reader.readFlag(); // gaps_in_frame_num_value_allowed_flag
+
+			sps.widthInMbs = reader.readUE() + 1;
+			sps.heightInMapUnits = reader.readUE() + 1;
+			sps.frameMbsOnly = reader.readFlag();
+			if (!sps.frameMbsOnly) {
+				reader.readFlag(); // mb_adaptive_frame_field_flag
+			}
+			reader.readFlag(); // direct_8x8_inference_flag
+
+			if (reader.readFlag()) { // frame_cropping_flag
+				sps.cropLeft = reader.readUE();
+				sps.cropRight = reader.readUE();
+				sps.cropTop = reader.readUE();
+				sps.cropBottom = reader.readUE();
+			}
+
+			// Crop offsets are in chroma sample units (table 6-1)
+			int chromaArrayType = sps.separateColourPlane ? 0 : sps.chromaFormatIdc;
+			int cropUnitX = chromaArrayType == 0 ? 1 : (chromaArrayType == 3 ? 1 : 2);
+			int cropUnitY = (chromaArrayType == 1 ? 2 : 1) * (sps.frameMbsOnly ? 1 : 2);
+
+			sps.width = sps.getCodedWidth() - cropUnitX * (sps.cropLeft + sps.cropRight);
+			sps.height = sps.getCodedHeight() - cropUnitY * (sps.cropTop + sps.cropBottom);
+
+			if (reader.readFlag()) { // vui_parameters_present_flag
+				parseVui(reader, sps);
+			}
+
+			return sps;
+
+		} catch (Exception e) {
+			if (TODO_DEBUG) {
+				e.printStackTrace();
+			}
+		}
+
+		return null;
+
+	}
+
+	private static boolean hasChromaInfo(int profileIdc) {
+		switch (profileIdc) {
+		case 100:
+		case 110:
+		case 122:
+		case 244:
+		case 44:
+		case 83:
+		case 86:
+		case 118:
+		case 128:
+		case 138:
+		case 139:
+		case 134:
+		case 135:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	private static void skipScalingList(H264BitReader reader, int size) {
+		int lastScale = 8;
+		int nextScale = 8;
+		for (int i = 0; i < size; i++) {
+			if (nextScale != 0) {
+				nextScale = (lastScale + reader.readSE() + 256) % 256;
+			}
+			lastScale = nextScale == 0 ? lastScale : nextScale;
+		}
+	}
+
+	// Parses the VUI up to and including the timing info (E.1.1), the HRD parameters that follow are not needed
+	private static void parseVui(H264BitReader reader, H264SequenceParameterSet sps) {
+
+		if (reader.readFlag()) { // aspect_ratio_info_present_flag
+			int aspectRatioIdc = reader.readUnsignedInt(8);
+			if (aspectRatioIdc == 255) { // Extended_SAR
+				sps.sarWidth = reader.readUnsignedInt(16);
+				sps.sarHeight = reader.readUnsignedInt(16);
+			}
+		}
+
+		if (reader.readFlag()) { // overscan_info_present_flag
+			reader.readFlag(); // overscan_appropriate_flag
+		}
+
+		if (reader.readFlag()) { // video_signal_type_present_flag
+			reader.skipBits(4); // video_format, video_full_range_flag
+			if (reader.readFlag()) { // colour_description_present_flag
+				reader.skipBits(24);
+			}
+		}
+
+		if (reader.readFlag()) { // chroma_loc_info_present_flag
+			reader.readUE();
+			reader.readUE();
+		}
+
+		sps.timingInfoPresent = reader.readFlag();
+		if (sps.timingInfoPresent) {
+			sps.numUnitsInTick = reader.readBits(32);
+			sps.timeScale = reader.readBits(32);
+			sps.fixedFrameRate = reader.readFlag();
+		}
+
+	}
+
+}
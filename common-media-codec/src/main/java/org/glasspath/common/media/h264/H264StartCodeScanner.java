@@ -0,0 +1,86 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.media.h264;
+
+import java.nio.ByteBuffer;
+
+// Finds Annex B start codes (00 00 01, a 4 byte start code is a 3 byte start code preceded by a zero byte). The
+// buffer is read 8 bytes at a time, a word without a zero byte can't contain the first zero of a start code and
+// is skipped, only words with a zero byte are checked byte by byte. In coded slice data (where emulation
+// prevention keeps zero bytes rare) most words are skipped
+public class H264StartCodeScanner {
+
+	private static final long ONES = 0x0101010101010101L;
+	private static final long HIGH_BITS = 0x8080808080808080L;
+
+	private H264StartCodeScanner() {
+
+	}
+
+	// Returns the index of the first byte of the first start code in [from, to), or -1 if there is none
+	public static int findStartCode(byte[] bytes, int from, int to) {
+		return findStartCode(ByteBuffer.wrap(bytes), from, to);
+	}
+
+	// Absolute indices, the position and limit of the buffer are not used or changed
+	public static int findStartCode(ByteBuffer buffer, int from, int to) {
+
+		int i = from;
+
+		while (i + 8 <= to) {
+
+			long word = buffer.getLong(i);
+
+			// Sets the high bit of every zero byte (and possibly of bytes above a zero byte, those are checked below)
+			if (((word - ONES) & ~word & HIGH_BITS) != 0) {
+				for (int j = i; j < i + 8; j++) {
+					if (j + 2 < to && buffer.get(j) == 0 && buffer.get(j + 1) == 0 && buffer.get(j + 2) == 1) {
+						return j;
+					}
+				}
+			}
+
+			i += 8;
+
+		}
+
+		for (; i + 2 < to; i++) {
+			if (buffer.get(i) == 0 && buffer.get(i + 1) == 0 && buffer.get(i + 2) == 1) {
+				return i;
+			}
+		}
+
+		return -1;
+
+	}
+
+	// Returns the end of the NAL unit ending at end, without trailing zero bytes (trailing_zero_8bits and the
+	// first byte of a 4 byte start code)
+	public static int trimTrailingZeros(ByteBuffer buffer, int start, int end) {
+		while (end > start && buffer.get(end - 1) == 0) {
+			end--;
+		}
+		return end;
+	}
+
+}
@@ -0,0 +1,208 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.media.h265;
+
+import org.glasspath.common.media.h264.H264Buffer;
+import org.glasspath.common.media.h264.H264NalUnit;
+
+// HEVC NAL unit (ITU-T H.265 7.3.1), the NAL unit header is 2 bytes and the type is 6 bits. The NAL unit
+// extends H264NalUnit so views, pooled buffers, gather lists, the access unit assembler, the decoder thread
+// and the recorder can be used for both codecs, only the type checks are different
+public class H265NalUnit extends H264NalUnit {
+
+	public static final int HEADER_LENGTH = 2;
+
+	public static enum NalUnitType {
+
+		UNKNOWN(-1),
+		TRAIL_N(0),
+		TRAIL_R(1),
+		TSA_N(2),
+		TSA_R(3),
+		STSA_N(4),
+		STSA_R(5),
+		RADL_N(6),
+		RADL_R(7),
+		RASL_N(8),
+		RASL_R(9),
+		BLA_W_LP(16),
+		BLA_W_RADL(17),
+		BLA_N_LP(18),
+		IDR_W_RADL(19),
+		IDR_N_LP(20),
+		CRA_NUT(21),
+		VIDEO_PARAMETER_SET(32),
+		SEQUENCE_PARAMETER_SET(33),
+		PICTURE_PARAMETER_SET(34),
+		ACCESS_UNIT_DELIMITER(35),
+		END_OF_SEQUENCE(36),
+		END_OF_BITSTREAM(37),
+		FILLER_DATA(38),
+		PREFIX_SEI(39),
+		SUFFIX_SEI(40);
+
+		private final int typeValue;
+
+		private NalUnitType(int typeValue) {
+			this.typeValue = typeValue;
+		}
+
+		public int getTypeValue() {
+			return typeValue;
+		}
+
+	}
+
+	// RTP payload types (RFC 7798 4.4)
+	public static enum NalFragmentType {
+
+		UNKNOWN(-1),
+		NAL_UNIT(0, 47),
+		AP(48),
+		FU(49),
+		PACI(50);
+
+		private final int valueFrom;
+		private final int valueTo;
+
+		private NalFragmentType(int value) {
+			this.valueFrom = value;
+			this.valueTo = value;
+		}
+
+		private NalFragmentType(int valueFrom, int valueTo) {
+			this.valueFrom = valueFrom;
+			this.valueTo = valueTo;
+		}
+
+		public int getValueFrom() {
+			return valueFrom;
+		}
+
+		public int getValueTo() {
+			return valueTo;
+		}
+
+		public static NalFragmentType get(int type) {
+			if (type >= NAL_UNIT.valueFrom && type <= NAL_UNIT.valueTo) {
+				return NAL_UNIT;
+			} else if (type == AP.valueFrom) {
+				return AP;
+			} else if (type == FU.valueFrom) {
+				return FU;
+			} else if (type == PACI.valueFrom) {
+				return PACI;
+			} else {
+				return UNKNOWN;
+			}
+		}
+
+	}
+
+	public H265NalUnit(byte[] bytes, int nalUnitType, long timestamp, long receivedAt) {
+		this(bytes, 0, bytes.length, nalUnitType, timestamp, receivedAt, false);
+	}
+
+	// nalUnitType is the 6 bit type (not the header), it is only used if the NAL unit has no bytes
+	public H265NalUnit(byte[] bytes, int offset, int length, int nalUnitType, long timestamp, long receivedAt, boolean endOfAccessUnit) {
+		super(null, bytes, offset, length, nalUnitType, timestamp, receivedAt, endOfAccessUnit);
+	}
+
+	// The NAL unit takes over the reference of the (pooled) buffer
+	public H265NalUnit(H264Buffer buffer, int offset, int length, int nalUnitType, long timestamp, long receivedAt, boolean endOfAccessUnit) {
+		super(buffer, buffer.getArray(), offset, length, nalUnitType, timestamp, receivedAt, endOfAccessUnit);
+	}
+
+	// Returns nal_unit_type (0 - 63)
+	@Override
+	public int getType() {
+		int headerOffset = getHeaderOffset();
+		if (headerOffset >= 0) {
+			return getType(bytes[headerOffset]);
+		}
+		return nalUnitType & 0x3F;
+	}
+
+	public static int getType(byte firstHeaderByte) {
+		return (firstHeaderByte >> 1) & 0x3F;
+	}
+
+	@Override
+	public boolean isHevc() {
+		return true;
+	}
+
+	// VCL NAL unit (coded slice segment)
+	@Override
+	public boolean isFrame() {
+		return getType() <= 31;
+	}
+
+	// Intra random access point picture (BLA, IDR or CRA), the decoder can start at this picture
+	@Override
+	public boolean isIFrame() {
+		int type = getType();
+		return type >= NalUnitType.BLA_W_LP.getTypeValue() && type <= 23;
+	}
+
+	@Override
+	public boolean isVideoParameterSet() {
+		return getType() == NalUnitType.VIDEO_PARAMETER_SET.getTypeValue();
+	}
+
+	@Override
+	public boolean isSequenceParameterSet() {
+		return getType() == NalUnitType.SEQUENCE_PARAMETER_SET.getTypeValue();
+	}
+
+	@Override
+	public boolean isPictureParameterSet() {
+		return getType() == NalUnitType.PICTURE_PARAMETER_SET.getTypeValue();
+	}
+
+	@Override
+	public boolean isAccessUnitDelimiter() {
+		return getType() == NalUnitType.ACCESS_UNIT_DELIMITER.getTypeValue();
+	}
+
+	@Override
+	public boolean isEndOfSequence() {
+		int type = getType();
+		return type == NalUnitType.END_OF_SEQUENCE.getTypeValue() || type == NalUnitType.END_OF_BITSTREAM.getTypeValue();
+	}
+
+	// VPS, SPS, PPS, prefix SEI and types 41 - 44 and 48 - 55 (ITU-T H.265 7.4.2.4.4)
+	@Override
+	public boolean isAccessUnitPrefix() {
+		int type = getType();
+		return (type >= NalUnitType.VIDEO_PARAMETER_SET.getTypeValue() && type <= NalUnitType.PICTURE_PARAMETER_SET.getTypeValue()) || type == NalUnitType.PREFIX_SEI.getTypeValue() || (type >= 41 && type <= 44) || (type >= 48 && type <= 55);
+	}
+
+	// first_slice_segment_in_pic_flag, the first bit after the NAL unit header
+	@Override
+	public boolean isFirstSliceOfPicture() {
+		int headerOffset = getHeaderOffset();
+		return headerOffset >= 0 && headerOffset + HEADER_LENGTH < offset + length && (bytes[headerOffset + HEADER_LENGTH] & 0x80) != 0;
+	}
+
+}
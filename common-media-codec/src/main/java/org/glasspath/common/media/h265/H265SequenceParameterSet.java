@@ -0,0 +1,454 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.media.h265;
+
+import org.glasspath.common.media.h264.H264BitReader;
+import org.glasspath.common.media.h264.H264NalUnit;
+
+// Parsed sequence parameter set (ITU-T H.265 7.3.2.2), only the fields needed to learn the picture size
+// and frame rate and to create a HEVC decoder configuration record (hvcC, ISO/IEC 14496-15 8.3.3) are kept
+public class H265SequenceParameterSet {
+
+	public static boolean TODO_DEBUG = false;
+
+	private int videoParameterSetId = 0;
+	private int maxSubLayers = 1;
+	private boolean temporalIdNesting = false;
+	private int profileSpace = 0;
+	private boolean tier = false;
+	private int profileIdc = 0;
+	private long profileCompatibilityFlags = 0;
+	private long constraintIndicatorFlags = 0;
+	private int levelIdc = 0;
+	private int id = 0;
+	private int chromaFormatIdc = 1;
+	private boolean separateColourPlane = false;
+	private int codedWidth = 0;
+	private int codedHeight = 0;
+	private int cropLeft = 0;
+	private int cropRight = 0;
+	private int cropTop = 0;
+	private int cropBottom = 0;
+	private int width = 0;
+	private int height = 0;
+	private int bitDepthLuma = 8;
+	private int bitDepthChroma = 8;
+	private boolean timingInfoPresent = false;
+	private long numUnitsInTick = 0;
+	private long timeScale = 0;
+	private int sarWidth = 1;
+	private int sarHeight = 1;
+
+	private H265SequenceParameterSet() {
+
+	}
+
+	public int getVideoParameterSetId() {
+		return videoParameterSetId;
+	}
+
+	public int getMaxSubLayers() {
+		return maxSubLayers;
+	}
+
+	public boolean isTemporalIdNesting() {
+		return temporalIdNesting;
+	}
+
+	public int getProfileSpace() {
+		return profileSpace;
+	}
+
+	public boolean isTier() {
+		return tier;
+	}
+
+	public int getProfileIdc() {
+		return profileIdc;
+	}
+
+	// general_profile_compatibility_flag[0 - 31], flag 0 is the most significant bit
+	public long getProfileCompatibilityFlags() {
+		return profileCompatibilityFlags;
+	}
+
+	// The 48 bits following the profile compatibility flags (general_progressive_source_flag ..)
+	public long getConstraintIndicatorFlags() {
+		return constraintIndicatorFlags;
+	}
+
+	public int getLevelIdc() {
+		return levelIdc;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public int getChromaFormatIdc() {
+		return chromaFormatIdc;
+	}
+
+	public int getBitDepthLuma() {
+		return bitDepthLuma;
+	}
+
+	public int getBitDepthChroma() {
+		return bitDepthChroma;
+	}
+
+	// Coded size in pixels (before cropping)
+	public int getCodedWidth() {
+		return codedWidth;
+	}
+
+	public int getCodedHeight() {
+		return codedHeight;
+	}
+
+	// Display size in pixels (after applying the conformance window)
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getCropLeft() {
+		return cropLeft;
+	}
+
+	public int getCropRight() {
+		return cropRight;
+	}
+
+	public int getCropTop() {
+		return cropTop;
+	}
+
+	public int getCropBottom() {
+		return cropBottom;
+	}
+
+	public boolean isTimingInfoPresent() {
+		return timingInfoPresent;
+	}
+
+	public long getNumUnitsInTick() {
+		return numUnitsInTick;
+	}
+
+	public long getTimeScale() {
+		return timeScale;
+	}
+
+	// Returns 0 if the VUI has no timing info, unlike H.264 a tick is a complete picture
+	public double getFrameRate() {
+		return timingInfoPresent && numUnitsInTick > 0 && timeScale > 0 ? timeScale / (double) numUnitsInTick : 0.0;
+	}
+
+	public int getSarWidth() {
+		return sarWidth;
+	}
+
+	public int getSarHeight() {
+		return sarHeight;
+	}
+
+	@Override
+	public String toString() {
+		return "HEVC SPS " + id + ", profile = " + profileIdc + ", level = " + levelIdc + ", " + width + "x" + height + (timingInfoPresent ? ", " + getFrameRate() + " fps" : "");
+	}
+
+	public static H265SequenceParameterSet parse(H264NalUnit nalUnit) {
+		return nalUnit != null && nalUnit.bytes != null ? parse(nalUnit.bytes, nalUnit.offset, nalUnit.length) : null;
+	}
+
+	public static H265SequenceParameterSet parse(byte[] bytes) {
+		return parse(bytes, 0, bytes.length);
+	}
+
+	// Parses a SPS NAL unit, with or without start code, returns null if the bytes are not a valid SPS
+	public static H265SequenceParameterSet parse(byte[] bytes, int offset, int length) {
+
+		if (bytes == null || length <= 0) {
+			return null;
+		}
+
+		int start = H264BitReader.skipStartCode(bytes, offset, length);
+		if (start + H265NalUnit.HEADER_LENGTH >= offset + length || H265NalUnit.getType(bytes[start]) != H265NalUnit.NalUnitType.SEQUENCE_PARAMETER_SET.getTypeValue()) {
+			return null;
+		}
+
+		try {
+
+			H264BitReader reader = new H264BitReader(bytes, start + H265NalUnit.HEADER_LENGTH, offset + length - start - H265NalUnit.HEADER_LENGTH);
+			H265SequenceParameterSet sps = new H265SequenceParameterSet();
+
+			sps.videoParameterSetId = reader.readUnsignedInt(4);
+			sps.maxSubLayers = reader.readUnsignedInt(3) + 1;
+			sps.temporalIdNesting = reader.readFlag();
+
+			parseProfileTierLevel(reader, sps);
+
+			sps.id = reader.readUE();
+			sps.chromaFormatIdc = reader.readUE();
+			if (sps.chromaFormatIdc == 3) {
+				sps.separateColourPlane = reader.readFlag();
+			}
+
+			sps.codedWidth = reader.readUE();
+			sps.codedHeight = reader.readUE();
+
+			if (reader.readFlag()) { // conformance_window_flag
+				sps.cropLeft = reader.readUE();
+				sps.cropRight = reader.readUE();
+				sps.cropTop = reader.readUE();
+				sps.cropBottom = reader.readUE();
+			}
+
+			// Conformance window offsets are in chroma sample units (table 6-1)
+			int chromaArrayType = sps.separateColourPlane ? 0 : sps.chromaFormatIdc;
+			int subWidth = chromaArrayType == 1 || chromaArrayType == 2 ? 2 : 1;
+			int subHeight = chromaArrayType == 1 ? 2 : 1;
+
+			sps.width = sps.codedWidth - subWidth * (sps.cropLeft + sps.cropRight);
+			sps.height = sps.codedHeight - subHeight * (sps.cropTop + sps.cropBottom);
+
+			sps.bitDepthLuma = reader.readUE() + 8;
+			sps.bitDepthChroma = reader.readUE() + 8;
+
+			// The rest is only parsed to reach the VUI, a failure after this point keeps the size
+			try {
+				parseToVui(reader, sps);
+			} catch (Exception e) {
+				if (TODO_DEBUG) {
+					e.printStackTrace();
+				}
+			}
+
+			return sps;
+
+		} catch (Exception e) {
+			if (TODO_DEBUG) {
+				e.printStackTrace();
+			}
+		}
+
+		return null;
+
+	}
+
+	// profile_tier_level(1, sps_max_sub_layers_minus1) (7.3.3)
+	private static void parseProfileTierLevel(H264BitReader reader, H265SequenceParameterSet sps) {
+
+		sps.profileSpace = reader.readUnsignedInt(2);
+		sps.tier = reader.readFlag();
+		sps.profileIdc = reader.readUnsignedInt(5);
+		sps.profileCompatibilityFlags = reader.readBits(32);
+		sps.constraintIndicatorFlags = (reader.readBits(16) << 32) | reader.readBits(32);
+		sps.levelIdc = reader.readUnsignedInt(8);
+
+		int subLayers = sps.maxSubLayers - 1;
+		boolean[] profilePresent = new boolean[subLayers];
+		boolean[] levelPresent = new boolean[subLayers];
+		for (int i = 0; i < subLayers; i++) {
+			profilePresent[i] = reader.readFlag();
+			levelPresent[i] = reader.readFlag();
+		}
+
+		if (subLayers > 0) {
+			for (int i = subLayers; i < 8; i++) {
+				reader.skipBits(2); // reserved_zero_2bits
+			}
+		}
+
+		for (int i = 0; i < subLayers; i++) {
+			if (profilePresent[i]) {
+				reader.skipBits(88);
+			}
+			if (levelPresent[i]) {
+				reader.skipBits(8);
+			}
+		}
+
+	}
+
+	private static void parseToVui(H264BitReader reader, H265SequenceParameterSet sps) {
+
+		int log2MaxPicOrderCntLsb = reader.readUE() + 4;
+
+		boolean subLayerOrderingInfoPresent = reader.readFlag();
+		for (int i = subLayerOrderingInfoPresent ? 0 : sps.maxSubLayers - 1; i < sps.maxSubLayers; i++) {
+			reader.readUE(); // sps_max_dec_pic_buffering_minus1
+			reader.readUE(); // sps_max_num_reorder_pics
+			reader.readUE(); // sps_max_latency_increase_plus1
+		}
+
+		reader.readUE(); // log2_min_luma_coding_block_size_minus3
+		reader.readUE(); // log2_diff_max_min_luma_coding_block_size
+		reader.readUE(); // log2_min_luma_transform_block_size_minus2
+		reader.readUE(); // log2_diff_max_min_luma_transform_block_size
+		reader.readUE(); // max_transform_hierarchy_depth_inter
+		reader.readUE(); // max_transform_hierarchy_depth_intra
+
+		if (reader.readFlag()) { // scaling_list_enabled_flag
+			if (reader.readFlag()) { // sps_scaling_list_data_present_flag
+				skipScalingListData(reader);
+			}
+		}
+
+		reader.readFlag(); // amp_enabled_flag
+		reader.readFlag(); // sample_adaptive_offset_enabled_flag
+
+		if (reader.readFlag()) { // pcm_enabled_flag
+			reader.skipBits(8); // pcm_sample_bit_depth_luma_minus1, pcm_sample_bit_depth_chroma_minus1
+			reader.readUE(); // log2_min_pcm_luma_coding_block_size_minus3
+			reader.readUE(); // log2_diff_max_min_pcm_luma_coding_block_size
+			reader.readFlag(); // pcm_loop_filter_disabled_flag
+		}
+
+		int numShortTermRefPicSets = reader.readUE();
+		int[] numDeltaPocs = new int[numShortTermRefPicSets];
+		for (int i = 0; i < numShortTermRefPicSets; i++) {
+			numDeltaPocs[i] = skipShortTermRefPicSet(reader, i, numDeltaPocs);
+		}
+
+		if (reader.readFlag()) { // long_term_ref_pics_present_flag
+			int numLongTermRefPics = reader.readUE();
+			for (int i = 0; i < numLongTermRefPics; i++) {
+				reader.skipBits(log2MaxPicOrderCntLsb); // lt_ref_pic_poc_lsb_sps
+				reader.readFlag(); // used_by_curr_pic_lt_sps_flag
+			}
+		}
+
+		reader.readFlag(); // sps_temporal_mvp_enabled_flag
+		reader.readFlag(); // strong_intra_smoothing_enabled_flag
+
+		if (reader.readFlag()) { // vui_parameters_present_flag
+			parseVui(reader, sps);
+		}
+
+	}
+
+	// scaling_list_data() (7.3.4)
+	private static void skipScalingListData(H264BitReader reader) {
+		for (int sizeId = 0; sizeId < 4; sizeId++) {
+			for (int matrixId = 0; matrixId < 6; matrixId += sizeId == 3 ? 3 : 1) {
+				if (!reader.readFlag()) { // scaling_list_pred_mode_flag
+					reader.readUE(); // scaling_list_pred_matrix_id_delta
+				} else {
+					int coefficients = Math.min(64, 1 << (4 + (sizeId << 1)));
+					if (sizeId > 1) {
+						reader.readSE(); // scaling_list_dc_coef_minus8
+					}
+					for (int i = 0; i < coefficients; i++) {
+						reader.readSE(); // scaling_list_delta_coef
+					}
+				}
+			}
+		}
+	}
+
+	// st_ref_pic_set(stRpsIdx) (7.3.7), returns NumDeltaPocs[stRpsIdx]
+	private static int skipShortTermRefPicSet(H264BitReader reader, int index, int[] numDeltaPocs) {
+
+		if (index != 0 && reader.readFlag()) { // inter_ref_pic_set_prediction_flag
+
+			// delta_idx_minus1 is only present in slice headers, so the reference is the previous set
+			reader.readFlag(); // delta_rps_sign
+			reader.readUE(); // abs_delta_rps_minus1
+
+			int count = 0;
+			for (int j = 0; j <= numDeltaPocs[index - 1]; j++) {
+				boolean usedByCurrPic = reader.readFlag();
+				if (usedByCurrPic || reader.readFlag()) { // use_delta_flag
+					count++;
+				}
+			}
+
+			return count;
+
+		} else {
+
+			int numNegativePics = reader.readUE();
+			int numPositivePics = reader.readUE();
+			for (int i = 0; i < numNegativePics + numPositivePics; i++) {
+				reader.readUE(); // delta_poc_s0_minus1 / delta_poc_s1_minus1
+				reader.readFlag(); // used_by_curr_pic_s0_flag / used_by_curr_pic_s1_flag
+			}
+
+			return numNegativePics + numPositivePics;
+
+		}
+
+	}
+
+	// Parses the VUI up to and including the timing info (E.2.1), the HRD parameters that follow are not needed
+	private static void parseVui(H264BitReader reader, H265SequenceParameterSet sps) {
+
+		if (reader.readFlag()) { // aspect_ratio_info_present_flag
+			int aspectRatioIdc = reader.readUnsignedInt(8);
+			if (aspectRatioIdc == 255) { // EXTENDED_SAR
+				sps.sarWidth = reader.readUnsignedInt(16);
+				sps.sarHeight = reader.readUnsignedInt(16);
+			}
+		}
+
+		if (reader.readFlag()) { // overscan_info_present_flag
+			reader.readFlag(); // overscan_appropriate_flag
+		}
+
+		if (reader.readFlag()) { // video_signal_type_present_flag
+			reader.skipBits(4); // video_format, video_full_range_flag
+			if (reader.readFlag()) { // colour_description_present_flag
+				reader.skipBits(24);
+			}
+		}
+
+		if (reader.readFlag()) { // chroma_loc_info_present_flag
+			reader.readUE();
+			reader.readUE();
+		}
+
+		reader.readFlag(); // neutral_chroma_indication_flag
+		reader.readFlag(); // field_seq_flag
+		reader.readFlag(); // frame_field_info_present_flag
+
+		if (reader.readFlag()) { // default_display_window_flag
+			reader.readUE();
+			reader.readUE();
+			reader.readUE();
+			reader.readUE();
+		}
+
+		sps.timingInfoPresent = reader.readFlag();
+		if (sps.timingInfoPresent) {
+			sps.numUnitsInTick = reader.readBits(32);
+			sps.timeScale = reader.readBits(32);
+		}
+
+	}
+
+}
@@ -0,0 +1,235 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.media.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+// Pool of idle images keyed by width, height and image type. Idle images are evicted in least recently
+// released order when the total size of the pool exceeds the byte budget. Callers acquire an image, fill
+// it and release it once nothing references it anymore, an image must not be used after it was released.
+public class BufferedImagePool {
+
+	public static boolean TODO_DEBUG = false;
+
+	public static final long DEFAULT_MAX_BYTES = 256L * 1024L * 1024L;
+
+	private static BufferedImagePool defaultPool = null;
+
+	public static synchronized BufferedImagePool getDefault() {
+		if (defaultPool == null) {
+			defaultPool = new BufferedImagePool(DEFAULT_MAX_BYTES);
+		}
+		return defaultPool;
+	}
+
+	private final Map<Key, ArrayDeque<BufferedImage>> idleImages = new HashMap<>();
+	private final IdentityHashMap<BufferedImage, Key> idleKeys = new IdentityHashMap<>();
+	private final ArrayDeque<BufferedImage> releaseOrder = new ArrayDeque<>();
+	private long maxBytes;
+	private long pooledBytes = 0;
+	private long hitCount = 0;
+	private long missCount = 0;
+	private long evictionCount = 0;
+
+	public BufferedImagePool() {
+		this(DEFAULT_MAX_BYTES);
+	}
+
+	public BufferedImagePool(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	public synchronized long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public synchronized void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+		evict();
+	}
+
+	public BufferedImage acquire(int width, int height, int type) {
+
+		if (width > 0 && height > 0 && type != BufferedImage.TYPE_CUSTOM) {
+
+			synchronized (this) {
+
+				ArrayDeque<BufferedImage> images = idleImages.get(new Key(width, height, type));
+				if (images != null) {
+
+					BufferedImage image = images.pollLast();
+					if (image != null) {
+
+						if (images.isEmpty()) {
+							idleImages.remove(new Key(width, height, type));
+						}
+						idleKeys.remove(image);
+						releaseOrder.removeLastOccurrence(image);
+						pooledBytes -= getSizeInBytes(image);
+						hitCount++;
+
+						return image;
+
+					}
+
+				}
+
+				missCount++;
+
+			}
+
+		}
+
+		// Allocate outside of the lock, large images can take a while to clear
+		return new BufferedImage(width, height, type);
+
+	}
+
+	public void release(BufferedImage image) {
+
+		if (image == null || image.getType() == BufferedImage.TYPE_CUSTOM) {
+			return;
+		}
+
+		long size = getSizeInBytes(image);
+
+		synchronized (this) {
+
+			if (size > maxBytes || idleKeys.containsKey(image)) {
+				return;
+			}
+
+			Key key = new Key(image.getWidth(), image.getHeight(), image.getType());
+
+			ArrayDeque<BufferedImage> images = idleImages.get(key);
+			if (images == null) {
+				images = new ArrayDeque<>();
+				idleImages.put(key, images);
+			}
+			images.addLast(image);
+			idleKeys.put(image, key);
+			releaseOrder.addLast(image);
+			pooledBytes += size;
+
+			evict();
+
+		}
+
+	}
+
+	private void evict() {
+
+		Iterator<BufferedImage> iterator = releaseOrder.iterator();
+		while (pooledBytes > maxBytes && iterator.hasNext()) {
+
+			BufferedImage image = iterator.next();
+			iterator.remove();
+
+			Key key = idleKeys.remove(image);
+			ArrayDeque<BufferedImage> images = idleImages.get(key);
+			if (images != null) {
+				images.removeFirstOccurrence(image);
+				if (images.isEmpty()) {
+					idleImages.remove(key);
+				}
+			}
+
+			pooledBytes -= getSizeInBytes(image);
+			evictionCount++;
+
+		}
+
+		if (TODO_DEBUG) {
+			System.out.println("BufferedImagePool, images: " + idleKeys.size() + ", bytes: " + pooledBytes + ", hits: " + hitCount + ", misses: " + missCount + ", evictions: " + evictionCount);
+		}
+
+	}
+
+	public synchronized void clear() {
+		idleImages.clear();
+		idleKeys.clear();
+		releaseOrder.clear();
+		pooledBytes = 0;
+	}
+
+	public synchronized int getPooledImageCount() {
+		return idleKeys.size();
+	}
+
+	public synchronized long getPooledBytes() {
+		return pooledBytes;
+	}
+
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	public synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+
+	public static long getSizeInBytes(BufferedImage image) {
+		DataBuffer dataBuffer = image.getRaster().getDataBuffer();
+		return (long) dataBuffer.getSize() * dataBuffer.getNumBanks() * (DataBuffer.getDataTypeSize(dataBuffer.getDataType()) / 8);
+	}
+
+	private static class Key {
+
+		private final int width;
+		private final int height;
+		private final int type;
+
+		private Key(int width, int height, int type) {
+			this.width = width;
+			this.height = height;
+			this.type = type;
+		}
+
+		@Override
+		public int hashCode() {
+			return (31 * (31 * width + height)) + type;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj instanceof Key) {
+				Key key = (Key) obj;
+				return key.width == width && key.height == height && key.type == type;
+			} else {
+				return false;
+			}
+		}
+
+	}
+
+}
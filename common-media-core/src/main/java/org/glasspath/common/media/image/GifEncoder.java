@@ -0,0 +1,697 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.media.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.glasspath.common.media.video.FrameBufferExecutors;
+
+// Animated GIF encoder which quantizes (median cut) and LZW compresses frames on a pool of worker threads,
+// encoded frames are written to the output stream in order by the thread calling writeImage() and close()
+public class GifEncoder implements GifWriter {
+
+	public static boolean TODO_DEBUG = false;
+
+	private static final int MAX_COLORS = 256;
+	private static final int TRANSPARENT_INDEX = MAX_COLORS - 1;
+	private static final int MIN_CODE_SIZE = 8;
+	private static final String COMMENT = "Glasspath.org";
+
+	private final OutputStream outputStream;
+	private final int delayTime;
+	private final boolean repeat;
+	private final ExecutorService executor;
+	private final int maxPendingFrames;
+	private final ArrayDeque<Future<byte[]>> pendingFrames = new ArrayDeque<>();
+	private int width = -1;
+	private int height = -1;
+	private int frameCount = 0;
+	private boolean closed = false;
+	private boolean deltaEncoding = false;
+	private int[] previousColors = null;
+
+	public GifEncoder(OutputStream outputStream, int imageInterval, boolean repeat) {
+		this(outputStream, imageInterval, repeat, Runtime.getRuntime().availableProcessors());
+	}
+
+	public GifEncoder(OutputStream outputStream, int imageInterval, boolean repeat, int threads) {
+		this.outputStream = outputStream;
+		this.delayTime = Math.max(0, imageInterval / 10); // GIF delays are in 1/100 seconds
+		this.repeat = repeat;
+		this.executor = Executors.newFixedThreadPool(Math.max(1, threads), FrameBufferExecutors.createThreadFactory("GifEncoder-"));
+		this.maxPendingFrames = Math.max(1, threads) * 2;
+	}
+
+	public int getFrameCount() {
+		return frameCount;
+	}
+
+	public boolean isDeltaEncoding() {
+		return deltaEncoding;
+	}
+
+	// When enabled (before the first frame is written) every next frame only contains the rectangle which changed,
+	// with unchanged pixels made transparent. The palette of a frame is created from its changed pixels, so colors
+	// which appear later in the animation are not mapped on the colors of the first frame
+	public void setDeltaEncoding(boolean deltaEncoding) {
+		if (width < 0) {
+			this.deltaEncoding = deltaEncoding;
+		}
+	}
+
+	@Override
+	public void writeImage(RenderedImage image) throws IOException {
+
+		if (closed) {
+			throw new IOException("GifEncoder is closed");
+		}
+
+		boolean firstFrame = width < 0;
+		if (firstFrame) {
+			width = image.getWidth();
+			height = image.getHeight();
+		}
+
+		// The pixels are copied, the image can be reused (or released) by the caller when this method returns
+		int[] pixels = getPixels(image, width, height);
+
+		if (firstFrame) {
+			writeHeader();
+		}
+
+		if (deltaEncoding) {
+			submitDeltaFrame(pixels);
+		} else {
+
+			pendingFrames.add(executor.submit(new Callable<byte[]>() {
+
+				@Override
+				public byte[] call() throws Exception {
+					return encodeFrame(pixels, width, height, delayTime);
+				}
+			}));
+
+		}
+		frameCount++;
+
+		// Write the frames which are ready, block when too many frames are pending
+		while (!pendingFrames.isEmpty() && (pendingFrames.peek().isDone() || pendingFrames.size() > maxPendingFrames)) {
+			writePendingFrame();
+		}
+
+	}
+
+	@Override
+	public void close() throws IOException {
+
+		if (closed) {
+			return;
+		}
+		closed = true;
+
+		try {
+
+			while (!pendingFrames.isEmpty()) {
+				writePendingFrame();
+			}
+
+			if (width < 0) {
+				width = 1;
+				height = 1;
+				writeHeader();
+			}
+
+			outputStream.write(0x3B); // Trailer
+			outputStream.flush();
+
+		} finally {
+			for (Future<byte[]> future : pendingFrames) {
+				future.cancel(true);
+			}
+			pendingFrames.clear();
+			executor.shutdown();
+		}
+
+	}
+
+	private void submitDeltaFrame(int[] pixels) {
+
+		// Pixels are compared on their 15 bit color (the resolution of the palette), the
+		// changed rectangle depends on the pixels of the previous frame so it's found here
+		int[] colors = new int[pixels.length];
+		for (int i = 0; i < pixels.length; i++) {
+			colors[i] = toRgb15(pixels[i]);
+		}
+
+		int[] previous = previousColors;
+		previousColors = colors;
+
+		int x0 = 0, y0 = 0, x1 = width - 1, y1 = height - 1;
+
+		if (previous != null) {
+
+			x0 = width;
+			y0 = height;
+			x1 = -1;
+			y1 = -1;
+
+			for (int y = 0, i = 0; y < height; y++) {
+				for (int x = 0; x < width; x++, i++) {
+					if (colors[i] != previous[i]) {
+						if (x < x0) {
+							x0 = x;
+						}
+						if (x > x1) {
+							x1 = x;
+						}
+						if (y < y0) {
+							y0 = y;
+						}
+						y1 = y;
+					}
+				}
+			}
+
+			if (x1 < 0) {
+				// Nothing changed, a single transparent pixel keeps the frame (and its delay) in the animation
+				x0 = 0;
+				y0 = 0;
+				x1 = 0;
+				y1 = 0;
+			}
+
+		}
+
+		int x = x0;
+		int y = y0;
+		int w = x1 - x0 + 1;
+		int h = y1 - y0 + 1;
+
+		// Unchanged pixels are written as the transparent index
+		int[] subImage = new int[w * h];
+		boolean[] changed = new boolean[w * h];
+		int changedCount = 0;
+		for (int row = 0, i = 0; row < h; row++) {
+			int offset = ((y + row) * width) + x;
+			for (int column = 0; column < w; column++, i++, offset++) {
+				subImage[i] = pixels[offset];
+				changed[i] = previous == null || colors[offset] != previous[offset];
+				if (changed[i]) {
+					changedCount++;
+				}
+			}
+		}
+
+		boolean first = previous == null;
+		int count = changedCount;
+		pendingFrames.add(executor.submit(new Callable<byte[]>() {
+
+			@Override
+			public byte[] call() throws Exception {
+				return encodeDeltaImage(subImage, changed, count, first, x, y, w, h, delayTime);
+			}
+		}));
+
+	}
+
+	// The palette is created from the changed pixels only, the last index is reserved for transparency (except for the first frame)
+	protected static byte[] encodeDeltaImage(int[] pixels, boolean[] changed, int changedCount, boolean first, int x, int y, int width, int height, int delayTime) {
+
+		int[] changedPixels = new int[changedCount];
+		for (int i = 0, n = 0; i < pixels.length; i++) {
+			if (changed[i]) {
+				changedPixels[n++] = pixels[i];
+			}
+		}
+
+		int[] palette = new int[MAX_COLORS];
+		int[] lookup = changedCount > 0 ? createPalette(changedPixels, palette, first ? MAX_COLORS : MAX_COLORS - 1) : null;
+
+		byte[] indexedPixels = new byte[pixels.length];
+		for (int i = 0; i < pixels.length; i++) {
+			indexedPixels[i] = (byte) (changed[i] ? lookup[toRgb15(pixels[i])] : TRANSPARENT_INDEX);
+		}
+
+		return encodeImage(indexedPixels, x, y, width, height, delayTime, first ? -1 : TRANSPARENT_INDEX, palette);
+
+	}
+
+	private void writePendingFrame() throws IOException {
+
+		Future<byte[]> future = pendingFrames.poll();
+
+		try {
+			outputStream.write(future.get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			throw new IOException("Encoding frame failed", e.getCause());
+		}
+
+	}
+
+	private void writeHeader() throws IOException {
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		out.write("GIF89a".getBytes(StandardCharsets.US_ASCII));
+
+		// Logical screen descriptor, there is no global color table (every frame has its own palette)
+		writeShort(out, width);
+		writeShort(out, height);
+		out.write(0x70); // Color resolution 8 bits
+		out.write(0); // Background color index
+		out.write(0); // Pixel aspect ratio
+
+		if (repeat) {
+			out.write(0x21);
+			out.write(0xFF);
+			out.write(11);
+			out.write("NETSCAPE2.0".getBytes(StandardCharsets.US_ASCII));
+			out.write(3);
+			out.write(1);
+			writeShort(out, 0); // Loop forever
+			out.write(0);
+		}
+
+		byte[] comment = COMMENT.getBytes(StandardCharsets.US_ASCII);
+		out.write(0x21);
+		out.write(0xFE);
+		out.write(comment.length);
+		out.write(comment);
+		out.write(0);
+
+		outputStream.write(out.toByteArray());
+
+	}
+
+	private static int[] getPixels(RenderedImage image, int width, int height) {
+
+		BufferedImage bufferedImage;
+		if (image instanceof BufferedImage && image.getWidth() == width && image.getHeight() == height) {
+			bufferedImage = (BufferedImage) image;
+		} else {
+			// Frames with a different size are drawn on an image with the size of the first frame
+			bufferedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+			bufferedImage.createGraphics().drawRenderedImage(image, null);
+		}
+
+		return bufferedImage.getRGB(0, 0, width, height, null, 0, width);
+
+	}
+
+	protected static byte[] encodeFrame(int[] pixels, int width, int height, int delayTime) {
+
+		int[] palette = new int[MAX_COLORS];
+		byte[] indexedPixels = quantize(pixels, palette);
+
+		return encodeImage(indexedPixels, 0, 0, width, height, delayTime, -1, palette);
+
+	}
+
+	protected static byte[] encodeImage(byte[] indexedPixels, int x, int y, int width, int height, int delayTime, int transparentIndex, int[] localPalette) {
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream((width * height) / 2);
+
+		// Graphic control extension
+		out.write(0x21);
+		out.write(0xF9);
+		out.write(4);
+		out.write(transparentIndex >= 0 ? 0x05 : 0x04); // Disposal method: do not dispose
+		writeShort(out, delayTime);
+		out.write(transparentIndex >= 0 ? transparentIndex : 0);
+		out.write(0);
+
+		// Image descriptor, the local color table is omitted when no palette is passed
+		out.write(0x2C);
+		writeShort(out, x);
+		writeShort(out, y);
+		writeShort(out, width);
+		writeShort(out, height);
+		if (localPalette != null) {
+			out.write(0x87); // Local color table, 256 entries
+			writePalette(out, localPalette);
+		} else {
+			out.write(0);
+		}
+
+		out.write(MIN_CODE_SIZE);
+		new LzwEncoder(out).encode(indexedPixels);
+		out.write(0); // Block terminator
+
+		return out.toByteArray();
+
+	}
+
+	// Returns the palette index for each pixel
+	protected static byte[] quantize(int[] pixels, int[] palette) {
+
+		int[] lookup = createPalette(pixels, palette, MAX_COLORS);
+
+		byte[] indexedPixels = new byte[pixels.length];
+		for (int i = 0; i < pixels.length; i++) {
+			indexedPixels[i] = (byte) lookup[toRgb15(pixels[i])];
+		}
+
+		return indexedPixels;
+
+	}
+
+	// Median cut on a 15 bit (5 bits per channel) histogram, returns a lookup table from 15 bit
+	// colors to palette indices, -1 for colors which don't appear in the pixels
+	protected static int[] createPalette(int[] pixels, int[] palette, int maxColors) {
+
+		int[] histogram = new int[1 << 15];
+		for (int pixel : pixels) {
+			histogram[toRgb15(pixel)]++;
+		}
+
+		int colorCount = 0;
+		for (int count : histogram) {
+			if (count > 0) {
+				colorCount++;
+			}
+		}
+
+		int[] colors = new int[colorCount];
+		int n = 0;
+		for (int i = 0; i < histogram.length; i++) {
+			if (histogram[i] > 0) {
+				colors[n++] = i;
+			}
+		}
+
+		// Boxes are ranges in the colors array
+		int[] boxStart = new int[maxColors];
+		int[] boxEnd = new int[maxColors];
+		boxStart[0] = 0;
+		boxEnd[0] = colorCount;
+		int boxCount = 1;
+
+		while (boxCount < maxColors) {
+
+			// Split the box with the most pixels which contains more than one color
+			int splitBox = -1;
+			long maxPixels = -1;
+			for (int b = 0; b < boxCount; b++) {
+				if (boxEnd[b] - boxStart[b] > 1) {
+					long boxPixels = 0;
+					for (int i = boxStart[b]; i < boxEnd[b]; i++) {
+						boxPixels += histogram[colors[i]];
+					}
+					if (boxPixels > maxPixels) {
+						maxPixels = boxPixels;
+						splitBox = b;
+					}
+				}
+			}
+
+			if (splitBox < 0) {
+				break;
+			}
+
+			int start = boxStart[splitBox];
+			int end = boxEnd[splitBox];
+
+			// Sort the box along the channel with the largest range
+			int shift = getLargestRangeShift(colors, start, end);
+			sortByChannel(colors, start, end, shift);
+
+			// Split at the weighted median
+			long half = maxPixels / 2;
+			long sum = 0;
+			int split = start + 1;
+			for (int i = start; i < end - 1; i++) {
+				sum += histogram[colors[i]];
+				split = i + 1;
+				if (sum >= half) {
+					break;
+				}
+			}
+
+			boxEnd[splitBox] = split;
+			boxStart[boxCount] = split;
+			boxEnd[boxCount] = end;
+			boxCount++;
+
+		}
+
+		// The palette entry of a box is the weighted average color of the box
+		int[] lookup = new int[histogram.length];
+		Arrays.fill(lookup, -1);
+		Arrays.fill(palette, 0);
+		for (int b = 0; b < boxCount; b++) {
+
+			long r = 0, g = 0, bl = 0, total = 0;
+			for (int i = boxStart[b]; i < boxEnd[b]; i++) {
+				int color = colors[i];
+				long count = histogram[color];
+				r += ((color >> 10) & 0x1F) * count;
+				g += ((color >> 5) & 0x1F) * count;
+				bl += (color & 0x1F) * count;
+				total += count;
+			}
+
+			if (total > 0) {
+				palette[b] = (to8Bits(r, total) << 16) | (to8Bits(g, total) << 8) | to8Bits(bl, total);
+			}
+
+			for (int i = boxStart[b]; i < boxEnd[b]; i++) {
+				lookup[colors[i]] = b;
+			}
+
+		}
+
+		return lookup;
+
+	}
+
+	private static int toRgb15(int rgb) {
+		return ((rgb >> 9) & 0x7C00) | ((rgb >> 6) & 0x03E0) | ((rgb >> 3) & 0x001F);
+	}
+
+	private static int to8Bits(long sum, long count) {
+		int value = (int) ((sum * 255 + (count * 31) / 2) / (count * 31));
+		return value < 0 ? 0 : (value > 255 ? 255 : value);
+	}
+
+	private static int getLargestRangeShift(int[] colors, int start, int end) {
+
+		int rMin = 31, rMax = 0, gMin = 31, gMax = 0, bMin = 31, bMax = 0;
+		for (int i = start; i < end; i++) {
+			int r = (colors[i] >> 10) & 0x1F;
+			int g = (colors[i] >> 5) & 0x1F;
+			int b = colors[i] & 0x1F;
+			rMin = Math.min(rMin, r);
+			rMax = Math.max(rMax, r);
+			gMin = Math.min(gMin, g);
+			gMax = Math.max(gMax, g);
+			bMin = Math.min(bMin, b);
+			bMax = Math.max(bMax, b);
+		}
+
+		int rRange = rMax - rMin;
+		int gRange = gMax - gMin;
+		int bRange = bMax - bMin;
+
+		if (gRange >= rRange && gRange >= bRange) {
+			return 5;
+		} else if (rRange >= bRange) {
+			return 10;
+		} else {
+			return 0;
+		}
+
+	}
+
+	// Sorts the colors by the 5 bit channel at the shift position (the channel becomes the most significant key)
+	private static void sortByChannel(int[] colors, int start, int end, int shift) {
+
+		int length = end - start;
+		long[] keys = new long[length];
+		for (int i = 0; i < length; i++) {
+			int color = colors[start + i];
+			keys[i] = ((long) ((color >> shift) & 0x1F) << 15) | color;
+		}
+
+		Arrays.sort(keys);
+
+		for (int i = 0; i < length; i++) {
+			colors[start + i] = (int) (keys[i] & 0x7FFF);
+		}
+
+	}
+
+	private static void writePalette(ByteArrayOutputStream out, int[] palette) {
+		for (int color : palette) {
+			out.write((color >> 16) & 0xFF);
+			out.write((color >> 8) & 0xFF);
+			out.write(color & 0xFF);
+		}
+	}
+
+	private static void writeShort(ByteArrayOutputStream out, int value) {
+		out.write(value & 0xFF);
+		out.write((value >> 8) & 0xFF);
+	}
+
+	// GIF variant of LZW (variable code size, max 12 bits), codes are packed LSB first in sub blocks of max 255 bytes
+	private static class LzwEncoder {
+
+		private static final int MAX_BITS = 12;
+		private static final int MAX_CODE = 1 << MAX_BITS;
+		private static final int HASH_SIZE = 5003; // 80% occupancy
+
+		private final ByteArrayOutputStream out;
+		private final byte[] block = new byte[255];
+		private final int[] hashKeys = new int[HASH_SIZE];
+		private final int[] hashCodes = new int[HASH_SIZE];
+		private int blockSize = 0;
+		private int bitBuffer = 0;
+		private int bitCount = 0;
+
+		private LzwEncoder(ByteArrayOutputStream out) {
+			this.out = out;
+		}
+
+		private void encode(byte[] pixels) {
+
+			int clearCode = 1 << MIN_CODE_SIZE;
+			int endCode = clearCode + 1;
+			int codeSize = MIN_CODE_SIZE + 1;
+			int nextCode = clearCode + 2;
+
+			Arrays.fill(hashKeys, -1);
+
+			writeCode(clearCode, codeSize);
+
+			if (pixels.length > 0) {
+
+				int prefix = pixels[0] & 0xFF;
+
+				for (int i = 1; i < pixels.length; i++) {
+
+					int c = pixels[i] & 0xFF;
+					int key = (c << MAX_BITS) | prefix;
+
+					int index = ((c << 4) ^ prefix) % HASH_SIZE;
+					int step = index == 0 ? 1 : HASH_SIZE - index;
+					while (hashKeys[index] != -1 && hashKeys[index] != key) {
+						index -= step;
+						if (index < 0) {
+							index += HASH_SIZE;
+						}
+					}
+
+					if (hashKeys[index] == key) {
+						prefix = hashCodes[index];
+						continue;
+					}
+
+					writeCode(prefix, codeSize);
+
+					if (nextCode < MAX_CODE) {
+
+						// The code size grows once the decoder will have a code that doesn't fit anymore
+						if (nextCode == (1 << codeSize) && codeSize < MAX_BITS) {
+							codeSize++;
+						}
+
+						hashKeys[index] = key;
+						hashCodes[index] = nextCode++;
+
+					} else {
+
+						writeCode(clearCode, codeSize);
+						Arrays.fill(hashKeys, -1);
+						codeSize = MIN_CODE_SIZE + 1;
+						nextCode = clearCode + 2;
+
+					}
+
+					prefix = c;
+
+				}
+
+				writeCode(prefix, codeSize);
+
+				if (nextCode == (1 << codeSize) && codeSize < MAX_BITS) {
+					codeSize++;
+				}
+
+			}
+
+			writeCode(endCode, codeSize);
+
+			if (bitCount > 0) {
+				writeByte(bitBuffer & 0xFF);
+			}
+			flushBlock();
+
+		}
+
+		private void writeCode(int code, int codeSize) {
+
+			bitBuffer |= code << bitCount;
+			bitCount += codeSize;
+
+			while (bitCount >= 8) {
+				writeByte(bitBuffer & 0xFF);
+				bitBuffer >>>= 8;
+				bitCount -= 8;
+			}
+
+		}
+
+		private void writeByte(int value) {
+			block[blockSize++] = (byte) value;
+			if (blockSize == block.length) {
+				flushBlock();
+			}
+		}
+
+		private void flushBlock() {
+			if (blockSize > 0) {
+				out.write(blockSize);
+				out.write(block, 0, blockSize);
+				blockSize = 0;
+			}
+		}
+
+	}
+
+}
@@ -36,7 +36,7 @@ import javax.imageio.metadata.IIOMetadata;
 import javax.imageio.metadata.IIOMetadataNode;
 import javax.imageio.stream.ImageOutputStream;
 
-public class GifExporter {
+public class GifExporter implements GifWriter {
 
 	private ImageWriter imageWriter;
 	private ImageWriteParam imageWriteParam;
@@ -86,10 +86,12 @@ public class GifExporter {
 
 	}
 
+	@Override
 	public void writeImage(RenderedImage image) throws IOException {
 		imageWriter.writeToSequence(new IIOImage(image, null, iioMetaData), imageWriteParam);
 	}
 
+	@Override
 	public void close() throws IOException {
 		imageWriter.endWriteSequence();
 	}
@@ -0,0 +1,480 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.media.image;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Pixel format conversion and scaling kernels, sources are rows with a stride (in bytes, or ints for int[] images), BGR
+// destinations are byte[] rows (TYPE_3BYTE_BGR), RGB destinations int[] rows (TYPE_INT_RGB), YUV is converted as BT.601
+// limited range. Large frames are converted in bands of rows on a ForkJoinPool
+public class PixelFormatConverter {
+
+	// Frames with less pixels are converted on the calling thread
+	public static int PARALLEL_MIN_PIXELS = 1280 * 720;
+	public static final int MIN_BAND_HEIGHT = 32;
+
+	private static volatile ForkJoinPool pool = ForkJoinPool.commonPool();
+
+	private static final ThreadLocal<byte[][]> scratchRows = new ThreadLocal<byte[][]>() {
+
+		@Override
+		protected byte[][] initialValue() {
+			return new byte[3][0];
+		}
+	};
+
+	private PixelFormatConverter() {
+
+	}
+
+	public static ForkJoinPool getPool() {
+		return pool;
+	}
+
+	public static void setPool(ForkJoinPool pool) {
+		PixelFormatConverter.pool = pool;
+	}
+
+	public static void nv12ToBgr(ByteBuffer y, int yStride, ByteBuffer uv, int uvStride, int width, int height, byte[] dst, int dstStride) {
+		new Yuv420Kernel(y, yStride, uv, uvStride, null, 0, width, height, dst, null, dstStride).execute();
+	}
+
+	public static void nv12ToIntRgb(ByteBuffer y, int yStride, ByteBuffer uv, int uvStride, int width, int height, int[] dst, int dstStride) {
+		new Yuv420Kernel(y, yStride, uv, uvStride, null, 0, width, height, null, dst, dstStride).execute();
+	}
+
+	public static void i420ToBgr(ByteBuffer y, int yStride, ByteBuffer u, int uStride, ByteBuffer v, int vStride, int width, int height, byte[] dst, int dstStride) {
+		new Yuv420Kernel(y, yStride, u, uStride, v, vStride, width, height, dst, null, dstStride).execute();
+	}
+
+	public static void i420ToIntRgb(ByteBuffer y, int yStride, ByteBuffer u, int uStride, ByteBuffer v, int vStride, int width, int height, int[] dst, int dstStride) {
+		new Yuv420Kernel(y, yStride, u, uStride, v, vStride, width, height, null, dst, dstStride).execute();
+	}
+
+	public static void bgraToBgr(byte[] src, int srcStride, int width, int height, byte[] dst, int dstStride) {
+		new PackedKernel(src, srcStride, 4, width, height, dst, null, dstStride).execute();
+	}
+
+	public static void bgraToIntRgb(byte[] src, int srcStride, int width, int height, int[] dst, int dstStride) {
+		new PackedKernel(src, srcStride, 4, width, height, null, dst, dstStride).execute();
+	}
+
+	public static void bgrToIntRgb(byte[] src, int srcStride, int width, int height, int[] dst, int dstStride) {
+		new PackedKernel(src, srcStride, 3, width, height, null, dst, dstStride).execute();
+	}
+
+	public static void bgrToBgr(ByteBuffer src, int srcStride, int width, int height, byte[] dst, int dstStride) {
+
+		ByteBuffer buffer = src.duplicate();
+		int rowLength = width * 3;
+
+		if (srcStride == rowLength && dstStride == rowLength) {
+			buffer.position(0);
+			buffer.get(dst, 0, rowLength * height);
+		} else {
+			for (int row = 0; row < height; row++) {
+				buffer.position(row * srcStride);
+				buffer.get(dst, row * dstStride, rowLength);
+			}
+		}
+
+	}
+
+	// Box filter, width and height of the destination are the source size divided by the factor (2 or 4, rounded down)
+	public static void downscaleBgr(byte[] src, int srcStride, int width, int height, int factor, byte[] dst, int dstStride) {
+		new DownscaleKernel(src, null, srcStride, width, height, factor, dst, null, dstStride).execute();
+	}
+
+	public static void downscaleIntRgb(int[] src, int srcStride, int width, int height, int factor, int[] dst, int dstStride) {
+		new DownscaleKernel(null, src, srcStride, width, height, factor, null, dst, dstStride).execute();
+	}
+
+	// Scales a TYPE_3BYTE_BGR or TYPE_INT_RGB image, when the target is 1/2 or 1/4 of the size (or smaller) the box kernels
+	// are used first, bilinear interpolation is only used for the remaining (less than 2x) step. The target image is reused
+	// when it has the right size (and the type of the source), otherwise a new image is created
+	public static BufferedImage scale(BufferedImage image, int width, int height, BufferedImage target) {
+
+		int type = image.getType() == BufferedImage.TYPE_INT_RGB ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_3BYTE_BGR;
+		if (image.getType() != type) {
+			BufferedImage converted = new BufferedImage(image.getWidth(), image.getHeight(), type);
+			Graphics2D g2d = converted.createGraphics();
+			g2d.drawImage(image, 0, 0, null);
+			g2d.dispose();
+			image = converted;
+		}
+
+		if (target == null || target.getWidth() != width || target.getHeight() != height || target.getType() != type) {
+			target = new BufferedImage(width, height, type);
+		}
+
+		while (image.getWidth() >= width * 2 && image.getHeight() >= height * 2) {
+
+			int factor = image.getWidth() >= width * 4 && image.getHeight() >= height * 4 ? 4 : 2;
+			int scaledWidth = image.getWidth() / factor;
+			int scaledHeight = image.getHeight() / factor;
+
+			BufferedImage scaled = scaledWidth == width && scaledHeight == height ? target : new BufferedImage(scaledWidth, scaledHeight, type);
+
+			if (type == BufferedImage.TYPE_INT_RGB) {
+				downscaleIntRgb(getInts(image), image.getWidth(), image.getWidth(), image.getHeight(), factor, getInts(scaled), scaledWidth);
+			} else {
+				downscaleBgr(getBytes(image), image.getWidth() * 3, image.getWidth(), image.getHeight(), factor, getBytes(scaled), scaledWidth * 3);
+			}
+
+			image = scaled;
+
+		}
+
+		if (image != target) {
+			Graphics2D g2d = target.createGraphics();
+			g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			g2d.drawImage(image, 0, 0, width, height, null);
+			g2d.dispose();
+		}
+
+		return target;
+
+	}
+
+	private static byte[] getBytes(BufferedImage image) {
+		return ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+	}
+
+	private static int[] getInts(BufferedImage image) {
+		return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+	}
+
+	private static byte[] getScratchRow(int index, int length) {
+		byte[][] rows = scratchRows.get();
+		if (rows[index].length < length) {
+			rows[index] = new byte[length];
+		}
+		return rows[index];
+	}
+
+	private static int clamp(int value) {
+		return value < 0 ? 0 : (value > 255 ? 255 : value);
+	}
+
+	// Converts rows [from, to), bands are split on multiples of rowAlignment (source rows that share chroma or are averaged)
+	private static abstract class Kernel {
+
+		protected final int width;
+		protected final int height;
+		protected final int rowAlignment;
+
+		protected Kernel(int width, int height, int rowAlignment) {
+			this.width = width;
+			this.height = height;
+			this.rowAlignment = rowAlignment;
+		}
+
+		protected abstract void convertRows(int from, int to);
+
+		protected void execute() {
+
+			ForkJoinPool pool = PixelFormatConverter.pool;
+			if (pool == null || pool.getParallelism() < 2 || (long) width * height < PARALLEL_MIN_PIXELS || height < MIN_BAND_HEIGHT * 2) {
+				convertRows(0, height);
+			} else {
+				pool.invoke(new Band(this, 0, height, Math.max(MIN_BAND_HEIGHT, height / (pool.getParallelism() * 2))));
+			}
+
+		}
+
+	}
+
+	private static class Band extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Kernel kernel;
+		private final int from;
+		private final int to;
+		private final int bandHeight;
+
+		private Band(Kernel kernel, int from, int to, int bandHeight) {
+			this.kernel = kernel;
+			this.from = from;
+			this.to = to;
+			this.bandHeight = bandHeight;
+		}
+
+		@Override
+		protected void compute() {
+
+			if (to - from <= bandHeight) {
+				kernel.convertRows(from, to);
+			} else {
+
+				int middle = from + (to - from) / 2;
+				middle -= middle % kernel.rowAlignment;
+
+				if (middle <= from) {
+					kernel.convertRows(from, to);
+				} else {
+					invokeAll(new Band(kernel, from, middle, bandHeight), new Band(kernel, middle, to, bandHeight));
+				}
+
+			}
+
+		}
+
+	}
+
+	// NV12 when v is null (u holds interleaved UV), I420 otherwise
+	private static class Yuv420Kernel extends Kernel {
+
+		private final ByteBuffer y;
+		private final int yStride;
+		private final ByteBuffer u;
+		private final int uStride;
+		private final ByteBuffer v;
+		private final int vStride;
+		private final byte[] bgr;
+		private final int[] rgb;
+		private final int dstStride;
+
+		private Yuv420Kernel(ByteBuffer y, int yStride, ByteBuffer u, int uStride, ByteBuffer v, int vStride, int width, int height, byte[] bgr, int[] rgb, int dstStride) {
+			super(width, height, 2);
+			this.y = y;
+			this.yStride = yStride;
+			this.u = u;
+			this.uStride = uStride;
+			this.v = v;
+			this.vStride = vStride;
+			this.bgr = bgr;
+			this.rgb = rgb;
+			this.dstStride = dstStride;
+		}
+
+		@Override
+		protected void convertRows(int from, int to) {
+
+			boolean nv12 = v == null;
+			int chromaWidth = (width + 1) / 2;
+
+			byte[] rowY = getScratchRow(0, width);
+			byte[] rowU = getScratchRow(1, nv12 ? chromaWidth * 2 : chromaWidth);
+			byte[] rowV = nv12 ? rowU : getScratchRow(2, chromaWidth);
+
+			// Duplicates, positions of buffers shared between bands (and callers) are not changed
+			ByteBuffer planeY = y.duplicate();
+			ByteBuffer planeU = u.duplicate();
+			ByteBuffer planeV = nv12 ? null : v.duplicate();
+
+			for (int row = from; row < to; row++) {
+
+				planeY.position(row * yStride);
+				planeY.get(rowY, 0, width);
+
+				if (row == from || (row & 1) == 0) {
+					planeU.position((row >> 1) * uStride);
+					planeU.get(rowU, 0, nv12 ? chromaWidth * 2 : chromaWidth);
+					if (!nv12) {
+						planeV.position((row >> 1) * vStride);
+						planeV.get(rowV, 0, chromaWidth);
+					}
+				}
+
+				int offset = row * dstStride;
+
+				for (int x = 0; x < width; x += 2) {
+
+					int cu, cv;
+					if (nv12) {
+						cu = (rowU[x] & 0xFF) - 128;
+						cv = (rowU[x + 1] & 0xFF) - 128;
+					} else {
+						cu = (rowU[x >> 1] & 0xFF) - 128;
+						cv = (rowV[x >> 1] & 0xFF) - 128;
+					}
+
+					int bu = 516 * cu + 128;
+					int guv = -100 * cu - 208 * cv + 128;
+					int rv = 409 * cv + 128;
+
+					int c = 298 * ((rowY[x] & 0xFF) - 16);
+					offset = writePixel(offset, clamp((c + bu) >> 8), clamp((c + guv) >> 8), clamp((c + rv) >> 8));
+
+					if (x + 1 < width) {
+						c = 298 * ((rowY[x + 1] & 0xFF) - 16);
+						offset = writePixel(offset, clamp((c + bu) >> 8), clamp((c + guv) >> 8), clamp((c + rv) >> 8));
+					}
+
+				}
+
+			}
+
+		}
+
+		private int writePixel(int offset, int b, int g, int r) {
+			if (bgr != null) {
+				bgr[offset] = (byte) b;
+				bgr[offset + 1] = (byte) g;
+				bgr[offset + 2] = (byte) r;
+				return offset + 3;
+			} else {
+				rgb[offset] = (r << 16) | (g << 8) | b;
+				return offset + 1;
+			}
+		}
+
+	}
+
+	// BGRA (4 bytes per pixel, alpha is ignored) or BGR (3 bytes per pixel) source
+	private static class PackedKernel extends Kernel {
+
+		private final byte[] src;
+		private final int srcStride;
+		private final int pixelStride;
+		private final byte[] bgr;
+		private final int[] rgb;
+		private final int dstStride;
+
+		private PackedKernel(byte[] src, int srcStride, int pixelStride, int width, int height, byte[] bgr, int[] rgb, int dstStride) {
+			super(width, height, 1);
+			this.src = src;
+			this.srcStride = srcStride;
+			this.pixelStride = pixelStride;
+			this.bgr = bgr;
+			this.rgb = rgb;
+			this.dstStride = dstStride;
+		}
+
+		@Override
+		protected void convertRows(int from, int to) {
+
+			for (int row = from; row < to; row++) {
+
+				int i = row * srcStride;
+				int end = i + width * pixelStride;
+
+				if (bgr != null) {
+					for (int j = row * dstStride; i < end; i += pixelStride, j += 3) {
+						bgr[j] = src[i];
+						bgr[j + 1] = src[i + 1];
+						bgr[j + 2] = src[i + 2];
+					}
+				} else {
+					for (int j = row * dstStride; i < end; i += pixelStride, j++) {
+						rgb[j] = ((src[i + 2] & 0xFF) << 16) | ((src[i + 1] & 0xFF) << 8) | (src[i] & 0xFF);
+					}
+				}
+
+			}
+
+		}
+
+	}
+
+	// Rows are destination rows, each averages factor x factor source pixels
+	private static class DownscaleKernel extends Kernel {
+
+		private final byte[] srcBytes;
+		private final int[] srcInts;
+		private final int srcStride;
+		private final int factor;
+		private final byte[] dstBytes;
+		private final int[] dstInts;
+		private final int dstStride;
+
+		private DownscaleKernel(byte[] srcBytes, int[] srcInts, int srcStride, int width, int height, int factor, byte[] dstBytes, int[] dstInts, int dstStride) {
+			super(width / factor, height / factor, 1);
+			if (factor != 2 && factor != 4) {
+				throw new IllegalArgumentException("Unsupported factor: " + factor);
+			}
+			this.srcBytes = srcBytes;
+			this.srcInts = srcInts;
+			this.srcStride = srcStride;
+			this.factor = factor;
+			this.dstBytes = dstBytes;
+			this.dstInts = dstInts;
+			this.dstStride = dstStride;
+		}
+
+		@Override
+		protected void convertRows(int from, int to) {
+
+			int shift = factor == 2 ? 2 : 4; // log2(factor * factor)
+			int round = 1 << (shift - 1);
+
+			for (int row = from; row < to; row++) {
+
+				int srcRow = row * factor * srcStride;
+
+				if (dstBytes != null) {
+
+					for (int x = 0, j = row * dstStride; x < width; x++, j += 3) {
+
+						int b = 0, g = 0, r = 0;
+						for (int dy = 0; dy < factor; dy++) {
+							int i = srcRow + dy * srcStride + x * factor * 3;
+							for (int dx = 0; dx < factor; dx++, i += 3) {
+								b += srcBytes[i] & 0xFF;
+								g += srcBytes[i + 1] & 0xFF;
+								r += srcBytes[i + 2] & 0xFF;
+							}
+						}
+
+						dstBytes[j] = (byte) ((b + round) >> shift);
+						dstBytes[j + 1] = (byte) ((g + round) >> shift);
+						dstBytes[j + 2] = (byte) ((r + round) >> shift);
+
+					}
+
+				} else {
+
+					for (int x = 0, j = row * dstStride; x < width; x++, j++) {
+
+						int r = 0, g = 0, b = 0;
+						for (int dy = 0; dy < factor; dy++) {
+							int i = srcRow + dy * srcStride + x * factor;
+							for (int dx = 0; dx < factor; dx++, i++) {
+								int pixel = srcInts[i];
+								r += (pixel >> 16) & 0xFF;
+								g += (pixel >> 8) & 0xFF;
+								b += pixel & 0xFF;
+							}
+						}
+
+						dstInts[j] = (((r + round) >> shift) << 16) | (((g + round) >> shift) << 8) | ((b + round) >> shift);
+
+					}
+
+				}
+
+			}
+
+		}
+
+	}
+
+}
@@ -0,0 +1,229 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.media.video;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+// Decorator which serves frames from a FrameCache, frames which are not cached are loaded by the
+// wrapped frame loader and added to the cache. Timestamps are cached relative to the start of the
+// video (like the frames returned by the frame loaders), the size in the key is the requested size.
+public class CachingFrameLoader extends FrameLoader {
+
+	private final FrameLoader frameLoader;
+	private final FrameCache frameCache;
+	private volatile CachingCallback activeCallback = null;
+
+	public CachingFrameLoader(FrameLoader frameLoader) {
+		this(frameLoader, FrameCache.getDefault());
+	}
+
+	public CachingFrameLoader(FrameLoader frameLoader, FrameCache frameCache) {
+		this.frameLoader = frameLoader;
+		this.frameCache = frameCache;
+	}
+
+	public FrameLoader getFrameLoader() {
+		return frameLoader;
+	}
+
+	public FrameCache getFrameCache() {
+		return frameCache;
+	}
+
+	@Override
+	public void open(DefaultVideo video, int width, int height, boolean closeFile) {
+		super.open(video, width, height, closeFile);
+		frameLoader.open(video, width, height, closeFile);
+	}
+
+	@Override
+	public boolean isFileOpen() {
+		return frameLoader.isFileOpen();
+	}
+
+	@Override
+	public void loadFrame(FrameLoaderCallback callback, long timestamp, int width, int height, BufferedImage image) {
+
+		FrameCache.Key key = frameCache.createKey(video.getPath(), timestamp - getVideoOffset(), width, height);
+
+		Frame frame = frameCache.get(key, image, callback.getImagePool());
+		if (frame != null) {
+			callback.fireFrameLoaded(video, frame);
+		} else {
+			activeCallback = new CachingCallback(callback, width, height);
+			try {
+				frameLoader.loadFrame(activeCallback, timestamp, width, height, image);
+			} finally {
+				activeCallback = null;
+			}
+		}
+
+	}
+
+	@Override
+	public boolean loadFrame(FrameLoaderCallback callback, long timestamp, int width, int height, BufferedImage image, boolean returnFirstFrame) {
+
+		FrameCache.Key key = frameCache.createKey(video.getPath(), timestamp - getVideoOffset(), width, height);
+
+		Frame frame = frameCache.get(key, image, callback.getImagePool());
+		if (frame != null) {
+			callback.fireFrameLoaded(video, frame);
+			return true;
+		} else {
+			activeCallback = new CachingCallback(callback, width, height);
+			try {
+				return frameLoader.loadFrame(activeCallback, timestamp, width, height, image, returnFirstFrame);
+			} finally {
+				activeCallback = null;
+			}
+		}
+
+	}
+
+	@Override
+	public void loadFrames(FrameLoaderCallback callback, long from, long to, int frameHeight, int totalWidth, int frameSpacing) {
+
+		// The strip is only served from the cache when all frames are available, partial strips are
+		// loaded by the frame loader (seeking once per frame anyway) and the loaded frames are cached
+		List<FrameCache.Key> keys = getStripKeys(from, to, frameHeight, totalWidth, frameSpacing);
+		if (keys != null) {
+
+			boolean cached = true;
+			for (FrameCache.Key key : keys) {
+				if (!frameCache.contains(key)) {
+					cached = false;
+					break;
+				}
+			}
+
+			if (cached) {
+
+				for (FrameCache.Key key : keys) {
+
+					if (callback.isCanceled()) {
+						return;
+					}
+
+					Frame frame = frameCache.get(key, null, callback.getImagePool());
+					if (frame == null) {
+						break; // Evicted in the mean time, load the rest of the strip
+					}
+					callback.fireFrameLoaded(video, frame);
+
+				}
+
+				return;
+
+			}
+
+		}
+
+		activeCallback = new CachingCallback(callback, getStripFrameWidth(frameHeight), frameHeight);
+		try {
+			frameLoader.loadFrames(activeCallback, from, to, frameHeight, totalWidth, frameSpacing);
+		} finally {
+			activeCallback = null;
+		}
+
+	}
+
+	private List<FrameCache.Key> getStripKeys(long from, long to, int frameHeight, int totalWidth, int frameSpacing) {
+
+		long[] timestamps = getStripTimestamps(from, to, frameHeight, totalWidth, frameSpacing);
+		if (timestamps == null) {
+			return null;
+		}
+
+		int frameWidth = getStripFrameWidth(frameHeight);
+
+		List<FrameCache.Key> keys = new ArrayList<>(timestamps.length);
+		for (long timestamp : timestamps) {
+			keys.add(frameCache.createKey(video.getPath(), timestamp, frameWidth, frameHeight));
+		}
+
+		return keys;
+
+	}
+
+	@Override
+	public void frameLoaderCallbackCanceled(FrameLoaderCallback callback) {
+
+		// Frame loaders only know the wrapped callback
+		CachingCallback activeCallback = this.activeCallback;
+		if (activeCallback != null && activeCallback.callback == callback) {
+			frameLoader.frameLoaderCallbackCanceled(activeCallback);
+		} else {
+			frameLoader.frameLoaderCallbackCanceled(callback);
+		}
+
+	}
+
+	@Override
+	public void close() {
+		frameLoader.close();
+	}
+
+	private class CachingCallback extends FrameLoaderCallback {
+
+		private final FrameLoaderCallback callback;
+		private final int requestedWidth;
+		private final int requestedHeight;
+
+		private CachingCallback(FrameLoaderCallback callback, int requestedWidth, int requestedHeight) {
+			super(callback.getId());
+			this.callback = callback;
+			this.requestedWidth = requestedWidth;
+			this.requestedHeight = requestedHeight;
+			this.width = callback.width;
+			this.height = callback.height;
+			setImagePool(callback.getImagePool());
+		}
+
+		@Override
+		public void cancel() {
+			callback.cancel();
+		}
+
+		@Override
+		public boolean isCanceled() {
+			return callback.isCanceled();
+		}
+
+		@Override
+		public void frameLoaded(DefaultVideo video, Frame frame, int callbackId) {
+
+			if (frame.hasTimestamp()) {
+				frameCache.put(frameCache.createKey(video.getPath(), frame.getTimestampValue(), requestedWidth, requestedHeight), frame);
+			}
+
+			callback.width = width;
+			callback.height = height;
+			callback.fireFrameLoaded(video, frame);
+
+		}
+
+	}
+
+}
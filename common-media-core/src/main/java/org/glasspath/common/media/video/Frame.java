@@ -26,30 +26,98 @@ import java.awt.image.BufferedImage;
 
 public class Frame {
 
-	private Number timestamp = null;
+	public static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+	public static final long TIMEBASE_UNKNOWN = 0L;
+	public static final long TIMEBASE_MILLISECONDS = 1000L;
+	public static final long TIMEBASE_MICROSECONDS = 1000000L;
+
+	private long timestamp = NO_TIMESTAMP;
+	private long timebase = TIMEBASE_UNKNOWN; // Ticks per second
 	private BufferedImage image = null;
 
 	public Frame() {
 
 	}
 
-	public Frame(Number timestamp) {
+	public Frame(long timestamp) {
 		this.timestamp = timestamp;
 	}
 
-	public Frame(Number timestamp, BufferedImage image) {
+	public Frame(long timestamp, BufferedImage image) {
 		this.timestamp = timestamp;
 		this.image = image;
 	}
 
-	public Number getTimestamp() {
+	public Frame(long timestamp, long timebase, BufferedImage image) {
+		this.timestamp = timestamp;
+		this.timebase = timebase;
+		this.image = image;
+	}
+
+	@Deprecated
+	public Frame(Number timestamp) {
+		setTimestamp(timestamp);
+	}
+
+	@Deprecated
+	public Frame(Number timestamp, BufferedImage image) {
+		setTimestamp(timestamp);
+		this.image = image;
+	}
+
+	public long getTimestampValue() {
 		return timestamp;
 	}
 
-	public void setTimestamp(Number timestamp) {
+	public void setTimestamp(long timestamp) {
 		this.timestamp = timestamp;
 	}
 
+	public boolean hasTimestamp() {
+		return timestamp != NO_TIMESTAMP;
+	}
+
+	public void clearTimestamp() {
+		timestamp = NO_TIMESTAMP;
+	}
+
+	// Returns the timestamp converted to the requested timebase, or NO_TIMESTAMP if the
+	// timestamp is unset or the timebase of this frame is unknown
+	public long getTimestamp(long timebase) {
+		if (timestamp == NO_TIMESTAMP || this.timebase == TIMEBASE_UNKNOWN || timebase == TIMEBASE_UNKNOWN) {
+			return NO_TIMESTAMP;
+		} else if (timebase == this.timebase) {
+			return timestamp;
+		} else if (timebase > this.timebase && timebase % this.timebase == 0) {
+			return timestamp * (timebase / this.timebase);
+		} else if (this.timebase % timebase == 0) {
+			return timestamp / (this.timebase / timebase);
+		} else {
+			return (long) ((double) timestamp * timebase / this.timebase);
+		}
+	}
+
+	// Compatibility shim, allocates a Long for every call, use getTimestampValue() instead
+	@Deprecated
+	public Number getTimestamp() {
+		return timestamp != NO_TIMESTAMP ? Long.valueOf(timestamp) : null;
+	}
+
+	// Compatibility shim, use setTimestamp(long) instead
+	@Deprecated
+	public void setTimestamp(Number timestamp) {
+		this.timestamp = timestamp != null ? timestamp.longValue() : NO_TIMESTAMP;
+	}
+
+	public long getTimebase() {
+		return timebase;
+	}
+
+	public void setTimebase(long timebase) {
+		this.timebase = timebase;
+	}
+
 	public BufferedImage getImage() {
 		return image;
 	}
@@ -23,73 +23,135 @@
 package org.glasspath.common.media.video;
 
 import java.awt.image.BufferedImage;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.glasspath.common.media.image.BufferedImagePool;
 
 public abstract class FrameBuffer<F> {
 
 	public static boolean TODO_TEST_RECYCLE_MODE = true;
+	public static boolean DEFAULT_HANDOFF_MODE = true;
+
+	// Upper bound for parking, only acts as a safety net, workers are normally woken up by a state change
+	public static final long MAX_PARK_NANOS = 50_000_000L;
+
+	// Live mode drop policies, applied by the decoder when a frame is decoded while all slots are occupied
+	public static final int DROP_OLDEST = 0;
+	public static final int DROP_NEWEST = 1;
+	public static final int KEEP_KEY_FRAMES = 2;
+
+	// Adaptive depth, the number of slots in use follows a percentile of the processing time (decode
+	// up to ready) of the last frames relative to the frame interval, see setDepthBounds()
+	public static final int PROCESSING_TIME_SAMPLES = 128;
+	public static final int MIN_PROCESSING_TIME_SAMPLES = 16;
+	public static final double DEFAULT_DEPTH_PERCENTILE = 0.95;
+	public static final int SHRINK_ROUNDS = 4;
+
+	// Only growing beyond the minimum depth is limited by the memory budget of the frame buffer
+	public static final long DEFAULT_MEMORY_BUDGET = Runtime.getRuntime().maxMemory() / 4;
 
 	private final int decoderThreads;
 	private final int preProcessorThreads;
 	private final int converterThreads;
 	private final int postProcessorThreads;
 	private BufferedFrame<F>[] buffer;
+	private final Executor executor;
 	private final List<Worker> workers;
 	private final Thread[] threads;
 	private Long seekTimestamp = null;
+	private volatile boolean handoffMode = DEFAULT_HANDOFF_MODE;
+	private volatile Thread resetThread = null;
+	private volatile FrameBufferStatistics statistics = null;
 	private volatile boolean exit = false;
+	private volatile boolean liveMode = false;
+	private volatile int dropPolicy = DROP_OLDEST;
+	private final Object liveLock = new Object();
+	private final AtomicLong frameNumber = new AtomicLong();
+	private final AtomicLong droppedOldestCount = new AtomicLong();
+	private final AtomicLong droppedNewestCount = new AtomicLong();
+	private final AtomicLong skippedFrameCount = new AtomicLong();
+	private volatile int minDepth;
+	private volatile int maxDepth;
+	private volatile int depth;
+	private volatile double depthPercentile = DEFAULT_DEPTH_PERCENTILE;
+	private final AtomicIntegerArray roundLengths = new AtomicIntegerArray(4);
+	private final long[] processingTimes = new long[PROCESSING_TIME_SAMPLES];
+	private int processingTimeCount = 0;
+	private int processingTimeIndex = 0;
+	private volatile long frameSize = 0L;
+	private volatile long memoryBudget = DEFAULT_MEMORY_BUDGET;
+	private volatile long reservedFrameMemory = 0L;
+	private int shrinkRoundCount = 0;
+	private int consumerRound = 0;
+	private final ArrayDeque<F> recycledSources = new ArrayDeque<>();
+	private final FrameHandle.Recycler<F> sourceRecycler = new FrameHandle.Recycler<F>() {
+
+		@Override
+		public void recycle(F source) {
+			recycleSource(source);
+		}
+	};
 
 	public FrameBuffer() {
 		this(1, 1, 1, 1);
 	}
 
 	public FrameBuffer(int decoderThreads, int preProcessorThreads, int converterThreads, int postProcessorThreads) {
+		this(decoderThreads, preProcessorThreads, converterThreads, postProcessorThreads, null);
+	}
+
+	// When an executor is passed the workers don't own a thread, they run as short tasks on the
+	// executor whenever a slot they are waiting for changes (see FrameBufferExecutors)
+	public FrameBuffer(int decoderThreads, int preProcessorThreads, int converterThreads, int postProcessorThreads, Executor executor) {
 
 		this.decoderThreads = decoderThreads;
 		this.preProcessorThreads = preProcessorThreads;
 		this.converterThreads = converterThreads;
 		this.postProcessorThreads = postProcessorThreads;
+		this.executor = executor;
 
 		buffer = createBuffer();
+		for (BufferedFrame<F> frame : buffer) {
+			frame.frameBuffer = this;
+		}
+
+		minDepth = buffer.length;
+		maxDepth = buffer.length;
+		setDepth(buffer.length);
 
 		workers = new ArrayList<>();
-		threads = new Thread[decoderThreads + preProcessorThreads + converterThreads + postProcessorThreads];
 
 		for (int i = 0; i < decoderThreads; i++) {
-
-			Decoder decoder = new Decoder(decoderThreads, i);
-
-			workers.add(decoder);
-			threads[i] = new Thread(decoder);
-
+			workers.add(new Decoder(decoderThreads, i));
 		}
 
 		for (int i = 0; i < preProcessorThreads; i++) {
-
-			PreProcessor preProcessor = new PreProcessor(preProcessorThreads, i);
-
-			workers.add(preProcessor);
-			threads[decoderThreads + i] = new Thread(preProcessor);
-
+			workers.add(new PreProcessor(preProcessorThreads, i));
 		}
 
 		for (int i = 0; i < converterThreads; i++) {
-
-			Converter converter = new Converter(converterThreads, i);
-
-			workers.add(converter);
-			threads[decoderThreads + preProcessorThreads + i] = new Thread(converter);
-
+			workers.add(new Converter(converterThreads, i));
 		}
 
 		for (int i = 0; i < postProcessorThreads; i++) {
+			workers.add(new PostProcessor(postProcessorThreads, i));
+		}
 
-			PostProcessor postProcessor = new PostProcessor(postProcessorThreads, i);
-
-			workers.add(postProcessor);
-			threads[decoderThreads + preProcessorThreads + converterThreads + i] = new Thread(postProcessor);
-
+		if (executor == null) {
+			threads = new Thread[workers.size()];
+			for (int i = 0; i < threads.length; i++) {
+				threads[i] = new Thread(workers.get(i));
+			}
+		} else {
+			threads = new Thread[0];
 		}
 
 	}
@@ -110,24 +172,294 @@ public abstract class FrameBuffer<F> {
 		return postProcessorThreads;
 	}
 
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	public boolean isHandoffMode() {
+		return handoffMode;
+	}
+
+	public void setHandoffMode(boolean handoffMode) {
+		this.handoffMode = handoffMode;
+		wakeUpWorkers();
+	}
+
+	public long getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	// The maximum memory of the slots in use, applies from the next round
+	public void setMemoryBudget(long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	// The memory of the slots in use
+	public long getReservedMemory() {
+		return reservedFrameMemory;
+	}
+
+	public int getMinDepth() {
+		return minDepth;
+	}
+
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	// The number of slots currently in use
+	public int getDepth() {
+		return depth;
+	}
+
+	// Must be called before start(), the depth adapts between the bounds when min < max, the maximum is limited to
+	// the number of slots returned by createBuffer() (slots beyond the current depth don't keep their image). Adaptive
+	// depth requires one decoder thread and getFrameInterval() to return the interval of the video
+	public void setDepthBounds(int min, int max) {
+
+		int workerCount = Math.max(Math.max(decoderThreads, preProcessorThreads), Math.max(converterThreads, postProcessorThreads));
+
+		max = Math.min(max, buffer.length);
+		min = Math.min(Math.max(min, Math.max(workerCount, 1)), max);
+
+		if (decoderThreads != 1) {
+			min = max;
+		}
+
+		minDepth = min;
+		maxDepth = max;
+		setDepth(min);
+
+	}
+
+	public boolean isAdaptiveDepth() {
+		return minDepth < maxDepth;
+	}
+
+	public double getDepthPercentile() {
+		return depthPercentile;
+	}
+
+	public void setDepthPercentile(double depthPercentile) {
+		this.depthPercentile = depthPercentile;
+	}
+
+	private void setDepth(int depth) {
+		this.depth = depth;
+		for (int i = 0; i < roundLengths.length(); i++) {
+			roundLengths.set(i, depth);
+		}
+		consumerRound = 0;
+	}
+
+	// Rounds are passes over the slots, the decoder decides the length of a round before any
+	// slot of the previous round is decoded, so all workers use the same length in each round
+	private int getRoundLength(int round) {
+		return roundLengths.get(round & 3);
+	}
+
+	// Consumer, returns the index of the slot that follows the specified slot, the consumer
+	// should start at slot 0 (also after a reset) and only use this method to move on
+	public int nextIndex(int index) {
+
+		index++;
+
+		int length = getRoundLength(consumerRound);
+		if (index >= length) {
+
+			consumerRound++;
+			index = 0;
+
+			// All slots of the previous round are consumed, slots which are not used in the next round release their image
+			int nextLength = getRoundLength(consumerRound);
+			for (int i = nextLength; i < length; i++) {
+				releaseSlot(buffer[i]);
+			}
+
+		}
+
+		return index;
+
+	}
+
+	protected void releaseSlot(BufferedFrame<F> frame) {
+		frame.setImage(null);
+	}
+
+	// Returns the interval between frames in nanoseconds, 0 if not known (the depth doesn't adapt then)
+	protected long getFrameInterval() {
+		return 0L;
+	}
+
+	private void recordProcessingTime(BufferedFrame<F> frame) {
+
+		BufferedImage image = frame.getImage();
+		if (image != null) {
+			frameSize = BufferedImagePool.getSizeInBytes(image);
+		}
+
+		synchronized (processingTimes) {
+			processingTimes[processingTimeIndex] = frame.processingTime;
+			processingTimeIndex = (processingTimeIndex + 1) % processingTimes.length;
+			if (processingTimeCount < processingTimes.length) {
+				processingTimeCount++;
+			}
+		}
+
+	}
+
+	private long getProcessingTimePercentile(double percentile) {
+
+		long[] samples;
+		synchronized (processingTimes) {
+			if (processingTimeCount < MIN_PROCESSING_TIME_SAMPLES) {
+				return -1L;
+			}
+			samples = Arrays.copyOf(processingTimes, processingTimeCount);
+		}
+
+		Arrays.sort(samples);
+
+		return samples[Math.min(samples.length - 1, (int) (percentile * samples.length))];
+
+	}
+
+	// Called by the decoder when it starts a round, decides the length of the round after it
+	private void roundStarted(int round) {
+
+		int depth = this.depth;
+		int targetDepth = depth;
+
+		long frameInterval = getFrameInterval();
+		long processingTime = frameInterval > 0 ? getProcessingTimePercentile(depthPercentile) : -1L;
+
+		if (processingTime >= 0) {
+
+			// A frame which takes n frame intervals uses up n - 1 buffered frames, one slot is kept as margin
+			targetDepth = (int) ((processingTime + frameInterval - 1) / frameInterval) + 1;
+			targetDepth = Math.max(minDepth, Math.min(maxDepth, targetDepth));
+
+			if (targetDepth < depth) {
+
+				// Shrink one slot at a time and only when the target stayed lower for a number of rounds
+				shrinkRoundCount++;
+				if (shrinkRoundCount >= SHRINK_ROUNDS) {
+					targetDepth = depth - 1;
+					shrinkRoundCount = 0;
+				} else {
+					targetDepth = depth;
+				}
+
+			} else {
+				shrinkRoundCount = 0;
+			}
+
+		}
+
+		// Account the memory of the slots, the minimum depth is always allowed
+		long frameSize = this.frameSize;
+		long memory = targetDepth * frameSize;
+		if (targetDepth > minDepth && targetDepth > depth && frameSize > 0) {
+			while (targetDepth > Math.max(minDepth, depth) && memory > memoryBudget) {
+				targetDepth--;
+				memory = targetDepth * frameSize;
+			}
+		}
+		reservedFrameMemory = memory;
+
+		this.depth = targetDepth;
+		roundLengths.set((round + 1) & 3, targetDepth);
+
+	}
+
+	private void releaseReservedMemory() {
+		reservedFrameMemory = 0L;
+	}
+
+	public boolean isLiveMode() {
+		return liveMode;
+	}
+
+	// In live mode the decoder never waits for the consumer, when all slots are occupied a frame is dropped (see
+	// setDropPolicy()), the consumer should use takeLatestFrame() which skips ready frames older than the newest one
+	public void setLiveMode(boolean liveMode) {
+		this.liveMode = liveMode;
+		wakeUpWorkers();
+	}
+
+	public int getDropPolicy() {
+		return dropPolicy;
+	}
+
+	public void setDropPolicy(int dropPolicy) {
+		this.dropPolicy = dropPolicy;
+	}
+
+	// Ready frames which were overwritten by a newer frame (live mode)
+	public long getDroppedOldestCount() {
+		return droppedOldestCount.get();
+	}
+
+	// Decoded frames which were discarded because there was no free slot (live mode)
+	public long getDroppedNewestCount() {
+		return droppedNewestCount.get();
+	}
+
+	// Ready frames which were skipped by takeLatestFrame() because a newer frame was ready
+	public long getSkippedFrameCount() {
+		return skippedFrameCount.get();
+	}
+
+	public long getDroppedFrameCount() {
+		return droppedOldestCount.get() + droppedNewestCount.get() + skippedFrameCount.get();
+	}
+
+	public boolean isStatisticsEnabled() {
+		return statistics != null;
+	}
+
+	public synchronized void setStatisticsEnabled(boolean statisticsEnabled) {
+		if (statisticsEnabled && statistics == null) {
+			statistics = new FrameBufferStatistics(buffer);
+		} else if (!statisticsEnabled && statistics != null) {
+			statistics.unregisterMBean();
+			statistics = null;
+		}
+	}
+
+	// Returns null when statistics are not enabled
+	public FrameBufferStatistics getStatistics() {
+		return statistics;
+	}
+
 	public void start() {
-		for (Thread thread : threads) {
-			thread.start();
+		if (executor != null) {
+			for (Worker worker : workers) {
+				worker.schedule();
+			}
+		} else {
+			for (Thread thread : threads) {
+				thread.start();
+			}
 		}
 	}
 
 	public void reset() {
 
+		resetThread = Thread.currentThread();
+
 		for (Worker worker : workers) {
 			worker.reset = true;
 		}
 
+		wakeUpWorkers();
+
 		while (true) {
 
 			boolean resetPerformed = true;
 
 			for (Worker worker : workers) {
-				if (!worker.resetPerformed) {
+				if (!worker.resetPerformed && !worker.finished) {
 					resetPerformed = false;
 					break;
 				}
@@ -135,6 +467,8 @@ public abstract class FrameBuffer<F> {
 
 			if (resetPerformed) {
 				break;
+			} else if (isSignalDriven()) {
+				LockSupport.parkNanos(this, MAX_PARK_NANOS);
 			} else {
 				try {
 					Thread.sleep(1);
@@ -145,20 +479,149 @@ public abstract class FrameBuffer<F> {
 
 		}
 
+		resetThread = null;
+
+		// All workers start at round 0 again
+		setDepth(depth);
+
+		FrameBufferStatistics statistics = this.statistics;
+
 		for (BufferedFrame<F> frame : buffer) {
+			if (statistics != null && frame.state > BufferedFrame.CLEARED) {
+				statistics.frameDropped();
+			}
 			frame.reset(frame.getImage());
 		}
 
+		for (int i = depth; i < buffer.length; i++) {
+			releaseSlot(buffer[i]);
+		}
+
+	}
+
+	// Live mode consumer, returns true if at least one slot holds a ready frame
+	public boolean isFrameReady() {
+		for (BufferedFrame<F> frame : buffer) {
+			if (frame.state == BufferedFrame.READY) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// Live mode consumer, moves the newest ready frame to the specified frame (the images are swapped like the file
+	// playback consumers do) and clears the slot, older ready frames are skipped and failed slots are cleared
+	public boolean takeLatestFrame(Frame frame) {
+
+		FrameBufferStatistics statistics = this.statistics;
+
+		synchronized (liveLock) {
+
+			BufferedFrame<F> latest = null;
+
+			for (BufferedFrame<F> bufferedFrame : buffer) {
+				if (bufferedFrame.state == BufferedFrame.READY) {
+					if (latest == null || bufferedFrame.frameNumber > latest.frameNumber) {
+						latest = bufferedFrame;
+					}
+				} else if (bufferedFrame.state < 0) {
+					bufferedFrame.reset(bufferedFrame.getImage());
+				}
+			}
+
+			if (latest == null) {
+				return false;
+			}
+
+			for (BufferedFrame<F> bufferedFrame : buffer) {
+				if (bufferedFrame != latest && bufferedFrame.state == BufferedFrame.READY) {
+					bufferedFrame.reset(bufferedFrame.getImage());
+					skippedFrameCount.incrementAndGet();
+					if (statistics != null) {
+						statistics.frameDropped();
+					}
+				}
+			}
+
+			BufferedImage swapImage = frame.getImage();
+
+			frame.setTimestamp(latest.getTimestampValue());
+			frame.setTimebase(latest.getTimebase());
+			frame.setImage(latest.getImage());
+
+			frameTaken(latest);
+			latest.reset(swapImage);
+
+			return true;
+
+		}
+
 	}
 
 	public void resume() {
+
 		for (Worker worker : workers) {
 			worker.reset = false;
 		}
+
+		wakeUpWorkers();
+
 	}
 
 	public void exit() {
+
 		exit = true;
+		wakeUpWorkers();
+
+		releaseReservedMemory();
+
+		synchronized (recycledSources) {
+			while (!recycledSources.isEmpty()) {
+				closeSource(recycledSources.poll());
+			}
+		}
+
+		FrameBufferStatistics statistics = this.statistics;
+		if (statistics != null) {
+			statistics.unregisterMBean();
+		}
+
+	}
+
+	// Workers running on an executor are always signal driven, polling would keep executor threads busy
+	private boolean isSignalDriven() {
+		return handoffMode || executor != null;
+	}
+
+	protected void stateChanged(BufferedFrame<F> frame) {
+
+		FrameBufferStatistics statistics = this.statistics;
+		if (statistics != null) {
+			statistics.stateChanged(frame.state);
+		}
+
+		if (frame.state == BufferedFrame.READY && minDepth < maxDepth) {
+			recordProcessingTime(frame);
+		}
+
+		if (isSignalDriven()) {
+
+			// Only wake up the workers that are waiting for this slot, the state was written
+			// before we read waitFrame, so a worker either sees the new state or gets unparked
+			for (Worker worker : workers) {
+				if (worker.waitFrame == frame) {
+					worker.wakeUp();
+				}
+			}
+
+		}
+
+	}
+
+	private void wakeUpWorkers() {
+		for (Worker worker : workers) {
+			worker.wakeUp();
+		}
 	}
 
 	public boolean isExited() {
@@ -171,6 +634,14 @@ public abstract class FrameBuffer<F> {
 				}
 			}
 
+			if (executor != null) {
+				for (Worker worker : workers) {
+					if (!worker.finished) {
+						return false;
+					}
+				}
+			}
+
 			return true;
 
 		} else {
@@ -187,6 +658,43 @@ public abstract class FrameBuffer<F> {
 
 	protected abstract void setDecoderTimestamp(int thread, long timestamp);
 
+	// Called for sources which can't be reused anymore (the recycle list is full or the buffer is exited)
+	protected void closeSource(F source) {
+
+	}
+
+	// Called by takeLatestFrame() before the slot is reset, the consumer can share the source of the frame here
+	// (see BufferedFrame.retainSource())
+	protected void frameTaken(BufferedFrame<F> frame) {
+
+	}
+
+	// Sources return here when their slot is reset (or, if they were shared, when the last reference is
+	// released), the decoder reuses them as decode target
+	private void recycleSource(F source) {
+
+		synchronized (recycledSources) {
+			if (!exit && recycledSources.size() < buffer.length) {
+				recycledSources.add(source);
+				return;
+			}
+		}
+
+		closeSource(source);
+
+	}
+
+	private F pollRecycledSource() {
+		synchronized (recycledSources) {
+			return recycledSources.poll();
+		}
+	}
+
+	// Only used by the KEEP_KEY_FRAMES drop policy
+	protected boolean isKeyFrame(int thread, F frame) {
+		return false;
+	}
+
 	protected abstract F decode(int thread, F frame);
 
 	protected abstract boolean isEndOfVideoReached(int thread);
@@ -217,102 +725,216 @@ public abstract class FrameBuffer<F> {
 		seekTimestamp = timestamp;
 	}
 
+	// Both methods are no-ops (apart from a null check) when statistics are disabled
+	private long getStageStartTime() {
+		return statistics != null ? System.nanoTime() : 0L;
+	}
+
+	private void stageCompleted(int stage, long startTime) {
+		FrameBufferStatistics statistics = this.statistics;
+		if (statistics != null && startTime != 0L) {
+			statistics.stageCompleted(stage, startTime);
+		}
+	}
+
+	// Processing time is only measured when the depth is adaptive
+	private long getProcessingStartTime() {
+		return minDepth < maxDepth ? System.nanoTime() : 0L;
+	}
+
+	private void processingCompleted(BufferedFrame<F> frame, long startTime) {
+		if (startTime != 0L) {
+			frame.processingTime += System.nanoTime() - startTime;
+		}
+	}
+
 	protected class Decoder extends Worker {
 
+		private F liveSource = null;
+		private F pendingFrame = null;
+
 		protected Decoder(int workerCount, int workerIndex) {
 			super(workerCount, workerIndex);
 		}
 
 		@Override
-		public void run() {
+		protected void rewind() {
+			super.rewind();
+			pendingFrame = null;
+		}
 
-			if (createDecoder(workerIndex)) {
+		@Override
+		protected void nextRound() {
+			if (minDepth < maxDepth) {
+				roundStarted(round);
+			}
+		}
 
-				try {
+		@Override
+		protected boolean create() {
+			return createDecoder(workerIndex);
+		}
 
-					while (!exit) {
+		@Override
+		protected boolean process() {
 
-						handleReset();
+			if (buffer[i].state == BufferedFrame.CLEARED) {
 
-						if (!exit) {
+				if (seekTimestamp != null) {
+					setDecoderTimestamp(workerIndex, seekTimestamp.longValue());
+					seekTimestamp = null;
+				}
+
+				long startTime = getStageStartTime();
+				long processingStartTime = getProcessingStartTime();
+				buffer[i].processingTime = 0L;
+
+				F frame;
+				boolean liveFrame = pendingFrame != null;
+				if (liveFrame) {
+					frame = pendingFrame; // Decoded by processLive()
+					pendingFrame = null;
+				} else {
+					frame = decode(workerIndex, getDecodeTarget(buffer[i]));
+				}
 
-							if (buffer[i].state == BufferedFrame.CLEARED) {
+				if (converterThreads == 0) {
+					if (frame != null) {
+						buffer[i].setImage(convert(workerIndex, frame, buffer[i].getImage()));
+						if (liveFrame) {
+							liveSource = frame; // Converted, the live frame is handed back to processLive()
+						}
+					}
+				} else {
+					buffer[i].source = frame;
+				}
+
+				if (frame == null) {
 
-								if (seekTimestamp != null) {
-									setDecoderTimestamp(workerIndex, seekTimestamp.longValue());
-									seekTimestamp = null;
-								}
+					if (isEndOfVideoReached(workerIndex)) {
 
-								F frame = decode(workerIndex, buffer[i].source);
-								if (converterThreads == 0) {
-									if (frame != null) {
-										buffer[i].setImage(convert(workerIndex, frame, buffer[i].getImage()));
-									}
-								} else {
-									buffer[i].source = frame;
-								}
+						setDecoderTimestamp(workerIndex, 0);
 
-								if (frame == null) {
+						if (isRepeatEnabled(workerIndex)) {
 
-									if (isEndOfVideoReached(workerIndex)) {
+							frame = decode(workerIndex, getDecodeTarget(buffer[i]));
+							if (converterThreads == 0) {
+								buffer[i].setImage(convert(workerIndex, frame, buffer[i].getImage()));
+							} else {
+								buffer[i].source = frame;
+							}
+
+						} else {
+							buffer[i].setState(BufferedFrame.END_OF_VIDEO_REACHED);
+						}
 
-										setDecoderTimestamp(workerIndex, 0);
+					}
 
-										if (isRepeatEnabled(workerIndex)) {
+				}
 
-											frame = decode(workerIndex, buffer[i].source);
-											if (converterThreads == 0) {
-												buffer[i].setImage(convert(workerIndex, frame, buffer[i].getImage()));
-											} else {
-												buffer[i].source = frame;
-											}
+				stageCompleted(FrameBufferStatistics.STAGE_DECODE, startTime);
+				processingCompleted(buffer[i], processingStartTime);
 
-										} else {
-											buffer[i].state = BufferedFrame.END_OF_VIDEO_REACHED;
-										}
+				if (frame != null) {
 
-									}
+					buffer[i].setTimestamp(getDecoderTimestamp(workerIndex, frame));
+					buffer[i].keyFrame = isKeyFrame(workerIndex, frame);
+					buffer[i].frameNumber = frameNumber.incrementAndGet();
 
-								}
+					if (converterThreads == 0) {
+						if (postProcessorThreads == 0) {
+							buffer[i].setState(BufferedFrame.READY);
+						} else {
+							buffer[i].setState(BufferedFrame.CONVERTED);
+						}
+					} else if (preProcessorThreads == 0) {
+						buffer[i].setState(BufferedFrame.PRE_PROCESSED);
+					} else {
+						buffer[i].setState(BufferedFrame.DECODED);
+					}
 
-								if (frame != null) {
+				} else if (buffer[i].state != BufferedFrame.END_OF_VIDEO_REACHED) {
+					buffer[i].setState(BufferedFrame.DECODE_FAILED);
+				}
 
-									buffer[i].setTimestamp(getDecoderTimestamp(workerIndex, frame));
+				FrameBufferStatistics statistics = FrameBuffer.this.statistics;
+				if (statistics != null) {
+					statistics.publishIfDue();
+				}
 
-									if (converterThreads == 0) {
-										if (postProcessorThreads == 0) {
-											buffer[i].state = BufferedFrame.READY;
-										} else {
-											buffer[i].state = BufferedFrame.CONVERTED;
-										}
-									} else if (preProcessorThreads == 0) {
-										buffer[i].state = BufferedFrame.PRE_PROCESSED;
-									} else {
-										buffer[i].state = BufferedFrame.DECODED;
-									}
+				next();
 
-								} else if (buffer[i].state != BufferedFrame.END_OF_VIDEO_REACHED) {
-									buffer[i].state = BufferedFrame.DECODE_FAILED;
-								}
+				return true;
 
-								next();
+			} else if (liveMode && buffer[i].state > BufferedFrame.CLEARED) {
+				return processLive();
+			} else {
+				return false;
+			}
 
-							} else {
-								Thread.sleep(0, 100); // TODO?
-							}
+		}
 
-						}
+		// The source of the slot is reused unless it is shared, a recycled source is used then (or null if there is none)
+		private F getDecodeTarget(BufferedFrame<F> frame) {
+			F source = frame.detachSource();
+			return source != null ? source : pollRecycledSource();
+		}
 
-					}
+		// All slots are occupied, a live source is read anyway (otherwise latency builds up in the source), then
+		// either the oldest frame (when it is ready, a slot that is still being processed can't be taken) or the
+		// new frame is dropped
+		private boolean processLive() {
 
-				} catch (InterruptedException e) {
-					e.printStackTrace();
+			F frame = decode(workerIndex, liveSource);
+			if (frame == null) {
+				return false;
+			}
+
+			int dropPolicy = FrameBuffer.this.dropPolicy;
+			boolean keyFrame = dropPolicy == KEEP_KEY_FRAMES && isKeyFrame(workerIndex, frame);
+			BufferedFrame<F> oldest = buffer[i];
+			boolean oldestDropped = false;
+
+			if (dropPolicy != DROP_NEWEST) {
+				synchronized (liveLock) {
+					if (oldest.state == BufferedFrame.READY && (dropPolicy != KEEP_KEY_FRAMES || !oldest.keyFrame || keyFrame)) {
+						oldest.reset(oldest.getImage());
+						oldestDropped = true;
+					}
 				}
+			}
 
-				closeDecoder(workerIndex);
+			if (oldestDropped) {
+				droppedOldestCount.incrementAndGet();
+				pendingFrame = frame; // Stored in the cleared slot by the next call to process()
+				if (converterThreads == 0) {
+					// The slot only keeps the converted image, the frame returns as live source once it's converted,
+					// a recycled source is not used here because the pending frame can be the same object
+					liveSource = null;
+				} else {
+					liveSource = pollRecycledSource(); // The source of the dropped frame, recycled by reset()
+				}
+			} else {
+				droppedNewestCount.incrementAndGet();
+				liveSource = frame;
+			}
 
+			FrameBufferStatistics statistics = FrameBuffer.this.statistics;
+			if (statistics != null) {
+				statistics.frameDropped();
 			}
 
+			// Dropping doesn't wait for a state change, on a shared executor the other stages (which free the
+			// slots) would not get a thread when the decoder keeps it
+			yieldTask();
+
+			return true;
+
+		}
+
+		@Override
+		protected void close() {
+			closeDecoder(workerIndex);
 		}
 
 	}
@@ -324,131 +946,207 @@ public abstract class FrameBuffer<F> {
 		}
 
 		@Override
-		public void run() {
+		protected boolean create() {
+			return createPreProcessor(workerIndex);
+		}
 
-			if (createPreProcessor(workerIndex)) {
+		@Override
+		protected boolean process() {
 
-				try {
+			if (buffer[i].state == BufferedFrame.DECODED) {
 
-					while (!exit) {
+				long startTime = getStageStartTime();
+				long processingStartTime = getProcessingStartTime();
+				buffer[i].source = preProcess(workerIndex, buffer[i].source);
+				stageCompleted(FrameBufferStatistics.STAGE_PRE_PROCESS, startTime);
+				processingCompleted(buffer[i], processingStartTime);
 
-						handleReset();
+				if (buffer[i].source != null) {
+					buffer[i].setState(BufferedFrame.PRE_PROCESSED);
+				} else {
+					buffer[i].setState(BufferedFrame.PRE_PROCESS_FAILED);
+				}
 
-						if (!exit) {
+				next();
 
-							if (buffer[i].state == BufferedFrame.DECODED) {
+				return true;
 
-								buffer[i].source = preProcess(workerIndex, buffer[i].source);
-								if (buffer[i].source != null) {
-									buffer[i].state = BufferedFrame.PRE_PROCESSED;
-								} else {
-									buffer[i].state = BufferedFrame.PRE_PROCESS_FAILED;
-								}
+			} else if (buffer[i].state < 0) {
 
-								next();
+				// The source of a failed slot is recycled when the slot is reset
+				next();
 
-							} else if (buffer[i].state < 0) {
+				return true;
 
-								if (!TODO_TEST_RECYCLE_MODE) {
-									buffer[i].source = null;
-								}
+			} else {
+				return false;
+			}
 
-								next();
+		}
 
-							} else {
-								Thread.sleep(0, 100); // TODO?
-							}
+		@Override
+		protected void close() {
+			closePreProcessor(workerIndex);
+		}
 
-						}
+	}
 
-					}
+	protected class Converter extends Worker {
 
-				} catch (InterruptedException e) {
-					e.printStackTrace();
+		protected Converter(int workerCount, int workerIndex) {
+			super(workerCount, workerIndex);
+		}
+
+		@Override
+		protected boolean create() {
+			return createConverter(workerIndex);
+		}
+
+		@Override
+		protected boolean process() {
+
+			if (buffer[i].state == BufferedFrame.PRE_PROCESSED) {
+
+				long startTime = getStageStartTime();
+				long processingStartTime = getProcessingStartTime();
+				buffer[i].setImage(convert(workerIndex, buffer[i].source, buffer[i].getImage()));
+				buffer[i].getImage().setAccelerationPriority(1.0F);
+				stageCompleted(FrameBufferStatistics.STAGE_CONVERT, startTime);
+				processingCompleted(buffer[i], processingStartTime);
+
+				// The source stays in the slot until it is reset, so it can be shared (see BufferedFrame.retainSource())
+
+				if (postProcessorThreads > 0) {
+					buffer[i].setState(BufferedFrame.CONVERTED);
+				} else {
+					buffer[i].setState(BufferedFrame.READY);
 				}
 
-				closePreProcessor(workerIndex);
+				next();
 
+				return true;
+
+			} else if (buffer[i].state < 0) {
+
+				// The source of a failed slot is recycled when the slot is reset
+				next();
+
+				return true;
+
+			} else {
+				return false;
 			}
 
 		}
 
+		@Override
+		protected void close() {
+			closeConverter(workerIndex);
+		}
+
 	}
 
-	protected class Converter extends Worker {
+	protected class PostProcessor extends Worker {
 
-		protected Converter(int workerCount, int workerIndex) {
+		protected PostProcessor(int workerCount, int workerIndex) {
 			super(workerCount, workerIndex);
 		}
 
 		@Override
-		public void run() {
+		protected boolean create() {
+			return createPostProcessor(workerIndex);
+		}
 
-			if (createConverter(workerIndex)) {
+		@Override
+		protected boolean process() {
 
-				try {
+			if (buffer[i].state == BufferedFrame.CONVERTED) {
 
-					while (!exit) {
+				long startTime = getStageStartTime();
+				long processingStartTime = getProcessingStartTime();
+				postProcess(workerIndex, buffer[i].getImage());
+				stageCompleted(FrameBufferStatistics.STAGE_POST_PROCESS, startTime);
+				processingCompleted(buffer[i], processingStartTime);
 
-						handleReset();
+				buffer[i].setState(BufferedFrame.READY);
 
-						if (!exit) {
+				next();
 
-							if (buffer[i].state == BufferedFrame.PRE_PROCESSED) {
+				return true;
 
-								buffer[i].setImage(convert(workerIndex, buffer[i].source, buffer[i].getImage()));
-								buffer[i].getImage().setAccelerationPriority(1.0F);
+			} else if (buffer[i].state < 0) {
 
-								if (!TODO_TEST_RECYCLE_MODE) {
-									buffer[i].source = null;
-								}
+				// The source of a failed slot is recycled when the slot is reset
+				next();
 
-								if (postProcessorThreads > 0) {
-									buffer[i].state = BufferedFrame.CONVERTED;
-								} else {
-									buffer[i].state = BufferedFrame.READY;
-								}
+				return true;
 
-								next();
+			} else {
+				return false;
+			}
 
-							} else if (buffer[i].state < 0) {
+		}
 
-								if (!TODO_TEST_RECYCLE_MODE) {
-									buffer[i].source = null;
-								}
+		@Override
+		protected void close() {
+			closePostProcessor(workerIndex);
+		}
 
-								next();
+	}
 
-							} else {
-								Thread.sleep(0, 100); // TODO?
-							}
+	protected abstract class Worker implements Runnable {
 
-						}
+		private static final int TASK_IDLE = 0;
+		private static final int TASK_SCHEDULED = 1;
+		private static final int TASK_RESCHEDULED = 2;
 
+		protected final int workerCount;
+		protected final int workerIndex;
+		protected int i = 0;
+		protected int round = 0;
+		protected volatile boolean reset = false;
+		protected volatile boolean resetPerformed = false;
+		protected volatile Thread thread = null;
+		protected volatile BufferedFrame<F> waitFrame = null;
+		protected volatile boolean finished = false;
+		private final AtomicInteger taskState = new AtomicInteger(TASK_IDLE);
+		private boolean created = false;
+		private boolean yielded = false;
+		private final Runnable task = new Runnable() {
+
+			@Override
+			public void run() {
+				do {
+					taskState.set(TASK_SCHEDULED);
+					runTask();
+					if (yielded) {
+						// Submitted again while the state stays scheduled, so wake ups don't submit it twice
+						yielded = false;
+						executor.execute(this);
+						return;
 					}
-
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
-
-				closeConverter(workerIndex);
-
+				} while (!taskState.compareAndSet(TASK_SCHEDULED, TASK_IDLE));
 			}
+		};
 
+		protected Worker(int workerCount, int workerIndex) {
+			this.workerCount = workerCount;
+			this.workerIndex = workerIndex;
+			this.i = workerIndex;
 		}
 
-	}
+		protected abstract boolean create();
 
-	protected class PostProcessor extends Worker {
+		protected abstract boolean process();
 
-		protected PostProcessor(int workerCount, int workerIndex) {
-			super(workerCount, workerIndex);
-		}
+		protected abstract void close();
 
 		@Override
 		public void run() {
 
-			if (createPostProcessor(workerIndex)) {
+			thread = Thread.currentThread();
+
+			if (create()) {
 
 				try {
 
@@ -458,65 +1156,154 @@ public abstract class FrameBuffer<F> {
 
 						if (!exit) {
 
-							if (buffer[i].state == BufferedFrame.CONVERTED) {
+							int sequence = buffer[i].sequence;
+
+							if (!process()) {
+								waitForStateChange(sequence);
+							}
+
+						}
 
-								postProcess(workerIndex, buffer[i].getImage());
-								buffer[i].state = BufferedFrame.READY;
+					}
 
-								next();
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+				}
 
-							} else if (buffer[i].state < 0) {
+				close();
 
-								if (!TODO_TEST_RECYCLE_MODE) {
-									buffer[i].source = null;
-								}
+			}
 
-								next();
+			finished = true;
 
-							} else {
-								Thread.sleep(0, 100); // TODO?
-							}
+		}
+
+		// Executor mode, runs until there is nothing left to do and then returns the
+		// executor thread, stateChanged(), resume() and exit() will schedule it again
+		private void runTask() {
+
+			if (finished) {
+				return;
+			}
+
+			waitFrame = null;
+
+			if (!created) {
+
+				if (exit) {
+					finished = true;
+					return;
+				}
+
+				created = true;
+
+				if (!create()) {
+					finished = true;
+					return;
+				}
+
+			}
+
+			while (!exit) {
+
+				if (reset) {
+
+					if (!resetPerformed) {
+
+						rewind();
 
+						resetPerformed = true;
+
+						Thread t = resetThread;
+						if (t != null) {
+							LockSupport.unpark(t);
 						}
 
 					}
 
-				} catch (InterruptedException e) {
-					e.printStackTrace();
+					return;
+
 				}
 
-				closePostProcessor(workerIndex);
+				resetPerformed = false;
+
+				int sequence = buffer[i].sequence;
+
+				if (!process()) {
+
+					BufferedFrame<F> frame = buffer[i];
+
+					waitFrame = frame;
+					if (frame.sequence == sequence && !reset && !exit) {
+						return;
+					}
+					waitFrame = null;
+
+				} else if (yielded) {
+					return;
+				}
 
 			}
 
+			close();
+
+			finished = true;
+
 		}
 
-	}
+		// Executor mode, returns the executor thread after the current process() call, the task is submitted again
+		// (behind the tasks of the other workers), used when a worker can keep processing without state changes
+		protected void yieldTask() {
+			if (executor != null) {
+				yielded = true;
+			}
+		}
 
-	protected abstract class Worker implements Runnable {
+		protected void schedule() {
 
-		protected final int workerCount;
-		protected final int workerIndex;
-		protected int i = 0;
-		protected volatile boolean reset = false;
-		protected volatile boolean resetPerformed = false;
+			while (true) {
+
+				int state = taskState.get();
+				if (state == TASK_IDLE) {
+					if (taskState.compareAndSet(TASK_IDLE, TASK_SCHEDULED)) {
+						executor.execute(task);
+						return;
+					}
+				} else if (state == TASK_SCHEDULED) {
+					if (taskState.compareAndSet(TASK_SCHEDULED, TASK_RESCHEDULED)) {
+						return;
+					}
+				} else {
+					return;
+				}
+
+			}
 
-		protected Worker(int workerCount, int workerIndex) {
-			this.workerCount = workerCount;
-			this.workerIndex = workerIndex;
-			this.i = workerIndex;
 		}
 
 		protected void handleReset() throws InterruptedException {
 
+			if (thread == null) {
+				thread = Thread.currentThread();
+			}
+
 			if (reset) {
 
-				i = workerIndex;
+				rewind();
 
 				resetPerformed = true;
 
+				Thread t = resetThread;
+				if (t != null) {
+					LockSupport.unpark(t);
+				}
+
 				while (reset) {
-					Thread.sleep(1); // TODO?
+					if (handoffMode) {
+						park();
+					} else {
+						Thread.sleep(1); // TODO?
+					}
 				}
 
 				resetPerformed = false;
@@ -525,13 +1312,61 @@ public abstract class FrameBuffer<F> {
 
 		}
 
+		protected void waitForStateChange(int sequence) throws InterruptedException {
+
+			if (handoffMode) {
+
+				BufferedFrame<F> frame = buffer[i];
+
+				// Publish the slot we are waiting for before checking the sequence again, see stateChanged()
+				waitFrame = frame;
+				if (frame.sequence == sequence && !reset && !exit) {
+					park();
+				}
+				waitFrame = null;
+
+			} else {
+				Thread.sleep(0, 100); // TODO?
+			}
+
+		}
+
+		private void park() throws InterruptedException {
+			LockSupport.parkNanos(this, MAX_PARK_NANOS);
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+		}
+
+		protected void wakeUp() {
+			if (executor != null) {
+				schedule();
+			} else {
+				Thread t = thread;
+				if (t != null) {
+					LockSupport.unpark(t);
+				}
+			}
+		}
+
+		protected void rewind() {
+			i = workerIndex;
+			round = 0;
+		}
+
 		protected void next() {
 			i += workerCount;
-			if (i >= buffer.length) {
+			if (i >= getRoundLength(round)) {
 				i = workerIndex;
+				round++;
+				nextRound();
 			}
 		}
 
+		protected void nextRound() {
+
+		}
+
 	}
 
 	public static abstract class BufferedFrame<F> extends Frame {
@@ -547,6 +1382,12 @@ public abstract class FrameBuffer<F> {
 
 		protected volatile F source = null;
 		protected volatile int state = CLEARED;
+		protected volatile int sequence = 0;
+		protected volatile boolean keyFrame = false;
+		protected volatile long frameNumber = 0L;
+		protected long processingTime = 0L;
+		private volatile FrameBuffer<F> frameBuffer = null;
+		private FrameHandle<F> sourceHandle = null;
 
 		public BufferedFrame() {
 
@@ -556,19 +1397,86 @@ public abstract class FrameBuffer<F> {
 			return state;
 		}
 
+		protected void setState(int state) {
+
+			// Each slot is only written by one stage (or the consumer) at a time, so a plain increment is sufficient
+			this.state = state;
+			sequence++;
+
+			FrameBuffer<F> frameBuffer = this.frameBuffer;
+			if (frameBuffer != null) {
+				frameBuffer.stateChanged(this);
+			}
+
+		}
+
+		public int getSequence() {
+			return sequence;
+		}
+
 		public boolean isImageReady() {
 			return state == READY;
 		}
 
+		public boolean isKeyFrame() {
+			return keyFrame;
+		}
+
+		// Shares the source of a ready frame with other consumers (a processor or a snapshot writer for example)
+		// without copying it, the returned handle must be released, returns null if the frame has no source
+		public synchronized FrameHandle<F> retainSource() {
+
+			FrameBuffer<F> frameBuffer = this.frameBuffer;
+			if (state != READY || source == null || frameBuffer == null) {
+				return null;
+			}
+
+			if (sourceHandle == null) {
+				sourceHandle = new FrameHandle<F>(source, frameBuffer.sourceRecycler); // The reference of the slot
+			}
+
+			return sourceHandle.retain();
+
+		}
+
+		public synchronized boolean isSourceShared() {
+			return sourceHandle != null;
+		}
+
+		// Releases the reference of the slot if the source is shared, the source is recycled when the
+		// other consumers release it, returns the source if it isn't shared (and can be reused)
+		protected synchronized F detachSource() {
+
+			if (sourceHandle != null) {
+				sourceHandle.release();
+				sourceHandle = null;
+				source = null;
+			}
+
+			return source;
+
+		}
+
+		// Like detachSource(), but the slot doesn't keep an unshared source either
+		protected synchronized F takeSource() {
+			F source = detachSource();
+			this.source = null;
+			return source;
+		}
+
 		public void reset(BufferedImage swapImage) {
 			if (!TODO_TEST_RECYCLE_MODE) {
-				source = null;
+				F source = takeSource();
+				FrameBuffer<F> frameBuffer = this.frameBuffer;
+				if (source != null && frameBuffer != null) {
+					frameBuffer.recycleSource(source);
+				}
 				setImage(null);
 			} else {
 				setImage(swapImage);
 			}
-			setTimestamp(0);
-			state = CLEARED;
+			clearTimestamp();
+			setState(CLEARED);
 		}
 
 	}
@@ -0,0 +1,131 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.media.video;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class FrameBufferExecutors {
+
+	public static boolean TODO_DEBUG = false;
+
+	private static ExecutorService sharedExecutor = null;
+	private static Boolean virtualThreadsSupported = null;
+
+	private FrameBufferExecutors() {
+
+	}
+
+	public static ExecutorService createThreadPoolExecutor(int threads) {
+		return Executors.newFixedThreadPool(threads, createThreadFactory("FrameBuffer-"));
+	}
+
+	public static synchronized ExecutorService getSharedExecutor() {
+
+		if (sharedExecutor == null) {
+			sharedExecutor = createThreadPoolExecutor(Runtime.getRuntime().availableProcessors());
+		}
+
+		return sharedExecutor;
+
+	}
+
+	public static ForkJoinPool createForkJoinExecutor(int parallelism) {
+		// Async mode (FIFO) suits event style tasks that are never joined
+		return new ForkJoinPool(parallelism, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+	}
+
+	public static synchronized boolean isVirtualThreadsSupported() {
+
+		if (virtualThreadsSupported == null) {
+
+			try {
+				Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+				virtualThreadsSupported = true;
+			} catch (Exception e) {
+				virtualThreadsSupported = false;
+			}
+
+		}
+
+		return virtualThreadsSupported;
+
+	}
+
+	// Libraries are built for 1.8, so virtual threads (JDK 21+) are looked up at runtime,
+	// returns null when not supported, FrameBuffer will then fall back to platform threads
+	public static ExecutorService createVirtualThreadExecutor() {
+
+		if (isVirtualThreadsSupported()) {
+
+			try {
+				Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+				return (ExecutorService) method.invoke(null);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+
+		} else if (TODO_DEBUG) {
+			System.err.println("FrameBufferExecutors, virtual threads are not supported by this JVM");
+		}
+
+		return null;
+
+	}
+
+	public static Executor createBestExecutor() {
+
+		Executor executor = createVirtualThreadExecutor();
+		if (executor == null) {
+			executor = getSharedExecutor();
+		}
+
+		return executor;
+
+	}
+
+	public static ThreadFactory createThreadFactory(String namePrefix) {
+
+		return new ThreadFactory() {
+
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+
+				Thread thread = new Thread(runnable, namePrefix + count.incrementAndGet());
+				thread.setDaemon(true);
+
+				return thread;
+
+			}
+		};
+
+	}
+
+}
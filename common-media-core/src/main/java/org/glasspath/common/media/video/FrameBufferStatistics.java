@@ -0,0 +1,480 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.media.video;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.glasspath.common.media.video.FrameBuffer.BufferedFrame;
+
+public class FrameBufferStatistics implements FrameBufferStatisticsMBean {
+
+	public static final int STAGE_DECODE = 0;
+	public static final int STAGE_PRE_PROCESS = 1;
+	public static final int STAGE_CONVERT = 2;
+	public static final int STAGE_POST_PROCESS = 3;
+	public static final String[] STAGE_NAMES = { "decode", "preProcess", "convert", "postProcess" };
+
+	// BufferedFrame states range from PRE_PROCESS_FAILED (-3) to READY (4)
+	public static final int STATE_OFFSET = -BufferedFrame.PRE_PROCESS_FAILED;
+	public static final int STATE_COUNT = BufferedFrame.READY + STATE_OFFSET + 1;
+
+	public static final int DEFAULT_PUBLISH_INTERVAL = 3000;
+	public static final String JMX_DOMAIN = "org.glasspath.common.media";
+
+	private final BufferedFrame<?>[] buffer;
+	private final LatencyHistogram[] stages;
+	private final AtomicLong framesReady = new AtomicLong();
+	private final AtomicLong framesDropped = new AtomicLong();
+	private final AtomicLong endOfVideoCount = new AtomicLong();
+	private final AtomicLong decodeFailedCount = new AtomicLong();
+	private final AtomicLong preProcessFailedCount = new AtomicLong();
+	private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+	private int publishInterval = DEFAULT_PUBLISH_INTERVAL;
+	private volatile long lastPublished = 0L;
+	private ObjectName objectName = null;
+
+	public FrameBufferStatistics(BufferedFrame<?>[] buffer) {
+
+		this.buffer = buffer;
+
+		stages = new LatencyHistogram[STAGE_NAMES.length];
+		for (int i = 0; i < stages.length; i++) {
+			stages[i] = new LatencyHistogram();
+		}
+
+	}
+
+	public LatencyHistogram getStage(int stage) {
+		return stages[stage];
+	}
+
+	public int getPublishInterval() {
+		return publishInterval;
+	}
+
+	public void setPublishInterval(int publishInterval) {
+		this.publishInterval = publishInterval;
+	}
+
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	protected void stageCompleted(int stage, long startTime) {
+		stages[stage].record(System.nanoTime() - startTime);
+	}
+
+	protected void stateChanged(int state) {
+
+		switch (state) {
+
+		case BufferedFrame.READY:
+			framesReady.incrementAndGet();
+			break;
+
+		case BufferedFrame.END_OF_VIDEO_REACHED:
+			endOfVideoCount.incrementAndGet();
+			break;
+
+		case BufferedFrame.DECODE_FAILED:
+			decodeFailedCount.incrementAndGet();
+			break;
+
+		case BufferedFrame.PRE_PROCESS_FAILED:
+			preProcessFailedCount.incrementAndGet();
+			break;
+
+		default:
+			break;
+		}
+
+	}
+
+	protected void frameDropped() {
+		framesDropped.incrementAndGet();
+	}
+
+	// Called from the decoder, listeners are notified on the decoder thread so they should return quickly
+	protected void publishIfDue() {
+
+		if (listeners.size() > 0) {
+
+			long now = System.currentTimeMillis();
+			if (now >= lastPublished + publishInterval) {
+
+				lastPublished = now;
+
+				Snapshot snapshot = createSnapshot();
+				for (Listener listener : listeners) {
+					listener.statisticsUpdated(snapshot);
+				}
+
+			}
+
+		}
+
+	}
+
+	public Snapshot createSnapshot() {
+		return new Snapshot(this);
+	}
+
+	public int[] getSlotOccupancy() {
+
+		int[] occupancy = new int[STATE_COUNT];
+
+		for (BufferedFrame<?> frame : buffer) {
+			int index = frame.getState() + STATE_OFFSET;
+			if (index >= 0 && index < occupancy.length) {
+				occupancy[index]++;
+			}
+		}
+
+		return occupancy;
+
+	}
+
+	@Override
+	public long getFramesReady() {
+		return framesReady.get();
+	}
+
+	@Override
+	public long getFramesDropped() {
+		return framesDropped.get();
+	}
+
+	public long getEndOfVideoCount() {
+		return endOfVideoCount.get();
+	}
+
+	@Override
+	public long getDecodeFailedCount() {
+		return decodeFailedCount.get();
+	}
+
+	@Override
+	public long getPreProcessFailedCount() {
+		return preProcessFailedCount.get();
+	}
+
+	@Override
+	public double getDecodeFailedRate() {
+		return getRate(decodeFailedCount.get(), stages[STAGE_DECODE].getCount());
+	}
+
+	@Override
+	public double getPreProcessFailedRate() {
+		return getRate(preProcessFailedCount.get(), stages[STAGE_PRE_PROCESS].getCount());
+	}
+
+	@Override
+	public double getDecodeMeanMicros() {
+		return stages[STAGE_DECODE].getMeanMicros();
+	}
+
+	@Override
+	public long getDecodeP99Micros() {
+		return stages[STAGE_DECODE].getPercentileMicros(0.99);
+	}
+
+	@Override
+	public double getPreProcessMeanMicros() {
+		return stages[STAGE_PRE_PROCESS].getMeanMicros();
+	}
+
+	@Override
+	public long getPreProcessP99Micros() {
+		return stages[STAGE_PRE_PROCESS].getPercentileMicros(0.99);
+	}
+
+	@Override
+	public double getConvertMeanMicros() {
+		return stages[STAGE_CONVERT].getMeanMicros();
+	}
+
+	@Override
+	public long getConvertP99Micros() {
+		return stages[STAGE_CONVERT].getPercentileMicros(0.99);
+	}
+
+	@Override
+	public double getPostProcessMeanMicros() {
+		return stages[STAGE_POST_PROCESS].getMeanMicros();
+	}
+
+	@Override
+	public long getPostProcessP99Micros() {
+		return stages[STAGE_POST_PROCESS].getPercentileMicros(0.99);
+	}
+
+	@Override
+	public void reset() {
+
+		for (LatencyHistogram stage : stages) {
+			stage.reset();
+		}
+
+		framesReady.set(0);
+		framesDropped.set(0);
+		endOfVideoCount.set(0);
+		decodeFailedCount.set(0);
+		preProcessFailedCount.set(0);
+
+	}
+
+	public synchronized boolean registerMBean(String name) {
+
+		unregisterMBean();
+
+		try {
+
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = new ObjectName(JMX_DOMAIN + ":type=FrameBuffer,name=" + ObjectName.quote(name));
+
+			server.registerMBean(this, objectName);
+			this.objectName = objectName;
+
+			return true;
+
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+
+		return false;
+
+	}
+
+	public synchronized void unregisterMBean() {
+
+		if (objectName != null) {
+
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+
+			objectName = null;
+
+		}
+
+	}
+
+	private static double getRate(long count, long total) {
+		return total > 0 ? (double) count / (double) total : 0.0;
+	}
+
+	public static interface Listener {
+
+		public void statisticsUpdated(Snapshot snapshot);
+
+	}
+
+	public static class Snapshot {
+
+		public final long timestamp;
+		public final long[] stageCounts;
+		public final double[] stageMeanMicros;
+		public final long[] stageP50Micros;
+		public final long[] stageP99Micros;
+		public final long[] stageMaxMicros;
+		public final int[] slotOccupancy;
+		public final long framesReady;
+		public final long framesDropped;
+		public final long endOfVideoCount;
+		public final long decodeFailedCount;
+		public final long preProcessFailedCount;
+
+		protected Snapshot(FrameBufferStatistics statistics) {
+
+			timestamp = System.currentTimeMillis();
+
+			int stageCount = statistics.stages.length;
+			stageCounts = new long[stageCount];
+			stageMeanMicros = new double[stageCount];
+			stageP50Micros = new long[stageCount];
+			stageP99Micros = new long[stageCount];
+			stageMaxMicros = new long[stageCount];
+
+			for (int i = 0; i < stageCount; i++) {
+				LatencyHistogram stage = statistics.stages[i];
+				stageCounts[i] = stage.getCount();
+				stageMeanMicros[i] = stage.getMeanMicros();
+				stageP50Micros[i] = stage.getPercentileMicros(0.5);
+				stageP99Micros[i] = stage.getPercentileMicros(0.99);
+				stageMaxMicros[i] = stage.getMaxMicros();
+			}
+
+			slotOccupancy = statistics.getSlotOccupancy();
+			framesReady = statistics.framesReady.get();
+			framesDropped = statistics.framesDropped.get();
+			endOfVideoCount = statistics.endOfVideoCount.get();
+			decodeFailedCount = statistics.decodeFailedCount.get();
+			preProcessFailedCount = statistics.preProcessFailedCount.get();
+
+		}
+
+		public int getSlotCount(int state) {
+			return slotOccupancy[state + STATE_OFFSET];
+		}
+
+		public double getDecodeFailedRate() {
+			return getRate(decodeFailedCount, stageCounts[STAGE_DECODE]);
+		}
+
+		public double getPreProcessFailedRate() {
+			return getRate(preProcessFailedCount, stageCounts[STAGE_PRE_PROCESS]);
+		}
+
+		@Override
+		public String toString() {
+
+			StringBuilder builder = new StringBuilder();
+
+			for (int i = 0; i < stageCounts.length; i++) {
+				if (stageCounts[i] > 0) {
+					builder.append(STAGE_NAMES[i]);
+					builder.append(": n=" + stageCounts[i]);
+					builder.append(String.format(" mean=%.0fus", stageMeanMicros[i]));
+					builder.append(" p50=" + stageP50Micros[i] + "us");
+					builder.append(" p99=" + stageP99Micros[i] + "us");
+					builder.append(" max=" + stageMaxMicros[i] + "us, ");
+				}
+			}
+
+			builder.append("ready: " + framesReady);
+			builder.append(", dropped: " + framesDropped);
+			builder.append(", decodeFailed: " + decodeFailedCount);
+			builder.append(", preProcessFailed: " + preProcessFailedCount);
+
+			return builder.toString();
+
+		}
+
+	}
+
+	// Power of two buckets in microseconds, bucket n holds values in [2^(n-1), 2^n) us
+	public static class LatencyHistogram {
+
+		public static final int BUCKET_COUNT = 40;
+
+		private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong totalNanos = new AtomicLong();
+		private final AtomicLong maxNanos = new AtomicLong();
+
+		public LatencyHistogram() {
+
+		}
+
+		public void record(long nanos) {
+
+			if (nanos < 0) {
+				nanos = 0;
+			}
+
+			long micros = nanos / 1000L;
+			int bucket = 64 - Long.numberOfLeadingZeros(micros);
+			if (bucket >= BUCKET_COUNT) {
+				bucket = BUCKET_COUNT - 1;
+			}
+
+			buckets.incrementAndGet(bucket);
+			count.incrementAndGet();
+			totalNanos.addAndGet(nanos);
+
+			long max;
+			while (nanos > (max = maxNanos.get())) {
+				if (maxNanos.compareAndSet(max, nanos)) {
+					break;
+				}
+			}
+
+		}
+
+		public long getCount() {
+			return count.get();
+		}
+
+		public double getMeanMicros() {
+			long n = count.get();
+			return n > 0 ? (totalNanos.get() / 1000.0) / n : 0.0;
+		}
+
+		public long getMaxMicros() {
+			return maxNanos.get() / 1000L;
+		}
+
+		public long getBucketCount(int bucket) {
+			return buckets.get(bucket);
+		}
+
+		// Returns the upper bound of the bucket containing the requested percentile
+		public long getPercentileMicros(double percentile) {
+
+			long n = count.get();
+			if (n == 0) {
+				return 0L;
+			}
+
+			long threshold = (long) Math.ceil(n * percentile);
+			long cumulative = 0;
+
+			for (int i = 0; i < BUCKET_COUNT; i++) {
+				cumulative += buckets.get(i);
+				if (cumulative >= threshold) {
+					return i == 0 ? 1L : 1L << i;
+				}
+			}
+
+			return getMaxMicros();
+
+		}
+
+		public void reset() {
+
+			for (int i = 0; i < BUCKET_COUNT; i++) {
+				buckets.set(i, 0);
+			}
+
+			count.set(0);
+			totalNanos.set(0);
+			maxNanos.set(0);
+
+		}
+
+	}
+
+}
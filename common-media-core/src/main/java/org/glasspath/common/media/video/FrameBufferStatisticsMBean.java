@@ -0,0 +1,59 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.media.video;
+
+public interface FrameBufferStatisticsMBean {
+
+	public long getFramesReady();
+
+	public long getFramesDropped();
+
+	public long getDecodeFailedCount();
+
+	public long getPreProcessFailedCount();
+
+	public double getDecodeFailedRate();
+
+	public double getPreProcessFailedRate();
+
+	public double getDecodeMeanMicros();
+
+	public long getDecodeP99Micros();
+
+	public double getPreProcessMeanMicros();
+
+	public long getPreProcessP99Micros();
+
+	public double getConvertMeanMicros();
+
+	public long getConvertP99Micros();
+
+	public double getPostProcessMeanMicros();
+
+	public long getPostProcessP99Micros();
+
+	public int[] getSlotOccupancy();
+
+	public void reset();
+
+}
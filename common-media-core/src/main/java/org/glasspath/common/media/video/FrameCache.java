@@ -0,0 +1,263 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.media.video;
+
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.glasspath.common.media.image.BufferedImagePool;
+
+// LRU cache of decoded frames keyed by video path, timestamp bucket and requested size. The cache keeps
+// its own copies of the images, so callers are free to modify or release the images they receive.
+public class FrameCache {
+
+	public static boolean TODO_DEBUG = false;
+
+	public static final long DEFAULT_MAX_BYTES = 128L * 1024L * 1024L;
+	public static final long DEFAULT_BUCKET_SIZE = 40L; // Milliseconds, one frame at 25 fps
+
+	private static FrameCache defaultCache = null;
+
+	public static synchronized FrameCache getDefault() {
+		if (defaultCache == null) {
+			defaultCache = new FrameCache(DEFAULT_MAX_BYTES, DEFAULT_BUCKET_SIZE);
+		}
+		return defaultCache;
+	}
+
+	private final LinkedHashMap<Key, CachedFrame> frames = new LinkedHashMap<>(64, 0.75F, true);
+	private final long bucketSize;
+	private long maxBytes;
+	private long cachedBytes = 0;
+	private long hitCount = 0;
+	private long missCount = 0;
+	private long evictionCount = 0;
+
+	public FrameCache(long maxBytes, long bucketSize) {
+		this.maxBytes = maxBytes;
+		this.bucketSize = bucketSize > 0 ? bucketSize : 1;
+	}
+
+	public long getBucketSize() {
+		return bucketSize;
+	}
+
+	public synchronized long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public synchronized void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+		evict();
+	}
+
+	public Key createKey(String path, long timestamp, int width, int height) {
+		return new Key(path != null ? path : "", Math.floorDiv(timestamp, bucketSize), width, height);
+	}
+
+	public synchronized boolean contains(Key key) {
+		return frames.containsKey(key);
+	}
+
+	// Returns a copy of the cached frame, the image of the copy is written to the specified
+	// image if possible, otherwise it's acquired from the pool (if not null) or created
+	public Frame get(Key key, BufferedImage image, BufferedImagePool imagePool) {
+
+		CachedFrame cachedFrame;
+		synchronized (this) {
+			cachedFrame = frames.get(key);
+			if (cachedFrame == null) {
+				missCount++;
+				return null;
+			}
+			hitCount++;
+		}
+
+		// The cached image is never modified, so copying doesn't require the lock
+		BufferedImage source = cachedFrame.image;
+		if (image == null || image.getWidth() != source.getWidth() || image.getHeight() != source.getHeight() || image.getType() != source.getType() || source.getType() == BufferedImage.TYPE_CUSTOM) {
+			if (imagePool != null && source.getType() != BufferedImage.TYPE_CUSTOM) {
+				image = imagePool.acquire(source.getWidth(), source.getHeight(), source.getType());
+			} else {
+				image = null;
+			}
+		}
+
+		if (image != null) {
+			source.copyData(image.getRaster());
+		} else {
+			image = copyImage(source);
+		}
+
+		return new Frame(cachedFrame.timestamp, cachedFrame.timebase, image);
+
+	}
+
+	public void put(Key key, Frame frame) {
+
+		BufferedImage image = frame.getImage();
+		if (image == null) {
+			return;
+		}
+
+		CachedFrame cachedFrame = new CachedFrame(frame.getTimestampValue(), frame.getTimebase(), copyImage(image));
+		if (cachedFrame.size > maxBytes) {
+			return;
+		}
+
+		synchronized (this) {
+
+			CachedFrame previous = frames.put(key, cachedFrame);
+			if (previous != null) {
+				cachedBytes -= previous.size;
+			}
+			cachedBytes += cachedFrame.size;
+
+			evict();
+
+		}
+
+	}
+
+	private void evict() {
+
+		Iterator<Map.Entry<Key, CachedFrame>> iterator = frames.entrySet().iterator();
+		while (cachedBytes > maxBytes && iterator.hasNext()) {
+			cachedBytes -= iterator.next().getValue().size;
+			iterator.remove();
+			evictionCount++;
+		}
+
+		if (TODO_DEBUG) {
+			System.out.println("FrameCache, frames: " + frames.size() + ", bytes: " + cachedBytes + ", hits: " + hitCount + ", misses: " + missCount + ", evictions: " + evictionCount);
+		}
+
+	}
+
+	public synchronized void invalidate(String path) {
+
+		Iterator<Map.Entry<Key, CachedFrame>> iterator = frames.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<Key, CachedFrame> entry = iterator.next();
+			if (entry.getKey().path.equals(path)) {
+				cachedBytes -= entry.getValue().size;
+				iterator.remove();
+			}
+		}
+
+	}
+
+	public synchronized void clear() {
+		frames.clear();
+		cachedBytes = 0;
+	}
+
+	public synchronized int getFrameCount() {
+		return frames.size();
+	}
+
+	public synchronized long getCachedBytes() {
+		return cachedBytes;
+	}
+
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	public synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+
+	public synchronized double getHitRatio() {
+		long total = hitCount + missCount;
+		return total > 0 ? (double) hitCount / (double) total : 0.0;
+	}
+
+	public synchronized void resetCounters() {
+		hitCount = 0;
+		missCount = 0;
+		evictionCount = 0;
+	}
+
+	private static BufferedImage copyImage(BufferedImage image) {
+		return new BufferedImage(image.getColorModel(), image.copyData(null), image.isAlphaPremultiplied(), null);
+	}
+
+	public static class Key {
+
+		private final String path;
+		private final long bucket;
+		private final int width;
+		private final int height;
+
+		private Key(String path, long bucket, int width, int height) {
+			this.path = path;
+			this.bucket = bucket;
+			this.width = width;
+			this.height = height;
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = path.hashCode();
+			hash = 31 * hash + Long.hashCode(bucket);
+			hash = 31 * hash + width;
+			hash = 31 * hash + height;
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj instanceof Key) {
+				Key key = (Key) obj;
+				return key.bucket == bucket && key.width == width && key.height == height && key.path.equals(path);
+			} else {
+				return false;
+			}
+		}
+
+	}
+
+	private static class CachedFrame {
+
+		private final long timestamp;
+		private final long timebase;
+		private final BufferedImage image;
+		private final long size;
+
+		private CachedFrame(long timestamp, long timebase, BufferedImage image) {
+			this.timestamp = timestamp;
+			this.timebase = timebase;
+			this.image = image;
+			this.size = BufferedImagePool.getSizeInBytes(image);
+		}
+
+	}
+
+}
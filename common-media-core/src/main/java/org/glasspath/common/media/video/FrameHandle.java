@@ -0,0 +1,96 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.media.video;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Reference counted handle to a decoded frame, lets multiple consumers share one frame without copying it. The
+// creator holds the first reference, every consumer that keeps the frame calls retain() and release() when done,
+// the recycler (a pool for example) gets the frame back when the last reference is released
+public class FrameHandle<T> {
+
+	private final T frame;
+	private final Recycler<T> recycler;
+	private final AtomicInteger referenceCount = new AtomicInteger(1);
+
+	public FrameHandle(T frame) {
+		this(frame, null);
+	}
+
+	public FrameHandle(T frame, Recycler<T> recycler) {
+		this.frame = frame;
+		this.recycler = recycler;
+	}
+
+	public T get() {
+		if (referenceCount.get() <= 0) {
+			throw new IllegalStateException("Frame handle is released");
+		}
+		return frame;
+	}
+
+	public int getReferenceCount() {
+		return referenceCount.get();
+	}
+
+	// Returns this handle, or null if the last reference was already released (the frame may be reused then)
+	public FrameHandle<T> retain() {
+
+		while (true) {
+
+			int count = referenceCount.get();
+			if (count <= 0) {
+				return null;
+			} else if (referenceCount.compareAndSet(count, count + 1)) {
+				return this;
+			}
+
+		}
+
+	}
+
+	// Returns true if this was the last reference
+	public boolean release() {
+
+		int count = referenceCount.decrementAndGet();
+		if (count == 0) {
+			if (recycler != null) {
+				recycler.recycle(frame);
+			}
+			return true;
+		} else if (count < 0) {
+			referenceCount.incrementAndGet();
+			throw new IllegalStateException("Frame handle is already released");
+		} else {
+			return false;
+		}
+
+	}
+
+	public static interface Recycler<T> {
+
+		public void recycle(T frame);
+
+	}
+
+}
@@ -23,10 +23,14 @@
 package org.glasspath.common.media.video;
 
 import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public abstract class FrameLoader {
 
 	protected DefaultVideo video = null;
+	private final Object schedulerLock = new Object();
+	private volatile FrameLoaderScheduler scheduler = null;
 
 	public FrameLoader() {
 
@@ -54,6 +58,69 @@ public abstract class FrameLoader {
 
 	public abstract void loadFrames(FrameLoaderCallback callback, long from, long to, int frameHeight, int totalWidth, int frameSpacing);
 
+	protected long getVideoOffset() {
+		return video.getTimestamp() + video.getStartTimeCorrectionOffset();
+	}
+
+	protected int getStripFrameWidth(int frameHeight) {
+		if (video.getHeight() != 0 && video.getWidth() != 0) {
+			return (int) (((double) frameHeight / (double) video.getHeight()) * video.getWidth());
+		} else {
+			return (frameHeight * 16) / 9; // Use most common aspect ratio if we don't know the video resolution
+		}
+	}
+
+	// Returns the timestamps (relative to the start of the video) of the frames loaded by loadFrames(), or null if no frames will be loaded
+	protected long[] getStripTimestamps(long from, long to, int frameHeight, int totalWidth, int frameSpacing) {
+
+		long fromTimestamp = Math.max(0, from - getVideoOffset());
+		long toTimestamp = to - getVideoOffset();
+
+		if (fromTimestamp >= toTimestamp || fromTimestamp >= video.getDuration()) {
+			return null;
+		}
+
+		double count = (double) totalWidth / (double) (getStripFrameWidth(frameHeight) + frameSpacing);
+		if (count <= 0) {
+			return null;
+		}
+
+		long interval = (long) ((double) (to - from) / count);
+		if (interval <= 0) {
+			return null;
+		}
+
+		long[] timestamps = new long[(int) ((toTimestamp - fromTimestamp + interval - 1) / interval)];
+		for (int i = 0; i < timestamps.length; i++) {
+			timestamps[i] = fromTimestamp + (i * interval);
+		}
+
+		return timestamps;
+
+	}
+
+	public FrameLoaderScheduler getScheduler() {
+
+		if (scheduler == null) {
+			synchronized (schedulerLock) {
+				if (scheduler == null) {
+					scheduler = new FrameLoaderScheduler(this);
+				}
+			}
+		}
+
+		return scheduler;
+
+	}
+
+	public CompletableFuture<Frame> loadFrameAsync(long timestamp, int width, int height, int priority) {
+		return getScheduler().loadFrame(timestamp, width, height, priority);
+	}
+
+	public CompletableFuture<List<Frame>> loadFramesAsync(long from, long to, int frameHeight, int totalWidth, int frameSpacing, int priority, FrameLoaderCallback callback) {
+		return getScheduler().loadFrames(from, to, frameHeight, totalWidth, frameSpacing, priority, callback);
+	}
+
 	public abstract void frameLoaderCallbackCanceled(FrameLoaderCallback callback);
 
 	public abstract void close();
@@ -22,12 +22,17 @@
  */
 package org.glasspath.common.media.video;
 
+import java.awt.image.BufferedImage;
+
+import org.glasspath.common.media.image.BufferedImagePool;
+
 public abstract class FrameLoaderCallback {
 
 	private final int id;
 	private boolean canceled = false;
 	public int width = 0;
 	public int height = 0;
+	private BufferedImagePool imagePool = null;
 
 	public FrameLoaderCallback(int id) {
 		this.id = id;
@@ -45,6 +50,24 @@ public abstract class FrameLoaderCallback {
 		return canceled;
 	}
 
+	public BufferedImagePool getImagePool() {
+		return imagePool;
+	}
+
+	// When a pool is set frame loaders will acquire images from it, the callback
+	// should call releaseImage() once it doesn't reference the image anymore
+	public void setImagePool(BufferedImagePool imagePool) {
+		this.imagePool = imagePool;
+	}
+
+	public void releaseImage(Frame frame) {
+		BufferedImage image = frame.getImage();
+		if (image != null && imagePool != null) {
+			frame.setImage(null);
+			imagePool.release(image);
+		}
+	}
+
 	public void fireFrameLoaded(DefaultVideo video, Frame frame) {
 		frameLoaded(video, frame, id);
 	}
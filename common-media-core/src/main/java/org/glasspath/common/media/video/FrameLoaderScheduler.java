@@ -0,0 +1,382 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.media.video;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+// Asynchronous request queue for a frame loader (so for one video). Requests are executed one at a time
+// in order of priority, requests with the same priority are executed newest first (when scrubbing the
+// last requested position is the one that matters). Duplicate requests are coalesced into one request,
+// the frames of coalesced requests are shared. Canceling a returned future removes the request from the
+// queue (if all futures of the request were canceled), or cancels the callback if it is being executed.
+public class FrameLoaderScheduler {
+
+	public static boolean TODO_DEBUG = false;
+
+	public static final int PRIORITY_VISIBLE = 0;
+	public static final int PRIORITY_PREFETCH = 1;
+	public static final int PRIORITY_BACKGROUND = 2;
+
+	private static final int TYPE_FRAME = 0;
+	private static final int TYPE_FRAMES = 1;
+
+	private static ExecutorService sharedExecutor = null;
+
+	private final FrameLoader frameLoader;
+	private final Executor executor;
+	private final PriorityBlockingQueue<Request> queue = new PriorityBlockingQueue<>();
+	private final Map<RequestKey, Request> requests = new HashMap<>();
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+	private final AtomicLong sequence = new AtomicLong();
+	private volatile Request activeRequest = null;
+	private long coalescedCount = 0;
+	private long droppedCount = 0;
+
+	public FrameLoaderScheduler(FrameLoader frameLoader) {
+		this(frameLoader, null);
+	}
+
+	public FrameLoaderScheduler(FrameLoader frameLoader, Executor executor) {
+		this.frameLoader = frameLoader;
+		this.executor = executor != null ? executor : getSharedExecutor();
+	}
+
+	private static synchronized ExecutorService getSharedExecutor() {
+		if (sharedExecutor == null) {
+			sharedExecutor = Executors.newCachedThreadPool(FrameBufferExecutors.createThreadFactory("FrameLoaderScheduler-"));
+		}
+		return sharedExecutor;
+	}
+
+	public FrameLoader getFrameLoader() {
+		return frameLoader;
+	}
+
+	public CompletableFuture<Frame> loadFrame(long timestamp, int width, int height, int priority) {
+
+		CompletableFuture<Frame> future = new CompletableFuture<>();
+		submit(new RequestKey(TYPE_FRAME, timestamp, 0, width, height, 0), priority, future, null);
+
+		return future;
+
+	}
+
+	// The callback (can be null) is notified of every loaded frame, the future completes with all loaded frames
+	public CompletableFuture<List<Frame>> loadFrames(long from, long to, int frameHeight, int totalWidth, int frameSpacing, int priority, FrameLoaderCallback callback) {
+
+		CompletableFuture<List<Frame>> future = new CompletableFuture<>();
+		submit(new RequestKey(TYPE_FRAMES, from, to, totalWidth, frameHeight, frameSpacing), priority, future, callback);
+
+		return future;
+
+	}
+
+	private void submit(RequestKey key, int priority, CompletableFuture<?> future, FrameLoaderCallback callback) {
+
+		synchronized (requests) {
+
+			Request request = requests.get(key);
+			if (request != null && !request.canceled) {
+
+				coalescedCount++;
+
+				// Move the request forward if it's still queued
+				if (priority < request.priority && queue.remove(request)) {
+					request.priority = priority;
+					request.sequence = sequence.incrementAndGet();
+					queue.add(request);
+				}
+
+			} else {
+
+				request = new Request(key, priority, sequence.incrementAndGet());
+				requests.put(key, request);
+				queue.add(request);
+
+			}
+
+			request.futures.add(future);
+			if (callback != null) {
+				request.callbacks.add(callback);
+			}
+
+			Request finalRequest = request;
+			future.whenComplete(new BiConsumer<Object, Throwable>() {
+
+				@Override
+				public void accept(Object result, Throwable exception) {
+					if (future.isCancelled()) {
+						futureCanceled(finalRequest, future);
+					}
+				}
+			});
+
+		}
+
+		schedule();
+
+	}
+
+	private void futureCanceled(Request request, CompletableFuture<?> future) {
+
+		boolean cancelCallback = false;
+
+		synchronized (requests) {
+
+			request.futures.remove(future);
+
+			if (request.futures.isEmpty() && !request.canceled) {
+
+				request.canceled = true;
+				requests.remove(request.key, request);
+
+				if (queue.remove(request)) {
+					droppedCount++;
+					if (TODO_DEBUG) {
+						System.out.println("FrameLoaderScheduler, dropped canceled request (" + droppedCount + ")");
+					}
+				} else {
+					cancelCallback = activeRequest == request;
+				}
+
+			}
+
+		}
+
+		if (cancelCallback) {
+			request.callback.cancel();
+			frameLoader.frameLoaderCallbackCanceled(request.callback);
+		}
+
+	}
+
+	public void cancelAll() {
+
+		List<CompletableFuture<?>> futures = new ArrayList<>();
+
+		synchronized (requests) {
+			for (Request request : requests.values()) {
+				futures.addAll(request.futures);
+			}
+		}
+
+		for (CompletableFuture<?> future : futures) {
+			future.cancel(false);
+		}
+
+	}
+
+	private void schedule() {
+		if (scheduled.compareAndSet(false, true)) {
+			executor.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					drain();
+				}
+			});
+		}
+	}
+
+	private void drain() {
+
+		while (true) {
+
+			Request request;
+			while ((request = queue.poll()) != null) {
+				execute(request);
+			}
+
+			scheduled.set(false);
+
+			// A request can be added between poll() and set(false)
+			if (queue.isEmpty() || !scheduled.compareAndSet(false, true)) {
+				break;
+			}
+
+		}
+
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private void execute(Request request) {
+
+		List<Frame> frames = new ArrayList<>();
+		Throwable exception = null;
+
+		FrameLoaderCallback requestCallback = new FrameLoaderCallback(0) {
+
+			@Override
+			public void frameLoaded(DefaultVideo video, Frame frame, int callbackId) {
+
+				frames.add(frame);
+
+				List<FrameLoaderCallback> callbacks;
+				synchronized (requests) {
+					callbacks = new ArrayList<>(request.callbacks);
+				}
+				for (FrameLoaderCallback callback : callbacks) {
+					if (!callback.isCanceled()) {
+						callback.fireFrameLoaded(video, frame);
+					}
+				}
+
+			}
+		};
+
+		synchronized (requests) {
+			if (request.canceled) {
+				return;
+			}
+			request.callback = requestCallback;
+			activeRequest = request;
+		}
+
+		try {
+
+			RequestKey key = request.key;
+			if (key.type == TYPE_FRAME) {
+				frameLoader.loadFrame(requestCallback, key.from, key.width, key.height, null, false);
+			} else {
+				frameLoader.loadFrames(requestCallback, key.from, key.to, key.height, key.width, key.spacing);
+			}
+
+		} catch (Throwable t) {
+			exception = t;
+		}
+
+		List<CompletableFuture<?>> futures;
+		synchronized (requests) {
+			activeRequest = null;
+			requests.remove(request.key, request);
+			futures = new ArrayList<>(request.futures);
+		}
+
+		for (CompletableFuture future : futures) {
+			if (exception != null) {
+				future.completeExceptionally(exception);
+			} else if (request.key.type == TYPE_FRAME) {
+				future.complete(frames.isEmpty() ? null : frames.get(0));
+			} else {
+				future.complete(frames);
+			}
+		}
+
+	}
+
+	public int getQueuedRequestCount() {
+		return queue.size();
+	}
+
+	public long getCoalescedCount() {
+		synchronized (requests) {
+			return coalescedCount;
+		}
+	}
+
+	public long getDroppedCount() {
+		synchronized (requests) {
+			return droppedCount;
+		}
+	}
+
+	private static class RequestKey {
+
+		private final int type;
+		private final long from;
+		private final long to;
+		private final int width;
+		private final int height;
+		private final int spacing;
+
+		private RequestKey(int type, long from, long to, int width, int height, int spacing) {
+			this.type = type;
+			this.from = from;
+			this.to = to;
+			this.width = width;
+			this.height = height;
+			this.spacing = spacing;
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = type;
+			hash = 31 * hash + Long.hashCode(from);
+			hash = 31 * hash + Long.hashCode(to);
+			hash = 31 * hash + width;
+			hash = 31 * hash + height;
+			hash = 31 * hash + spacing;
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj instanceof RequestKey) {
+				RequestKey key = (RequestKey) obj;
+				return key.type == type && key.from == from && key.to == to && key.width == width && key.height == height && key.spacing == spacing;
+			} else {
+				return false;
+			}
+		}
+
+	}
+
+	private static class Request implements Comparable<Request> {
+
+		private final RequestKey key;
+		private final List<CompletableFuture<?>> futures = new ArrayList<>();
+		private final List<FrameLoaderCallback> callbacks = new ArrayList<>();
+		private int priority;
+		private long sequence;
+		private boolean canceled = false;
+		private volatile FrameLoaderCallback callback = null;
+
+		private Request(RequestKey key, int priority, long sequence) {
+			this.key = key;
+			this.priority = priority;
+			this.sequence = sequence;
+		}
+
+		@Override
+		public int compareTo(Request request) {
+			if (priority != request.priority) {
+				return Integer.compare(priority, request.priority);
+			} else {
+				return Long.compare(request.sequence, sequence); // Newest first
+			}
+		}
+
+	}
+
+}
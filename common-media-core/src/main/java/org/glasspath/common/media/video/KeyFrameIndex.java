@@ -0,0 +1,219 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.media.video;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+
+// Sorted key frame timestamps (microseconds, relative to the start of the video) and byte
+// positions of a video file. The index is stored in an index directory (a cache directory
+// by default, see getDefaultIndexDirectory()), a stored index is only valid as long as the
+// size and modification time of the source match.
+public class KeyFrameIndex {
+
+	public static final String FILE_EXTENSION = ".keyframes";
+	public static final String DEFAULT_INDEX_DIRECTORY_NAME = "glasspath-keyframes";
+
+	private static final int MAGIC = 0x47504b49; // GPKI
+	private static final int VERSION = 1;
+
+	private final long[] timestamps;
+	private final long[] positions;
+
+	public KeyFrameIndex(long[] timestamps, long[] positions) {
+
+		if (timestamps.length != positions.length) {
+			throw new IllegalArgumentException("Timestamps and positions don't match");
+		}
+
+		// Packets are not always stored in presentation order
+		boolean sorted = true;
+		for (int i = 1; i < timestamps.length && sorted; i++) {
+			sorted = timestamps[i] >= timestamps[i - 1];
+		}
+
+		if (!sorted) {
+
+			Integer[] order = new Integer[timestamps.length];
+			for (int i = 0; i < order.length; i++) {
+				order[i] = i;
+			}
+			Arrays.sort(order, new Comparator<Integer>() {
+
+				@Override
+				public int compare(Integer a, Integer b) {
+					return Long.compare(timestamps[a], timestamps[b]);
+				}
+			});
+
+			long[] sortedTimestamps = new long[timestamps.length];
+			long[] sortedPositions = new long[positions.length];
+			for (int i = 0; i < order.length; i++) {
+				sortedTimestamps[i] = timestamps[order[i]];
+				sortedPositions[i] = positions[order[i]];
+			}
+
+			this.timestamps = sortedTimestamps;
+			this.positions = sortedPositions;
+
+		} else {
+			this.timestamps = timestamps;
+			this.positions = positions;
+		}
+
+	}
+
+	public int getCount() {
+		return timestamps.length;
+	}
+
+	public long getTimestamp(int index) {
+		return timestamps[index];
+	}
+
+	public long getPosition(int index) {
+		return positions[index];
+	}
+
+	// Returns the index of the key frame at or before the timestamp, -1 if the timestamp is before the first key frame
+	public int findKeyFrame(long timestamp) {
+		int index = Arrays.binarySearch(timestamps, timestamp);
+		if (index >= 0) {
+			// Return the last of equal timestamps
+			while (index + 1 < timestamps.length && timestamps[index + 1] == timestamp) {
+				index++;
+			}
+			return index;
+		} else {
+			return -index - 2;
+		}
+	}
+
+	// Returns the timestamp of the key frame at or before the timestamp (or the first key frame)
+	public long getKeyFrameTimestamp(long timestamp) {
+		if (timestamps.length == 0) {
+			return timestamp;
+		} else {
+			return timestamps[Math.max(0, findKeyFrame(timestamp))];
+		}
+	}
+
+	// Returns the longest distance between two key frames in microseconds
+	public long getMaxGopDuration() {
+		long max = 0;
+		for (int i = 1; i < timestamps.length; i++) {
+			max = Math.max(max, timestamps[i] - timestamps[i - 1]);
+		}
+		return max;
+	}
+
+	// Index files are not written next to the video files, the default directory is a cache directory in the temporary directory
+	public static File getDefaultIndexDirectory() {
+		return new File(System.getProperty("java.io.tmpdir"), DEFAULT_INDEX_DIRECTORY_NAME);
+	}
+
+	// Returns a file in indexDirectory (or the default directory if null) keyed by the source path
+	public static File getIndexFile(File sourceFile, File indexDirectory) {
+		if (indexDirectory == null) {
+			indexDirectory = getDefaultIndexDirectory();
+		}
+		String path = sourceFile.getAbsolutePath();
+		return new File(indexDirectory, sourceFile.getName() + "-" + Integer.toHexString(path.hashCode()) + Integer.toHexString(path.length()) + FILE_EXTENSION);
+	}
+
+	// Returns null if the index doesn't exist, can't be read or doesn't match the source file anymore
+	public static KeyFrameIndex read(File indexFile, File sourceFile) {
+
+		if (!indexFile.isFile() || !sourceFile.isFile()) {
+			return null;
+		}
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+
+			if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != sourceFile.length() || in.readLong() != sourceFile.lastModified()) {
+				return null;
+			}
+
+			int count = in.readInt();
+			if (count < 0 || (long) count * 16 > indexFile.length()) {
+				return null;
+			}
+
+			long[] timestamps = new long[count];
+			long[] positions = new long[count];
+			for (int i = 0; i < count; i++) {
+				timestamps[i] = in.readLong();
+				positions[i] = in.readLong();
+			}
+
+			return new KeyFrameIndex(timestamps, positions);
+
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+
+	}
+
+	public void write(File indexFile, File sourceFile) throws IOException {
+
+		File directory = indexFile.getAbsoluteFile().getParentFile();
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create index directory: " + directory);
+		}
+
+		File tempFile = new File(directory, indexFile.getName() + ".tmp");
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(sourceFile.length());
+			out.writeLong(sourceFile.lastModified());
+			out.writeInt(timestamps.length);
+			for (int i = 0; i < timestamps.length; i++) {
+				out.writeLong(timestamps[i]);
+				out.writeLong(positions[i]);
+			}
+
+		}
+
+		try {
+			Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+
+	}
+
+}
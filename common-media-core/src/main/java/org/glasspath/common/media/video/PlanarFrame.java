@@ -0,0 +1,223 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.media.video;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.nio.ByteBuffer;
+
+import org.glasspath.common.media.image.PixelFormatConverter;
+
+// Frame backed by (direct) byte buffer planes, the planes are wrapped as is so decoders and
+// processors can share them without copying, a BufferedImage is only created when getImage() is called
+public class PlanarFrame extends Frame {
+
+	public static final int PIXEL_FORMAT_YUV420P = 0;
+	public static final int PIXEL_FORMAT_NV12 = 1;
+	public static final int PIXEL_FORMAT_BGR24 = 2;
+
+	private final int width;
+	private final int height;
+	private final int pixelFormat;
+	private final ByteBuffer[] planes;
+	private final int[] strides;
+	private volatile boolean imageValid = false;
+
+	public PlanarFrame(int width, int height, int pixelFormat, ByteBuffer[] planes, int[] strides) {
+
+		if (width <= 0 || height <= 0) {
+			throw new IllegalArgumentException("Invalid frame size: " + width + "x" + height);
+		} else if (planes == null || strides == null || planes.length != getPlaneCount(pixelFormat) || strides.length != planes.length) {
+			throw new IllegalArgumentException("Invalid planes for pixel format: " + pixelFormat);
+		}
+
+		this.width = width;
+		this.height = height;
+		this.pixelFormat = pixelFormat;
+		this.planes = planes;
+		this.strides = strides;
+
+		for (int i = 0; i < planes.length; i++) {
+			if (strides[i] < getPlaneWidthInBytes(i) || planes[i].capacity() < (long) strides[i] * (getPlaneHeight(i) - 1) + getPlaneWidthInBytes(i)) {
+				throw new IllegalArgumentException("Plane " + i + " is too small for a " + width + "x" + height + " frame");
+			}
+		}
+
+	}
+
+	// Allocates all planes (without padding) in one direct buffer
+	public static PlanarFrame allocate(int width, int height, int pixelFormat) {
+
+		int chromaWidth = (width + 1) / 2;
+		int chromaHeight = (height + 1) / 2;
+
+		ByteBuffer[] planes;
+		int[] strides;
+
+		switch (pixelFormat) {
+
+		case PIXEL_FORMAT_YUV420P:
+			strides = new int[] { width, chromaWidth, chromaWidth };
+			planes = slice(ByteBuffer.allocateDirect(width * height + 2 * chromaWidth * chromaHeight), width * height, chromaWidth * chromaHeight, chromaWidth * chromaHeight);
+			break;
+
+		case PIXEL_FORMAT_NV12:
+			strides = new int[] { width, chromaWidth * 2 };
+			planes = slice(ByteBuffer.allocateDirect(width * height + 2 * chromaWidth * chromaHeight), width * height, 2 * chromaWidth * chromaHeight);
+			break;
+
+		case PIXEL_FORMAT_BGR24:
+			strides = new int[] { width * 3 };
+			planes = new ByteBuffer[] { ByteBuffer.allocateDirect(width * height * 3) };
+			break;
+
+		default:
+			throw new IllegalArgumentException("Unsupported pixel format: " + pixelFormat);
+		}
+
+		return new PlanarFrame(width, height, pixelFormat, planes, strides);
+
+	}
+
+	private static ByteBuffer[] slice(ByteBuffer buffer, int... sizes) {
+
+		ByteBuffer[] planes = new ByteBuffer[sizes.length];
+
+		int offset = 0;
+		for (int i = 0; i < sizes.length; i++) {
+			buffer.limit(offset + sizes[i]).position(offset);
+			planes[i] = buffer.slice();
+			offset += sizes[i];
+		}
+
+		buffer.clear();
+
+		return planes;
+
+	}
+
+	public static int getPlaneCount(int pixelFormat) {
+		switch (pixelFormat) {
+		case PIXEL_FORMAT_YUV420P:
+			return 3;
+		case PIXEL_FORMAT_NV12:
+			return 2;
+		case PIXEL_FORMAT_BGR24:
+			return 1;
+		default:
+			return 0;
+		}
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getPixelFormat() {
+		return pixelFormat;
+	}
+
+	public int getPlaneCount() {
+		return planes.length;
+	}
+
+	public ByteBuffer getPlane(int plane) {
+		return planes[plane];
+	}
+
+	public int getStride(int plane) {
+		return strides[plane];
+	}
+
+	public int getPlaneWidthInBytes(int plane) {
+		if (pixelFormat == PIXEL_FORMAT_BGR24) {
+			return width * 3;
+		} else if (plane == 0) {
+			return width;
+		} else if (pixelFormat == PIXEL_FORMAT_NV12) {
+			return ((width + 1) / 2) * 2;
+		} else {
+			return (width + 1) / 2;
+		}
+	}
+
+	public int getPlaneHeight(int plane) {
+		return plane == 0 ? height : (height + 1) / 2;
+	}
+
+	public boolean isDirect() {
+		for (ByteBuffer plane : planes) {
+			if (!plane.isDirect()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// Should be called after the content of the planes was changed, the image is
+	// then converted again the next time getImage() is called
+	public void invalidateImage() {
+		imageValid = false;
+	}
+
+	@Override
+	public synchronized BufferedImage getImage() {
+		if (!imageValid) {
+			super.setImage(toBufferedImage(super.getImage()));
+			imageValid = true;
+		}
+		return super.getImage();
+	}
+
+	@Override
+	public synchronized void setImage(BufferedImage image) {
+		super.setImage(image);
+		imageValid = image != null;
+	}
+
+	// Converts the planes to a TYPE_3BYTE_BGR image, the specified image is reused if it has the right size and type
+	public synchronized BufferedImage toBufferedImage(BufferedImage image) {
+
+		if (image == null || image.getWidth() != width || image.getHeight() != height || image.getType() != BufferedImage.TYPE_3BYTE_BGR) {
+			image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+		}
+
+		byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+
+		if (pixelFormat == PIXEL_FORMAT_BGR24) {
+			PixelFormatConverter.bgrToBgr(planes[0], strides[0], width, height, pixels, width * 3);
+		} else if (pixelFormat == PIXEL_FORMAT_NV12) {
+			PixelFormatConverter.nv12ToBgr(planes[0], strides[0], planes[1], strides[1], width, height, pixels, width * 3);
+		} else {
+			PixelFormatConverter.i420ToBgr(planes[0], strides[0], planes[1], strides[1], planes[2], strides[2], width, height, pixels, width * 3);
+		}
+
+		return image;
+
+	}
+
+}
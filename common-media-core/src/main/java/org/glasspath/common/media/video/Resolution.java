@@ -71,4 +71,14 @@ public enum Resolution {
 		return name;
 	}
 
+	// Returns null if there is no resolution with the specified size
+	public static Resolution get(int width, int height) {
+		for (Resolution resolution : values()) {
+			if (resolution.width == width && resolution.height == height) {
+				return resolution;
+			}
+		}
+		return null;
+	}
+
 }
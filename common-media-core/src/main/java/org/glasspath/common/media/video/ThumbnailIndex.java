@@ -0,0 +1,267 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.media.video;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+// Thumbnail sprite sheet of a video with a timestamp table, stored in a file which is memory mapped
+// when opened. The index is only valid as long as the size and modification time of the source match.
+//
+// Layout (big endian): magic, version, source size, source modification time, thumbnail width,
+// thumbnail height, thumbnail count, timestamps (long[count]), thumbnails (BGR, width * height * 3 each)
+public class ThumbnailIndex {
+
+	public static boolean TODO_DEBUG = false;
+
+	public static final String FILE_EXTENSION = ".thumbs";
+
+	private static final int MAGIC = 0x47505449; // GPTI
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4 + 4 + 4;
+
+	private final File file;
+	private final MappedByteBuffer buffer;
+	private final int width;
+	private final int height;
+	private final int count;
+	private final long[] timestamps;
+	private final int dataOffset;
+
+	private ThumbnailIndex(File file, MappedByteBuffer buffer, int width, int height, int count, long[] timestamps, int dataOffset) {
+		this.file = file;
+		this.buffer = buffer;
+		this.width = width;
+		this.height = height;
+		this.count = count;
+		this.timestamps = timestamps;
+		this.dataOffset = dataOffset;
+	}
+
+	// Returns the index file next to the source file if indexDirectory is null, otherwise a file in indexDirectory keyed by the source path
+	public static File getIndexFile(File sourceFile, File indexDirectory) {
+		if (indexDirectory == null) {
+			return new File(sourceFile.getAbsoluteFile().getParentFile(), "." + sourceFile.getName() + FILE_EXTENSION);
+		} else {
+			String path = sourceFile.getAbsolutePath();
+			return new File(indexDirectory, sourceFile.getName() + "-" + Integer.toHexString(path.hashCode()) + Integer.toHexString(path.length()) + FILE_EXTENSION);
+		}
+	}
+
+	// Returns null if the index doesn't exist, can't be read or doesn't match the source file anymore
+	public static ThumbnailIndex open(File indexFile, File sourceFile) {
+
+		if (!indexFile.isFile() || !sourceFile.isFile()) {
+			return null;
+		}
+
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(indexFile, "r"); FileChannel channel = randomAccessFile.getChannel()) {
+
+			long fileSize = channel.size();
+			if (fileSize < HEADER_SIZE || fileSize > Integer.MAX_VALUE) {
+				return null;
+			}
+
+			// The mapping stays valid after the channel is closed
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+			buffer.order(ByteOrder.BIG_ENDIAN);
+
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+				return null;
+			} else if (buffer.getLong() != sourceFile.length() || buffer.getLong() != sourceFile.lastModified()) {
+				if (TODO_DEBUG) {
+					System.out.println("ThumbnailIndex, index is outdated: " + indexFile);
+				}
+				return null;
+			}
+
+			int width = buffer.getInt();
+			int height = buffer.getInt();
+			int count = buffer.getInt();
+
+			if (width <= 0 || height <= 0 || count < 0) {
+				return null;
+			}
+
+			int dataOffset = HEADER_SIZE + (count * 8);
+			if (fileSize != dataOffset + ((long) count * width * height * 3)) {
+				return null;
+			}
+
+			long[] timestamps = new long[count];
+			buffer.asLongBuffer().get(timestamps);
+
+			return new ThumbnailIndex(indexFile, buffer, width, height, count, timestamps, dataOffset);
+
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+
+	}
+
+	// Writes the thumbnails (all with the same size) to a temporary file which then replaces the index file
+	public static void write(File indexFile, File sourceFile, List<Long> timestamps, List<BufferedImage> images) throws IOException {
+
+		if (timestamps.size() != images.size() || images.isEmpty()) {
+			throw new IllegalArgumentException("Timestamps and thumbnails don't match");
+		}
+
+		int width = images.get(0).getWidth();
+		int height = images.get(0).getHeight();
+		int count = images.size();
+
+		File tempFile = new File(indexFile.getAbsoluteFile().getParentFile(), indexFile.getName() + ".tmp");
+
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(tempFile, "rw"); FileChannel channel = randomAccessFile.getChannel()) {
+
+			randomAccessFile.setLength(0);
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + (count * 8));
+			header.putInt(MAGIC);
+			header.putInt(VERSION);
+			header.putLong(sourceFile.length());
+			header.putLong(sourceFile.lastModified());
+			header.putInt(width);
+			header.putInt(height);
+			header.putInt(count);
+			for (Long timestamp : timestamps) {
+				header.putLong(timestamp);
+			}
+			header.flip();
+			while (header.hasRemaining()) {
+				channel.write(header);
+			}
+
+			ByteBuffer thumbnail = ByteBuffer.allocate(width * height * 3);
+			for (BufferedImage image : images) {
+
+				if (image.getWidth() != width || image.getHeight() != height) {
+					throw new IllegalArgumentException("Thumbnails must have the same size");
+				}
+
+				thumbnail.clear();
+				thumbnail.put(toBgr(image));
+				thumbnail.flip();
+				while (thumbnail.hasRemaining()) {
+					channel.write(thumbnail);
+				}
+
+			}
+
+		}
+
+		try {
+			Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+
+	}
+
+	private static byte[] toBgr(BufferedImage image) {
+
+		if (image.getType() != BufferedImage.TYPE_3BYTE_BGR) {
+			BufferedImage bgrImage = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
+			bgrImage.getGraphics().drawImage(image, 0, 0, null);
+			image = bgrImage;
+		}
+
+		return ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public long getTimestamp(int index) {
+		return timestamps[index];
+	}
+
+	// Returns the index of the thumbnail nearest to the timestamp, or -1 if the index is empty
+	public int findNearest(long timestamp) {
+
+		if (count == 0) {
+			return -1;
+		}
+
+		int low = 0;
+		int high = count - 1;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (timestamps[mid] < timestamp) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+
+		if (low > 0 && timestamp - timestamps[low - 1] < timestamps[low] - timestamp) {
+			return low - 1;
+		} else {
+			return low;
+		}
+
+	}
+
+	// Copies the thumbnail into the specified image if it is a TYPE_3BYTE_BGR image of the right size, otherwise a new image is created
+	public BufferedImage getImage(int index, BufferedImage image) {
+
+		if (image == null || image.getWidth() != width || image.getHeight() != height || image.getType() != BufferedImage.TYPE_3BYTE_BGR) {
+			image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+		}
+
+		byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+
+		ByteBuffer data = buffer.duplicate();
+		data.position(dataOffset + (index * width * height * 3));
+		data.get(pixels, 0, width * height * 3);
+
+		return image;
+
+	}
+
+}
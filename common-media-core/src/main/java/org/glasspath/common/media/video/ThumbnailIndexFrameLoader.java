@@ -0,0 +1,266 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.media.video;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.glasspath.common.media.image.BufferedImagePool;
+import org.glasspath.common.media.image.PixelFormatConverter;
+
+// Decorator which serves loadFrames() from a persistent thumbnail index, if the index doesn't exist (or is outdated)
+// it is created from the wrapped frame loader the first time loadFrames() is called. Single frames are always loaded
+// by the wrapped frame loader.
+public class ThumbnailIndexFrameLoader extends FrameLoader {
+
+	public static boolean TODO_DEBUG = false;
+
+	public static final int DEFAULT_THUMBNAIL_HEIGHT = 90;
+	public static final long DEFAULT_MIN_INTERVAL = 2000L;
+	public static final int DEFAULT_MAX_THUMBNAIL_COUNT = 720;
+
+	private final FrameLoader frameLoader;
+	private final File indexDirectory;
+	private int thumbnailHeight = DEFAULT_THUMBNAIL_HEIGHT;
+	private long minInterval = DEFAULT_MIN_INTERVAL;
+	private int maxThumbnailCount = DEFAULT_MAX_THUMBNAIL_COUNT;
+	private boolean createIndex = true;
+	private ThumbnailIndex thumbnailIndex = null;
+	private boolean indexFailed = false;
+	private volatile FrameLoaderCallback indexCallback = null;
+
+	public ThumbnailIndexFrameLoader(FrameLoader frameLoader) {
+		this(frameLoader, null);
+	}
+
+	// If indexDirectory is null index files are written next to the video files
+	public ThumbnailIndexFrameLoader(FrameLoader frameLoader, File indexDirectory) {
+		this.frameLoader = frameLoader;
+		this.indexDirectory = indexDirectory;
+	}
+
+	public FrameLoader getFrameLoader() {
+		return frameLoader;
+	}
+
+	public int getThumbnailHeight() {
+		return thumbnailHeight;
+	}
+
+	public void setThumbnailHeight(int thumbnailHeight) {
+		this.thumbnailHeight = thumbnailHeight;
+	}
+
+	public long getMinInterval() {
+		return minInterval;
+	}
+
+	public void setMinInterval(long minInterval) {
+		this.minInterval = minInterval;
+	}
+
+	public int getMaxThumbnailCount() {
+		return maxThumbnailCount;
+	}
+
+	public void setMaxThumbnailCount(int maxThumbnailCount) {
+		this.maxThumbnailCount = maxThumbnailCount;
+	}
+
+	public boolean isCreateIndex() {
+		return createIndex;
+	}
+
+	public void setCreateIndex(boolean createIndex) {
+		this.createIndex = createIndex;
+	}
+
+	public ThumbnailIndex getThumbnailIndex() {
+		return thumbnailIndex;
+	}
+
+	@Override
+	public void open(DefaultVideo video, int width, int height, boolean closeFile) {
+		super.open(video, width, height, closeFile);
+		frameLoader.open(video, width, height, closeFile);
+
+		thumbnailIndex = null;
+		indexFailed = false;
+
+		File sourceFile = getSourceFile();
+		if (sourceFile != null) {
+			thumbnailIndex = ThumbnailIndex.open(ThumbnailIndex.getIndexFile(sourceFile, indexDirectory), sourceFile);
+		}
+
+	}
+
+	private File getSourceFile() {
+		return video != null && video.getPath() != null ? new File(video.getPath()) : null;
+	}
+
+	@Override
+	public boolean isFileOpen() {
+		return frameLoader.isFileOpen();
+	}
+
+	@Override
+	public void loadFrame(FrameLoaderCallback callback, long timestamp, int width, int height, BufferedImage image) {
+		frameLoader.loadFrame(callback, timestamp, width, height, image);
+	}
+
+	@Override
+	public boolean loadFrame(FrameLoaderCallback callback, long timestamp, int width, int height, BufferedImage image, boolean returnFirstFrame) {
+		return frameLoader.loadFrame(callback, timestamp, width, height, image, returnFirstFrame);
+	}
+
+	@Override
+	public synchronized void loadFrames(FrameLoaderCallback callback, long from, long to, int frameHeight, int totalWidth, int frameSpacing) {
+
+		if (thumbnailIndex == null && createIndex && !indexFailed && !callback.isCanceled()) {
+			createThumbnailIndex(callback);
+		}
+
+		ThumbnailIndex thumbnailIndex = this.thumbnailIndex;
+		if (thumbnailIndex != null && thumbnailIndex.getCount() > 0) {
+
+			long[] timestamps = getStripTimestamps(from, to, frameHeight, totalWidth, frameSpacing);
+			if (timestamps != null) {
+
+				int frameWidth = getStripFrameWidth(frameHeight);
+				BufferedImagePool imagePool = callback.getImagePool();
+				BufferedImage thumbnail = null;
+
+				for (long timestamp : timestamps) {
+
+					if (callback.isCanceled()) {
+						break;
+					}
+
+					int index = thumbnailIndex.findNearest(timestamp);
+
+					BufferedImage image;
+					if (frameWidth == thumbnailIndex.getWidth() && frameHeight == thumbnailIndex.getHeight()) {
+						image = thumbnailIndex.getImage(index, imagePool != null ? imagePool.acquire(frameWidth, frameHeight, BufferedImage.TYPE_3BYTE_BGR) : null);
+					} else {
+						thumbnail = thumbnailIndex.getImage(index, thumbnail);
+						image = PixelFormatConverter.scale(thumbnail, frameWidth, frameHeight, imagePool != null ? imagePool.acquire(frameWidth, frameHeight, BufferedImage.TYPE_3BYTE_BGR) : null);
+					}
+
+					callback.fireFrameLoaded(video, new Frame(timestamp, Frame.TIMEBASE_MILLISECONDS, image));
+
+				}
+
+			}
+
+		} else {
+			frameLoader.loadFrames(callback, from, to, frameHeight, totalWidth, frameSpacing);
+		}
+
+	}
+
+	private void createThumbnailIndex(FrameLoaderCallback callback) {
+
+		File sourceFile = getSourceFile();
+		if (sourceFile == null || !sourceFile.isFile() || !frameLoader.isFileOpen() || video.getDuration() <= 0) {
+			indexFailed = true;
+			return;
+		}
+
+		long duration = video.getDuration();
+		long interval = Math.max(minInterval, (duration + maxThumbnailCount - 1) / maxThumbnailCount);
+		int count = (int) Math.max(1, duration / interval);
+		int frameWidth = getStripFrameWidth(thumbnailHeight);
+
+		List<Long> timestamps = new ArrayList<>(count);
+		List<BufferedImage> images = new ArrayList<>(count);
+
+		indexCallback = new FrameLoaderCallback(callback.getId()) {
+
+			@Override
+			public boolean isCanceled() {
+				return callback.isCanceled();
+			}
+
+			@Override
+			public void frameLoaded(DefaultVideo video, Frame frame, int callbackId) {
+				BufferedImage image = frame.getImage();
+				if (image != null && image.getWidth() == frameWidth && image.getHeight() == thumbnailHeight && frame.hasTimestamp()) {
+					timestamps.add(frame.getTimestampValue());
+					images.add(image);
+				}
+			}
+		};
+
+		long start = System.currentTimeMillis();
+
+		long offset = getVideoOffset();
+		try {
+			frameLoader.loadFrames(indexCallback, offset, offset + (count * interval), thumbnailHeight, count * frameWidth, 0);
+		} finally {
+			indexCallback = null;
+		}
+
+		if (callback.isCanceled() || images.isEmpty()) {
+			indexFailed = !callback.isCanceled();
+			return;
+		}
+
+		File indexFile = ThumbnailIndex.getIndexFile(sourceFile, indexDirectory);
+		try {
+			ThumbnailIndex.write(indexFile, sourceFile, timestamps, images);
+			thumbnailIndex = ThumbnailIndex.open(indexFile, sourceFile);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		indexFailed = thumbnailIndex == null;
+
+		if (TODO_DEBUG) {
+			System.out.println("ThumbnailIndexFrameLoader, created index with " + images.size() + " thumbnails for " + video.getName() + " in " + (System.currentTimeMillis() - start) + "ms");
+		}
+
+	}
+
+	@Override
+	public void frameLoaderCallbackCanceled(FrameLoaderCallback callback) {
+
+		// While the index is created the frame loader only knows the index callback
+		FrameLoaderCallback indexCallback = this.indexCallback;
+		if (indexCallback != null && indexCallback.getId() == callback.getId()) {
+			frameLoader.frameLoaderCallbackCanceled(indexCallback);
+		} else {
+			frameLoader.frameLoaderCallbackCanceled(callback);
+		}
+
+	}
+
+	@Override
+	public void close() {
+		frameLoader.close();
+		thumbnailIndex = null;
+	}
+
+}
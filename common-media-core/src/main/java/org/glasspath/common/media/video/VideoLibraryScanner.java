@@ -0,0 +1,398 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.media.video;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+// Probes the videos in a directory in parallel (with a bounded pool), probed metadata is stored in a
+// VideoMetadataCache so files only have to be opened again when their size or modification time changed.
+// Directories can be watched, created and modified files are probed once they haven't changed for a while.
+public abstract class VideoLibraryScanner {
+
+	public static boolean TODO_DEBUG = false;
+
+	public static final String[] DEFAULT_EXTENSIONS = { "mp4", "m4v", "mov", "mkv", "avi", "ts", "h264" };
+	public static final long DEFAULT_SETTLE_TIME = 2000L;
+
+	private final VideoMetadataCache cache;
+	private final ExecutorService executor;
+	private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+	private String[] extensions = DEFAULT_EXTENSIONS;
+	private long settleTime = DEFAULT_SETTLE_TIME;
+	private WatchService watchService = null;
+	private Thread watchThread = null;
+	private final Map<WatchKey, Path> watchedDirectories = new HashMap<>();
+	private final Map<Path, Long> pendingFiles = new HashMap<>();
+	private boolean closed = false;
+
+	public VideoLibraryScanner(VideoMetadataCache cache) {
+		this(cache, Runtime.getRuntime().availableProcessors());
+	}
+
+	public VideoLibraryScanner(VideoMetadataCache cache, int threads) {
+		this.cache = cache;
+		this.executor = Executors.newFixedThreadPool(Math.max(1, threads), FrameBufferExecutors.createThreadFactory("VideoLibraryScanner-"));
+	}
+
+	// Returns a frame loader which is only used to probe a file (it's closed right after opening the file)
+	protected abstract FrameLoader createFrameLoader();
+
+	public VideoMetadataCache getCache() {
+		return cache;
+	}
+
+	public String[] getExtensions() {
+		return extensions;
+	}
+
+	public void setExtensions(String[] extensions) {
+		this.extensions = extensions;
+	}
+
+	public long getSettleTime() {
+		return settleTime;
+	}
+
+	public void setSettleTime(long settleTime) {
+		this.settleTime = settleTime;
+	}
+
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	public boolean isVideoFile(File file) {
+
+		String name = file.getName().toLowerCase(Locale.ROOT);
+		for (String extension : extensions) {
+			if (name.endsWith("." + extension)) {
+				return true;
+			}
+		}
+
+		return false;
+
+	}
+
+	// Returns the metadata of all videos in the directory (sorted by path), blocks until all files are probed
+	public List<VideoMetadata> scan(File directory) {
+
+		List<VideoMetadata> result = new ArrayList<>();
+
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return result;
+		}
+
+		long start = System.currentTimeMillis();
+		int probeCount = 0;
+
+		List<Future<VideoMetadata>> futures = new ArrayList<>();
+		for (File file : files) {
+
+			if (file.isFile() && isVideoFile(file)) {
+
+				VideoMetadata metadata = cache.get(file);
+				if (metadata != null) {
+					result.add(metadata);
+					fireVideoScanned(metadata);
+				} else {
+					futures.add(executor.submit(new Callable<VideoMetadata>() {
+
+						@Override
+						public VideoMetadata call() throws Exception {
+							return probe(file);
+						}
+					}));
+					probeCount++;
+				}
+
+			}
+
+		}
+
+		for (Future<VideoMetadata> future : futures) {
+			try {
+				VideoMetadata metadata = future.get();
+				if (metadata != null) {
+					result.add(metadata);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			} catch (ExecutionException e) {
+				e.printStackTrace();
+			}
+		}
+
+		saveCache();
+
+		result.sort(new Comparator<VideoMetadata>() {
+
+			@Override
+			public int compare(VideoMetadata a, VideoMetadata b) {
+				return a.getPath().compareTo(b.getPath());
+			}
+		});
+
+		if (TODO_DEBUG) {
+			System.out.println("VideoLibraryScanner, scanned " + result.size() + " videos (" + probeCount + " probed) in " + (System.currentTimeMillis() - start) + "ms");
+		}
+
+		return result;
+
+	}
+
+	// Opens the file to determine the metadata, the result is added to the cache and listeners are notified
+	protected VideoMetadata probe(File file) {
+
+		long fileSize = file.length();
+		long lastModified = file.lastModified();
+
+		FrameLoader frameLoader = createFrameLoader();
+
+		try {
+
+			DefaultVideo video = new DefaultVideo(file.getName(), file.getAbsolutePath(), frameLoader, true, 0, 0);
+			if (!frameLoader.isFileOpen()) {
+				return null;
+			}
+
+			if (video.getCreationDate() == null) {
+				try {
+					video.setCreationDate(Files.readAttributes(file.toPath(), BasicFileAttributes.class).creationTime().toMillis());
+				} catch (IOException e) {
+					video.setCreationDate(lastModified);
+				}
+			}
+
+			video.initTimestamp();
+
+			VideoMetadata metadata = new VideoMetadata(file.getAbsolutePath(), fileSize, lastModified, video);
+			cache.put(metadata);
+			fireVideoScanned(metadata);
+
+			return metadata;
+
+		} finally {
+			frameLoader.close();
+		}
+
+	}
+
+	private void saveCache() {
+		try {
+			cache.save();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	// Watches the directory for created, modified and deleted videos, fails once the scanner is closed
+	public synchronized void watch(File directory) throws IOException {
+
+		if (closed) {
+			throw new IOException("VideoLibraryScanner is closed");
+		}
+
+		if (watchService == null) {
+
+			watchService = FileSystems.getDefault().newWatchService();
+
+			watchThread = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					processWatchEvents();
+				}
+			}, "VideoLibraryScanner-Watcher");
+			watchThread.setDaemon(true);
+			watchThread.start();
+
+		}
+
+		Path path = directory.toPath().toAbsolutePath();
+		WatchKey key = path.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+		watchedDirectories.put(key, path);
+
+	}
+
+	private void processWatchEvents() {
+
+		WatchService watchService = this.watchService;
+
+		while (true) {
+
+			WatchKey key;
+			try {
+				key = watchService.poll(Math.max(100, settleTime / 2), TimeUnit.MILLISECONDS);
+			} catch (InterruptedException | ClosedWatchServiceException e) {
+				break;
+			}
+
+			if (key != null) {
+
+				Path directory;
+				synchronized (this) {
+					directory = watchedDirectories.get(key);
+				}
+
+				if (directory != null) {
+
+					for (WatchEvent<?> event : key.pollEvents()) {
+
+						if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+							continue;
+						}
+
+						Path path = directory.resolve((Path) event.context());
+						if (!isVideoFile(path.toFile())) {
+							continue;
+						}
+
+						if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+							pendingFiles.remove(path);
+							if (cache.remove(path.toString())) {
+								fireVideoRemoved(path.toString());
+							}
+						} else {
+							// Recordings are modified continuously while they are written, wait until the file settles
+							pendingFiles.put(path, System.currentTimeMillis());
+						}
+
+					}
+
+				}
+
+				if (!key.reset()) {
+					synchronized (this) {
+						watchedDirectories.remove(key);
+					}
+				}
+
+			}
+
+			long now = System.currentTimeMillis();
+			Iterator<Map.Entry<Path, Long>> iterator = pendingFiles.entrySet().iterator();
+			while (iterator.hasNext()) {
+
+				Map.Entry<Path, Long> entry = iterator.next();
+				if (now - entry.getValue() >= settleTime) {
+
+					iterator.remove();
+
+					File file = entry.getKey().toFile();
+					if (file.isFile() && cache.get(file) == null) {
+						try {
+							executor.execute(new Runnable() {
+
+								@Override
+								public void run() {
+									probe(file);
+									saveCache();
+								}
+							});
+						} catch (RejectedExecutionException e) {
+							return; // Closed while the events were processed
+						}
+					}
+
+				}
+
+			}
+
+		}
+
+	}
+
+	public synchronized void close() {
+
+		closed = true;
+
+		if (watchService != null) {
+			try {
+				watchService.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			watchService = null;
+			watchThread = null;
+			watchedDirectories.clear();
+		}
+
+		executor.shutdownNow();
+
+		saveCache();
+
+	}
+
+	private void fireVideoScanned(VideoMetadata metadata) {
+		for (Listener listener : listeners) {
+			listener.videoScanned(metadata);
+		}
+	}
+
+	private void fireVideoRemoved(String path) {
+		for (Listener listener : listeners) {
+			listener.videoRemoved(path);
+		}
+	}
+
+	public static interface Listener {
+
+		public void videoScanned(VideoMetadata metadata);
+
+		public void videoRemoved(String path);
+
+	}
+
+}
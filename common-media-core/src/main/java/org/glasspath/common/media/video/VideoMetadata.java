@@ -0,0 +1,129 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.media.video;
+
+// Probed properties of a video file, the size and modification time of the file are used to detect changes
+public class VideoMetadata {
+
+	private final String path;
+	private final long fileSize;
+	private final long lastModified;
+	private int width = 0;
+	private int height = 0;
+	private long duration = 0L;
+	private Double frameRate = null;
+	private Long creationDate = null;
+	private long timestamp = 0L;
+
+	public VideoMetadata(String path, long fileSize, long lastModified) {
+		this.path = path;
+		this.fileSize = fileSize;
+		this.lastModified = lastModified;
+	}
+
+	public VideoMetadata(String path, long fileSize, long lastModified, DefaultVideo video) {
+		this(path, fileSize, lastModified);
+		width = video.getWidth();
+		height = video.getHeight();
+		duration = video.getDuration();
+		frameRate = video.getFrameRate();
+		creationDate = video.getCreationDate();
+		timestamp = video.getTimestamp();
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public long getFileSize() {
+		return fileSize;
+	}
+
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	public boolean isValid(long fileSize, long lastModified) {
+		return this.fileSize == fileSize && this.lastModified == lastModified;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public void setWidth(int width) {
+		this.width = width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public void setHeight(int height) {
+		this.height = height;
+	}
+
+	public long getDuration() {
+		return duration;
+	}
+
+	public void setDuration(long duration) {
+		this.duration = duration;
+	}
+
+	public Double getFrameRate() {
+		return frameRate;
+	}
+
+	public void setFrameRate(Double frameRate) {
+		this.frameRate = frameRate;
+	}
+
+	public Long getCreationDate() {
+		return creationDate;
+	}
+
+	public void setCreationDate(Long creationDate) {
+		this.creationDate = creationDate;
+	}
+
+	// Start timestamp as determined by DefaultVideo.initTimestamp()
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public void setTimestamp(long timestamp) {
+		this.timestamp = timestamp;
+	}
+
+	// Applies the metadata to a video which was created without opening the file
+	public void apply(DefaultVideo video) {
+		video.setWidth(width);
+		video.setHeight(height);
+		video.setDuration(duration);
+		video.setFrameRate(frameRate);
+		video.setCreationDate(creationDate);
+		video.setTimestamp(timestamp);
+	}
+
+}
@@ -0,0 +1,165 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.media.video;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Thread safe store of probed video metadata, persisted in a compact binary file
+public class VideoMetadataCache {
+
+	private static final int MAGIC = 0x47505643; // GPVC
+	private static final int VERSION = 1;
+	private static final long NO_VALUE = Long.MIN_VALUE;
+
+	private final File file;
+	private final Map<String, VideoMetadata> entries = new HashMap<>();
+	private boolean modified = false;
+
+	// If file is null the cache is only kept in memory
+	public VideoMetadataCache(File file) {
+		this.file = file;
+		if (file != null && file.isFile()) {
+			load();
+		}
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	// Returns the cached metadata if the size and modification time of the file still match
+	public synchronized VideoMetadata get(File videoFile) {
+		VideoMetadata metadata = entries.get(videoFile.getAbsolutePath());
+		if (metadata != null && metadata.isValid(videoFile.length(), videoFile.lastModified())) {
+			return metadata;
+		} else {
+			return null;
+		}
+	}
+
+	public synchronized void put(VideoMetadata metadata) {
+		entries.put(metadata.getPath(), metadata);
+		modified = true;
+	}
+
+	public synchronized boolean remove(String path) {
+		if (entries.remove(path) != null) {
+			modified = true;
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized List<VideoMetadata> getEntries() {
+		return new ArrayList<>(entries.values());
+	}
+
+	private synchronized void load() {
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				return;
+			}
+
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+
+				VideoMetadata metadata = new VideoMetadata(in.readUTF(), in.readLong(), in.readLong());
+				metadata.setWidth(in.readInt());
+				metadata.setHeight(in.readInt());
+				metadata.setDuration(in.readLong());
+				double frameRate = in.readDouble();
+				metadata.setFrameRate(Double.isNaN(frameRate) ? null : frameRate);
+				long creationDate = in.readLong();
+				metadata.setCreationDate(creationDate == NO_VALUE ? null : creationDate);
+				metadata.setTimestamp(in.readLong());
+
+				entries.put(metadata.getPath(), metadata);
+
+			}
+
+		} catch (IOException e) {
+			e.printStackTrace();
+			entries.clear();
+		}
+
+	}
+
+	public synchronized void save() throws IOException {
+
+		if (file == null || !modified) {
+			return;
+		}
+
+		File tempFile = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(entries.size());
+
+			for (VideoMetadata metadata : entries.values()) {
+				out.writeUTF(metadata.getPath());
+				out.writeLong(metadata.getFileSize());
+				out.writeLong(metadata.getLastModified());
+				out.writeInt(metadata.getWidth());
+				out.writeInt(metadata.getHeight());
+				out.writeLong(metadata.getDuration());
+				out.writeDouble(metadata.getFrameRate() != null ? metadata.getFrameRate() : Double.NaN);
+				out.writeLong(metadata.getCreationDate() != null ? metadata.getCreationDate() : NO_VALUE);
+				out.writeLong(metadata.getTimestamp());
+			}
+
+		}
+
+		try {
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+
+		modified = false;
+
+	}
+
+}
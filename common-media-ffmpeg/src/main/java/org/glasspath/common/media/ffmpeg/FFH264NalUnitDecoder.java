@@ -41,12 +41,15 @@ import org.bytedeco.javacpp.PointerPointer;
 import org.bytedeco.javacv.FFmpegFrameGrabber;
 import org.bytedeco.javacv.Frame;
 import org.bytedeco.javacv.FrameRecorder.Exception;
+import org.glasspath.common.media.h264.H264GatherList;
 import org.glasspath.common.media.video.VideoConfiguration;
 
 public class FFH264NalUnitDecoder {
 
 	public static boolean TODO_DEBUG = false;
 
+	private static final byte[] PACKET_PADDING = new byte[avcodec.AV_INPUT_BUFFER_PADDING_SIZE];
+
 	static {
 		FFmpegUtils.setup();
 	}
@@ -60,6 +63,7 @@ public class FFH264NalUnitDecoder {
 	}
 
 	private final VideoConfiguration videoConfiguration;
+	private final boolean hevc;
 	private int imageWidth = 1280;
 	private int imageHeight = 720;
 	private AVCodecContext video_c;
@@ -71,13 +75,26 @@ public class FFH264NalUnitDecoder {
 	private AVPacket pkt;
 	private SwsContext img_convert_ctx;
 	private Frame frame;
+	private final H264GatherList gatherList = new H264GatherList(1);
+	private BytePointer packetBuffer = null;
 
 	public FFH264NalUnitDecoder() {
 		this(VideoConfiguration.FF_H264);
 	}
 
 	public FFH264NalUnitDecoder(VideoConfiguration videoConfiguration) {
+		this(videoConfiguration, false);
+	}
+
+	// The video configuration selects the decoder implementation, hevc selects the codec (the
+	// hevc_cuvid and hevc_qsv decoders are used for FF_H264_CUVID and FF_H264_QSV)
+	public FFH264NalUnitDecoder(VideoConfiguration videoConfiguration, boolean hevc) {
 		this.videoConfiguration = videoConfiguration;
+		this.hevc = hevc;
+	}
+
+	public boolean isHevc() {
+		return hevc;
 	}
 
 	public int getImageWidth() {
@@ -109,11 +126,11 @@ public class FFH264NalUnitDecoder {
 
 		AVCodec avCodec;
 		if (videoConfiguration == VideoConfiguration.FF_H264_CUVID) {
-			avCodec = avcodec.avcodec_find_decoder_by_name("h264_cuvid");
+			avCodec = avcodec.avcodec_find_decoder_by_name(hevc ? "hevc_cuvid" : "h264_cuvid");
 		} else if (videoConfiguration == VideoConfiguration.FF_H264_QSV) {
-			avCodec = avcodec.avcodec_find_decoder_by_name("h264_qsv");
+			avCodec = avcodec.avcodec_find_decoder_by_name(hevc ? "hevc_qsv" : "h264_qsv");
 		} else {
-			avCodec = avcodec.avcodec_find_decoder(avcodec.AV_CODEC_ID_H264);
+			avCodec = avcodec.avcodec_find_decoder(hevc ? avcodec.AV_CODEC_ID_HEVC : avcodec.AV_CODEC_ID_H264);
 		}
 		// AVCodec avCodec = avcodec.avcodec_find_decoder_by_name("libopenh264");
 
@@ -317,6 +334,11 @@ public class FFH264NalUnitDecoder {
 			img_convert_ctx = null;
 		}
 
+		if (packetBuffer != null) {
+			packetBuffer.close();
+			packetBuffer = null;
+		}
+
 		frame = null;
 
 	}
@@ -371,6 +393,14 @@ public class FFH264NalUnitDecoder {
 	}
 
 	public boolean decodeNalUnit(byte[] data, long timestamp, boolean processImage) {
+		gatherList.clear();
+		gatherList.add(data, 0, data.length);
+		return decodeNalUnit(gatherList, timestamp, processImage);
+	}
+
+	// Decodes the segments as one packet (a complete access unit, optionally preceded by parameter sets),
+	// the segments are copied directly into a native packet buffer that is reused for the next packets
+	public boolean decodeNalUnit(H264GatherList data, long timestamp, boolean processImage) {
 
 		boolean nalUnitDecoded = false;
 
@@ -383,18 +413,28 @@ public class FFH264NalUnitDecoder {
 			pkt.stream_index(-1);
 		}
 
-		BytePointer bytePointer = new BytePointer(data);
-		bytePointer.capacity(data.length);
+		int size = data.getLength();
+		if (packetBuffer == null || packetBuffer.capacity() < size + avcodec.AV_INPUT_BUFFER_PADDING_SIZE) {
+			if (packetBuffer != null) {
+				packetBuffer.close();
+			}
+			packetBuffer = new BytePointer(size + size / 2 + avcodec.AV_INPUT_BUFFER_PADDING_SIZE);
+		}
 
-		// BytePointer bytePointer = new BytePointer(65_535 * 4);
-		// bytePointer.position(0);
-		// bytePointer.put(data);
-		// bytePointer.limit(data.length);
+		long position = 0;
+		for (int i = 0; i < data.getSegmentCount(); i++) {
+			packetBuffer.position(position).put(data.getArray(i), data.getOffset(i), data.getLength(i));
+			position += data.getLength(i);
+		}
+
+		// The decoder can read past the end of the packet, the padding has to be zeroed
+		packetBuffer.position(position).put(PACKET_PADDING, 0, PACKET_PADDING.length);
+		packetBuffer.position(0);
 
 		pkt.pts(avutil.AV_NOPTS_VALUE);
 		pkt.dts(avutil.AV_NOPTS_VALUE);
-		pkt.data(bytePointer);
-		pkt.size(data.length);
+		pkt.data(packetBuffer);
+		pkt.size(size);
 		pkt.pos(-1);
 
 		int result = avcodec.avcodec_send_packet(video_c, pkt);
@@ -442,8 +482,6 @@ public class FFH264NalUnitDecoder {
 
 		}
 
-		bytePointer.close();
-
 		return nalUnitDecoded;
 
 	}
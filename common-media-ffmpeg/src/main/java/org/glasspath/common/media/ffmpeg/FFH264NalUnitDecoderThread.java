@@ -27,10 +27,16 @@ import java.util.List;
 
 import org.bytedeco.javacv.Frame;
 import org.bytedeco.javacv.FrameRecorder.Exception;
+import org.glasspath.common.media.h264.H264AccessUnit;
+import org.glasspath.common.media.h264.H264AccessUnitAssembler;
+import org.glasspath.common.media.h264.H264GatherList;
 import org.glasspath.common.media.h264.H264NalUnit;
+import org.glasspath.common.media.h264.H264SequenceParameterSet;
+import org.glasspath.common.media.h265.H265SequenceParameterSet;
 import org.glasspath.common.media.player.IVideoPlayerListener.VideoPlayerStatistics;
 import org.glasspath.common.media.rtsp.H264ParameterSets;
 import org.glasspath.common.media.video.Resolution;
+import org.glasspath.common.media.video.VideoConfiguration;
 
 public abstract class FFH264NalUnitDecoderThread {
 
@@ -48,9 +54,15 @@ public abstract class FFH264NalUnitDecoderThread {
 	private int skipFrames = 0;
 	private List<H264NalUnit> nalUnitQueue = new ArrayList<>(INITIAL_NAL_UNIT_QUEUE_SIZE);
 	private List<H264NalUnit> nalUnitQueueCopy = null;
+	private H264NalUnit vps = null;
 	private H264NalUnit sps = null;
 	private H264NalUnit pps = null;
 	private H264NalUnit iFrame = null;
+	private boolean hevc = false;
+	private List<H264NalUnit> releaseQueue = new ArrayList<>();
+	private final H264AccessUnitAssembler accessUnitAssembler = new H264AccessUnitAssembler();
+	private final List<H264AccessUnit> accessUnits = new ArrayList<>();
+	private final H264GatherList gatherList = new H264GatherList();
 	private int skippedFrames = 0;
 	private int noFrameCount = 0;
 	private int fpsFrameCount = 0;
@@ -64,7 +76,11 @@ public abstract class FFH264NalUnitDecoderThread {
 			@Override
 			public void run() {
 
-				createDecoder();
+				// Without a resolution the decoder is created when the SPS is known, so
+				// the output buffers are allocated with the right size from the start
+				if (resolution != null) {
+					createDecoder();
+				}
 
 				while (!exit) {
 
@@ -72,58 +88,90 @@ public abstract class FFH264NalUnitDecoderThread {
 
 						copyQueue();
 
-						if (sps == null && pps == null && parameterSets != null && parameterSets.sequenceParameterSet != null && parameterSets.pictureParameterSet != null) {
-							sps = parameterSets.sequenceParameterSet;
-							pps = parameterSets.pictureParameterSet;
+						if (sps == null && pps == null && parameterSets != null && parameterSets.sequenceParameterSet != null && parameterSets.pictureParameterSet != null && (!parameterSets.isHevc() || parameterSets.videoParameterSet != null)) {
+							if (parameterSets.isHevc()) {
+								vps = parameterSets.videoParameterSet.retain();
+							}
+							sps = parameterSets.sequenceParameterSet.retain();
+							pps = parameterSets.pictureParameterSet.retain();
 						}
 
+						// Slices of the same picture are grouped so the decoder receives one packet per picture
+						accessUnits.clear();
 						for (H264NalUnit nalUnit : nalUnitQueueCopy) {
+							accessUnitAssembler.add(nalUnit, accessUnits);
+						}
 
-							boolean frameAvailable = false;
+						for (H264AccessUnit accessUnit : accessUnits) {
 
-							if (sps == null) {
+							boolean frameAvailable = false;
 
-								if (nalUnit.isSequenceParameterSet()) {
-									sps = nalUnit;
+							// Parameter sets are part of the access unit of the picture that follows them (HEVC also needs the VPS)
+							if (sps == null || pps == null || (vps == null && accessUnit.isHevc())) {
+								for (H264NalUnit nalUnit : accessUnit.getNalUnits()) {
+									if (nalUnit.isVideoParameterSet()) {
+										if (vps == null) {
+											vps = nalUnit.retain();
+										}
+									} else if (sps == null) {
+										if (nalUnit.isSequenceParameterSet()) {
+											sps = nalUnit.retain();
+										}
+									} else if (pps == null) {
+										if (nalUnit.isPictureParameterSet()) {
+											pps = nalUnit.retain();
+										}
+									}
 								}
+							}
 
-							} else if (pps == null) {
+							if (iFrame == null) {
 
-								if (nalUnit.isPictureParameterSet()) {
-									pps = nalUnit;
-								}
+								if (sps != null && pps != null && (vps != null || !accessUnit.isHevc()) && accessUnit.isIFrame()) {
 
-							} else if (iFrame == null) {
+									// Only used as 'key frame received' flag after this, the access unit is released below
+									iFrame = accessUnit;
 
-								if (nalUnit.isIFrame()) {
+									// Parameter sets are prepended without concatenating arrays
+									gatherList.clear();
+									if (vps != null) {
+										gatherList.add(vps);
+									}
+									gatherList.add(sps);
+									gatherList.add(pps);
+									gatherList.add(iFrame);
 
-									iFrame = nalUnit;
+									// The codec is known once the first key frame is received, a decoder created
+									// upfront (with the resolution) is replaced if the stream is HEVC
+									hevc = accessUnit.isHevc();
 
-									byte[] bytes = new byte[sps.bytes.length + pps.bytes.length + iFrame.bytes.length];
-									System.arraycopy(sps.bytes, 0, bytes, 0, sps.bytes.length);
-									System.arraycopy(pps.bytes, 0, bytes, sps.bytes.length, pps.bytes.length);
-									System.arraycopy(iFrame.bytes, 0, bytes, sps.bytes.length + pps.bytes.length, iFrame.bytes.length);
+									if (decoder == null || decoder.isHevc() != hevc || (resolution == null && !isDecoderSizeValid())) {
+										createDecoder();
+									}
 
 									decoder.flush();
-									frameAvailable = decoder.decodeNalUnit(bytes, iFrame.timestamp, true);
+									frameAvailable = decoder.decodeNalUnit(gatherList, iFrame.timestamp, true);
 
 									int retries = 0;
 									while (!frameAvailable && retries < MAX_DECODE_HEADER_RETRIES) {
 										if (TODO_DEBUG) {
 											System.err.println("FFH264NalUnitDecoderThread, performing decode header retry, sending sps + pps + iFrame");
 										}
-										frameAvailable = decoder.decodeNalUnit(bytes, iFrame.timestamp, true);
+										frameAvailable = decoder.decodeNalUnit(gatherList, iFrame.timestamp, true);
 										retries++;
 									}
 
 								}
 
-							} else if (nalUnit.isFrame()) {
+							} else if (accessUnit.isFrame()) {
+
+								gatherList.clear();
+								gatherList.add(accessUnit);
 
 								if (skippedFrames >= skipFrames) {
-									frameAvailable = decoder.decodeNalUnit(nalUnit.bytes, nalUnit.timestamp, true);
+									frameAvailable = decoder.decodeNalUnit(gatherList, accessUnit.timestamp, true);
 								} else {
-									decoder.decodeNalUnit(nalUnit.bytes, nalUnit.timestamp, false);
+									decoder.decodeNalUnit(gatherList, accessUnit.timestamp, false);
 									skippedFrames++;
 								}
 
@@ -131,7 +179,7 @@ public abstract class FFH264NalUnitDecoderThread {
 
 							if (frameAvailable) {
 
-								frameDecoded(decoder.getFrame(), nalUnit.timestamp);
+								frameDecoded(decoder.getFrame(), accessUnit.timestamp);
 
 								skippedFrames = 0;
 								noFrameCount = 0;
@@ -163,6 +211,9 @@ public abstract class FFH264NalUnitDecoderThread {
 
 							}
 
+							// Pooled NAL units are returned once the access unit is decoded
+							accessUnit.release();
+
 						}
 
 					} else {
@@ -181,6 +232,8 @@ public abstract class FFH264NalUnitDecoderThread {
 					System.out.println("FFH264NalUnitDecoderThread, exiting nal unit decoder thread");
 				}
 
+				releaseNalUnits();
+
 				if (decoder != null) {
 					try {
 						decoder.release();
@@ -203,17 +256,35 @@ public abstract class FFH264NalUnitDecoderThread {
 					}
 				}
 
-				decoder = new FFH264NalUnitDecoder();
+				decoder = new FFH264NalUnitDecoder(VideoConfiguration.FF_H264, hevc);
 
+				H264SequenceParameterSet spsInfo;
+				H265SequenceParameterSet hevcSpsInfo;
 				if (resolution != null) {
 					decoder.setImageWidth(resolution.getWidth());
 					decoder.setImageHeight(resolution.getHeight());
+				} else if (hevc && (hevcSpsInfo = H265SequenceParameterSet.parse(sps)) != null) {
+					decoder.setImageWidth(hevcSpsInfo.getWidth());
+					decoder.setImageHeight(hevcSpsInfo.getHeight());
+				} else if (!hevc && (spsInfo = H264SequenceParameterSet.parse(sps)) != null) {
+					decoder.setImageWidth(spsInfo.getWidth());
+					decoder.setImageHeight(spsInfo.getHeight());
 				}
 
 				decoder.start();
 
 			}
 
+			private boolean isDecoderSizeValid() {
+				if (hevc) {
+					H265SequenceParameterSet hevcSpsInfo = H265SequenceParameterSet.parse(sps);
+					return hevcSpsInfo == null || (hevcSpsInfo.getWidth() == decoder.getImageWidth() && hevcSpsInfo.getHeight() == decoder.getImageHeight());
+				} else {
+					H264SequenceParameterSet spsInfo = H264SequenceParameterSet.parse(sps);
+					return spsInfo == null || (spsInfo.getWidth() == decoder.getImageWidth() && spsInfo.getHeight() == decoder.getImageHeight());
+				}
+			}
+
 		});
 
 	}
@@ -242,17 +313,63 @@ public abstract class FFH264NalUnitDecoderThread {
 		nalUnitDecoderThread.start();
 	}
 
+	// Pooled NAL units are retained until they are decoded, the caller keeps its own reference
 	public synchronized void addNalUnit(H264NalUnit nalUnit) {
-		nalUnitQueue.add(nalUnit);
+		H264NalUnit retainedNalUnit = nalUnit.retain();
+		if (retainedNalUnit != null) {
+			nalUnitQueue.add(retainedNalUnit);
+		} else if (TODO_DEBUG) {
+			System.err.println("FFH264NalUnitDecoderThread, nal unit was already released");
+		}
 	}
 
 	private synchronized void copyQueue() {
+
 		nalUnitQueueCopy = nalUnitQueue;
 		nalUnitQueue = new ArrayList<>(INITIAL_NAL_UNIT_QUEUE_SIZE);
+
+		// Parameter sets dropped by reset() are released here, on the decoder thread, which is the only thread using them
+		for (H264NalUnit nalUnit : releaseQueue) {
+			nalUnit.release();
+		}
+		releaseQueue.clear();
+
+	}
+
+	private synchronized void releaseNalUnits() {
+
+		for (H264NalUnit nalUnit : nalUnitQueue) {
+			nalUnit.release();
+		}
+		nalUnitQueue.clear();
+
+		H264AccessUnit accessUnit = accessUnitAssembler.flush();
+		if (accessUnit != null) {
+			accessUnit.release();
+		}
+
+		reset();
+
+		for (H264NalUnit nalUnit : releaseQueue) {
+			nalUnit.release();
+		}
+		releaseQueue.clear();
+
 	}
 
 	public synchronized void reset() {
 
+		if (vps != null) {
+			releaseQueue.add(vps);
+		}
+		if (sps != null) {
+			releaseQueue.add(sps);
+		}
+		if (pps != null) {
+			releaseQueue.add(pps);
+		}
+
+		vps = null;
 		sps = null;
 		pps = null;
 		iFrame = null;
@@ -0,0 +1,183 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.media.ffmpeg;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avformat.AVFormatContext;
+import org.bytedeco.ffmpeg.avutil.AVRational;
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.glasspath.common.media.video.FrameBufferExecutors;
+import org.glasspath.common.media.video.KeyFrameIndex;
+
+public class FFKeyFrameIndex {
+
+	public static boolean TODO_DEBUG = false;
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private static Executor executor = null;
+
+	private FFKeyFrameIndex() {
+
+	}
+
+	// Creating an index reads the whole file, indexes are created one at a time on a background thread
+	public static synchronized Executor getExecutor() {
+		if (executor == null) {
+			executor = Executors.newSingleThreadExecutor(FrameBufferExecutors.createThreadFactory("FFKeyFrameIndex-"));
+		}
+		return executor;
+	}
+
+	// Returns the stored index if it's still valid, or null (doesn't create the index), if indexDirectory
+	// is null the default directory is used (see KeyFrameIndex.getDefaultIndexDirectory())
+	public static KeyFrameIndex readKeyFrameIndex(File sourceFile, File indexDirectory) {
+		return KeyFrameIndex.read(KeyFrameIndex.getIndexFile(sourceFile, indexDirectory), sourceFile);
+	}
+
+	// Sets the stored index on the reader, if there is no valid index it is created on the background thread
+	// and set on the reader when it's ready (the reader seeks without index until then)
+	public static void loadKeyFrameIndex(final File sourceFile, final File indexDirectory, final IFFVideoFrameReader reader) {
+
+		KeyFrameIndex keyFrameIndex = readKeyFrameIndex(sourceFile, indexDirectory);
+		if (keyFrameIndex != null) {
+			reader.setKeyFrameIndex(keyFrameIndex);
+		} else {
+
+			getExecutor().execute(new Runnable() {
+
+				@Override
+				public void run() {
+					KeyFrameIndex keyFrameIndex = getKeyFrameIndex(sourceFile, indexDirectory);
+					if (keyFrameIndex != null) {
+						reader.setKeyFrameIndex(keyFrameIndex);
+					}
+				}
+			});
+
+		}
+
+	}
+
+	// Returns the stored index if it's still valid, otherwise the index is created and stored (blocks
+	// until the whole file is read, see getExecutor())
+	public static KeyFrameIndex getKeyFrameIndex(File sourceFile, File indexDirectory) {
+
+		File indexFile = KeyFrameIndex.getIndexFile(sourceFile, indexDirectory);
+
+		KeyFrameIndex keyFrameIndex = KeyFrameIndex.read(indexFile, sourceFile);
+		if (keyFrameIndex == null) {
+
+			keyFrameIndex = createKeyFrameIndex(sourceFile.getPath());
+			if (keyFrameIndex != null) {
+				try {
+					keyFrameIndex.write(indexFile, sourceFile);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+
+		}
+
+		return keyFrameIndex;
+
+	}
+
+	// Reads all packets of the file without decoding them, key frame timestamps are stored
+	// in microseconds relative to the start of the file (like setVideoTimestamp() expects)
+	public static KeyFrameIndex createKeyFrameIndex(String path) {
+
+		long start = System.currentTimeMillis();
+
+		FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(path);
+
+		try {
+
+			grabber.start();
+
+			AVFormatContext formatContext = grabber.getFormatContext();
+			int videoStream = grabber.getVideoStream();
+			if (videoStream < 0) {
+				return null;
+			}
+
+			AVRational timeBase = formatContext.streams(videoStream).time_base();
+			long startTime = formatContext.start_time() != avutil.AV_NOPTS_VALUE ? formatContext.start_time() : 0L;
+
+			long[] timestamps = new long[INITIAL_CAPACITY];
+			long[] positions = new long[INITIAL_CAPACITY];
+			int count = 0;
+
+			AVPacket packet;
+			while ((packet = grabber.grabPacket()) != null) {
+
+				if (packet.stream_index() == videoStream && (packet.flags() & avcodec.AV_PKT_FLAG_KEY) != 0) {
+
+					long pts = packet.pts() != avutil.AV_NOPTS_VALUE ? packet.pts() : packet.dts();
+					if (pts != avutil.AV_NOPTS_VALUE) {
+
+						if (count == timestamps.length) {
+							timestamps = Arrays.copyOf(timestamps, count * 2);
+							positions = Arrays.copyOf(positions, count * 2);
+						}
+
+						timestamps[count] = ((pts * 1000000L * timeBase.num()) / timeBase.den()) - startTime;
+						positions[count] = packet.pos();
+						count++;
+
+					}
+
+				}
+
+				avcodec.av_packet_unref(packet);
+
+			}
+
+			if (TODO_DEBUG) {
+				System.out.println("FFKeyFrameIndex, " + count + " key frames found in " + (System.currentTimeMillis() - start) + "ms for " + path);
+			}
+
+			return new KeyFrameIndex(Arrays.copyOf(timestamps, count), Arrays.copyOf(positions, count));
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			return null;
+		} finally {
+			try {
+				grabber.close();
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+
+	}
+
+}
@@ -28,6 +28,10 @@ import java.nio.ByteBuffer;
 
 import org.bytedeco.javacv.Frame;
 import org.bytedeco.javacv.Java2DFrameConverter;
+import org.glasspath.common.media.image.BufferedImagePool;
+import org.glasspath.common.media.image.PixelFormatConverter;
+import org.glasspath.common.media.video.FrameHandle;
+import org.glasspath.common.media.video.PlanarFrame;
 
 public class FFVideoFrameConverter {
 
@@ -35,6 +39,7 @@ public class FFVideoFrameConverter {
 
 	private boolean optimized = true;
 	private DefaultFrameConverter defaultConverter = null;
+	private BufferedImagePool imagePool = null;
 
 	public FFVideoFrameConverter() {
 		this(true);
@@ -52,18 +57,43 @@ public class FFVideoFrameConverter {
 		this.optimized = optimized;
 	}
 
+	public BufferedImagePool getImagePool() {
+		return imagePool;
+	}
+
+	public void setImagePool(BufferedImagePool imagePool) {
+		this.imagePool = imagePool;
+	}
+
 	public BufferedImage createBufferedImage(Frame frame) {
-		return createBufferedImage(frame, null);
+		return createBufferedImage(frame, null, imagePool);
 	}
 
 	public BufferedImage createBufferedImage(Frame frame, BufferedImage image) {
+		return createBufferedImage(frame, image, imagePool);
+	}
+
+	// If a pool is specified new images are acquired from it, an image passed to this method that
+	// doesn't match the size or type of the frame (after a resolution change for example) is released
+	public BufferedImage createBufferedImage(Frame frame, BufferedImage image, BufferedImagePool imagePool) {
 
 		if (optimized) {
 
 			try {
 
+				int imageType = Java2DFrameConverter.getBufferedImageType(frame);
+
+				if (image != null && imagePool != null && (image.getWidth() != frame.imageWidth || image.getHeight() != frame.imageHeight || image.getType() != imageType)) {
+					imagePool.release(image);
+					image = null;
+				}
+
 				if (image == null) {
-					image = new BufferedImage(frame.imageWidth, frame.imageHeight, Java2DFrameConverter.getBufferedImageType(frame));
+					if (imagePool != null) {
+						image = imagePool.acquire(frame.imageWidth, frame.imageHeight, imageType);
+					} else {
+						image = new BufferedImage(frame.imageWidth, frame.imageHeight, imageType);
+					}
 				}
 
 				byte[] bufferPixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
@@ -72,18 +102,22 @@ public class FFVideoFrameConverter {
 				if (bufferPixels.length == buffer.limit()) {
 					buffer.get(bufferPixels);
 					return image;
+				} else if (imageType == BufferedImage.TYPE_3BYTE_BGR && frame.imageChannels == 3 && frame.imageStride >= frame.imageWidth * 3) {
+					// Rows are padded, copy them one by one instead of falling back to the default converter
+					PixelFormatConverter.bgrToBgr(buffer, frame.imageStride, frame.imageWidth, frame.imageHeight, bufferPixels, frame.imageWidth * 3);
+					return image;
 				} else {
 					if (TODO_DEBUG) {
 						System.err.println("VideoFrameConverter (optimized), buffer lengths don't match.. (" + bufferPixels.length + " != " + buffer.limit() + ")");
 					}
 					optimized = false;
-					return createBufferedImage(frame);
+					return createBufferedImage(frame, null, imagePool);
 				}
 
 			} catch (Exception e) {
 				e.printStackTrace();
 				optimized = false;
-				return createBufferedImage(frame);
+				return createBufferedImage(frame, null, imagePool);
 			}
 
 		} else {
@@ -106,6 +140,52 @@ public class FFVideoFrameConverter {
 
 	}
 
+	// Wraps the image buffer of the frame without copying, the returned frame is only valid until
+	// the frame grabber reuses the frame, returns null if the frame is not an 8 bit BGR image
+	public PlanarFrame createPlanarFrame(Frame frame, long timestamp) {
+
+		if (frame != null && frame.image != null && frame.image.length > 0 && frame.imageDepth == Frame.DEPTH_UBYTE && frame.imageChannels == 3 && frame.image[0] instanceof ByteBuffer) {
+
+			ByteBuffer buffer = ((ByteBuffer) frame.image[0]).duplicate();
+			buffer.clear();
+
+			PlanarFrame planarFrame = new PlanarFrame(frame.imageWidth, frame.imageHeight, PlanarFrame.PIXEL_FORMAT_BGR24, new ByteBuffer[] { buffer.slice() }, new int[] { frame.imageStride });
+			planarFrame.setTimestamp(timestamp);
+			planarFrame.setTimebase(PlanarFrame.TIMEBASE_MICROSECONDS);
+
+			return planarFrame;
+
+		} else {
+			return null;
+		}
+
+	}
+
+	// Wraps the image buffer of the shared frame without copying, the returned handle keeps a reference
+	// to the frame until it is released, returns null if the frame is not an 8 bit BGR image
+	public FrameHandle<PlanarFrame> createPlanarFrame(FrameHandle<Frame> frameHandle, long timestamp) {
+
+		FrameHandle<Frame> source = frameHandle.retain();
+		if (source == null) {
+			return null;
+		}
+
+		PlanarFrame planarFrame = createPlanarFrame(source.get(), timestamp);
+		if (planarFrame == null) {
+			source.release();
+			return null;
+		}
+
+		return new FrameHandle<PlanarFrame>(planarFrame, new FrameHandle.Recycler<PlanarFrame>() {
+
+			@Override
+			public void recycle(PlanarFrame frame) {
+				source.release();
+			}
+		});
+
+	}
+
 	public static class DefaultFrameConverter extends Java2DFrameConverter {
 
 		public DefaultFrameConverter() {
@@ -23,14 +23,23 @@
 package org.glasspath.common.media.ffmpeg;
 
 import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.bytedeco.javacv.FrameGrabber.Exception;
 import org.glasspath.common.media.video.DefaultVideo;
 import org.glasspath.common.media.video.DefaultVideo.MetadataTimestamp;
 import org.glasspath.common.media.video.Frame;
+import org.glasspath.common.media.video.FrameBufferExecutors;
 import org.glasspath.common.media.video.FrameLoader;
 import org.glasspath.common.media.video.FrameLoaderCallback;
+import org.glasspath.common.media.video.KeyFrameIndex;
 
 public class FFVideoFrameLoader extends FrameLoader {
 
@@ -40,15 +49,30 @@ public class FFVideoFrameLoader extends FrameLoader {
 		FFmpegUtils.setup();
 	}
 
+	private static Executor sharedExecutor = null;
+
 	private final FFVideoFrameConverter frameConverter;
-	private IFFVideoFrameReader frameReader = null;
+	private volatile IFFVideoFrameReader frameReader = null;
 	private boolean fileOpen = false;
 	private int maxSeekCount = -1;
+	private int parallelism = 1;
+	private boolean ordered = true;
+	private Executor executor = null;
+	private boolean keyFrameIndexEnabled = false;
+	private File keyFrameIndexDirectory = null;
+	private final List<SegmentReader> segmentReaders = new ArrayList<>();
 
 	public FFVideoFrameLoader() {
 		frameConverter = new FFVideoFrameConverter();
 	}
 
+	private static synchronized Executor getSharedExecutor() {
+		if (sharedExecutor == null) {
+			sharedExecutor = Executors.newCachedThreadPool(FrameBufferExecutors.createThreadFactory("FFVideoFrameLoader-"));
+		}
+		return sharedExecutor;
+	}
+
 	public int getMaxSeekCount() {
 		return maxSeekCount;
 	}
@@ -60,6 +84,61 @@ public class FFVideoFrameLoader extends FrameLoader {
 		}
 	}
 
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	// When larger than 1 loadFrames() splits the requested range in segments which are
+	// decoded in parallel, every segment uses its own reader (the number of readers is
+	// limited to the parallelism), close() releases the readers. Segments have to start
+	// at a key frame, so frames are only loaded in parallel when the key frame index is
+	// available (see setKeyFrameIndexEnabled()), they are loaded sequentially otherwise
+	public synchronized void setParallelism(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	public boolean isOrdered() {
+		return ordered;
+	}
+
+	// In parallel mode frames are delivered as soon as they are decoded when ordered is false
+	public void setOrdered(boolean ordered) {
+		this.ordered = ordered;
+	}
+
+	public boolean isKeyFrameIndexEnabled() {
+		return keyFrameIndexEnabled;
+	}
+
+	// When enabled the key frame index is loaded when the file is opened, or created in the background if
+	// it doesn't exist yet (see FFKeyFrameIndex.loadKeyFrameIndex())
+	public void setKeyFrameIndexEnabled(boolean keyFrameIndexEnabled) {
+		this.keyFrameIndexEnabled = keyFrameIndexEnabled;
+	}
+
+	public File getKeyFrameIndexDirectory() {
+		return keyFrameIndexDirectory;
+	}
+
+	// If null the default directory is used, see KeyFrameIndex.getDefaultIndexDirectory()
+	public void setKeyFrameIndexDirectory(File keyFrameIndexDirectory) {
+		this.keyFrameIndexDirectory = keyFrameIndexDirectory;
+	}
+
+	// Returns null while the index is being created
+	public KeyFrameIndex getKeyFrameIndex() {
+		IFFVideoFrameReader frameReader = this.frameReader;
+		return frameReader != null ? frameReader.getKeyFrameIndex() : null;
+	}
+
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	public void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
 	protected int getThreads() {
 
 		// TODO?
@@ -74,6 +153,9 @@ public class FFVideoFrameLoader extends FrameLoader {
 	public void open(DefaultVideo video, int width, int height, boolean closeFile) {
 		super.open(video, width, height, closeFile);
 
+		// Readers of a previously opened file can't be used for this file
+		closeSegmentReaders();
+
 		frameReader = FFmpegFactory.getInstance().createVideoFrameReader(video.getPath());
 		frameReader.setMaxSeekCount(maxSeekCount);
 		// frameGrabber.setImageScalingFlags(org.bytedeco.ffmpeg.global.swscale.SWS_FAST_BILINEAR);
@@ -97,6 +179,11 @@ public class FFVideoFrameLoader extends FrameLoader {
 			video.setDuration(frameReader.getLengthInTime() / 1000L); // TODO
 			video.setFrameRate(frameReader.getFrameRate());
 
+			if (video.getWidth() == 0 || video.getHeight() == 0) {
+				video.setWidth(frameReader.getImageWidth());
+				video.setHeight(frameReader.getImageHeight());
+			}
+
 			Map<String, String> metadata;
 
 			metadata = frameReader.getMetadata();
@@ -113,6 +200,10 @@ public class FFVideoFrameLoader extends FrameLoader {
 			}
 			parseMetadata(metadata);
 
+			if (keyFrameIndexEnabled) {
+				FFKeyFrameIndex.loadKeyFrameIndex(new File(video.getPath()), keyFrameIndexDirectory, frameReader);
+			}
+
 			fileOpen = true;
 
 		} catch (Exception e) {
@@ -177,7 +268,7 @@ public class FFVideoFrameLoader extends FrameLoader {
 
 						if (frame.image != null) {
 
-							callback.fireFrameLoaded(video, new Frame(timestamp, frameConverter.createBufferedImage(frame, image)));
+							callback.fireFrameLoaded(video, new Frame(timestamp, Frame.TIMEBASE_MILLISECONDS, frameConverter.createBufferedImage(frame, image)));
 
 							break;
 
@@ -222,7 +313,7 @@ public class FFVideoFrameLoader extends FrameLoader {
 
 						if (frame.image != null) {
 
-							callback.fireFrameLoaded(video, new Frame(timestamp, frameConverter.createBufferedImage(frame, image)));
+							callback.fireFrameLoaded(video, new Frame(timestamp, Frame.TIMEBASE_MILLISECONDS, frameConverter.createBufferedImage(frame, image)));
 
 							return true;
 
@@ -246,7 +337,9 @@ public class FFVideoFrameLoader extends FrameLoader {
 	@Override
 	public synchronized void loadFrames(FrameLoaderCallback callback, long from, long to, int frameHeight, int totalWidth, int frameSpacing) {
 
-		if (fileOpen) {
+		if (fileOpen && parallelism > 1 && isKeyFrameIndexAvailable()) {
+			loadFramesParallel(callback, from, to, frameHeight, totalWidth, frameSpacing);
+		} else if (fileOpen) {
 
 			try {
 
@@ -334,12 +427,12 @@ public class FFVideoFrameLoader extends FrameLoader {
 							}
 
 							if (frame != null && frame.image != null) {
-								BufferedImage image = frameConverter.createBufferedImage(frame);
+								BufferedImage image = frameConverter.createBufferedImage(frame, null, callback.getImagePool());
 								// callback.fireFrameLoaded(video, new Frame(video.getTimestamp() + timestamp, image));
 								if (TODO_DEBUG) {
 									System.out.println("Frame loaded for video: " + video.getName() + " pts: " + frame.timestamp);
 								}
-								callback.fireFrameLoaded(video, new Frame(timestamp, image));
+								callback.fireFrameLoaded(video, new Frame(timestamp, Frame.TIMEBASE_MILLISECONDS, image));
 							}
 
 							timestamp += interval;
@@ -359,6 +452,156 @@ public class FFVideoFrameLoader extends FrameLoader {
 
 	}
 
+	private void loadFramesParallel(FrameLoaderCallback callback, long from, long to, int frameHeight, int totalWidth, int frameSpacing) {
+
+		long[] timestamps = getStripTimestamps(from, to, frameHeight, totalWidth, frameSpacing);
+		if (timestamps == null) {
+			return;
+		}
+
+		int frameWidth = getStripFrameWidth(frameHeight);
+
+		List<int[]> segments = createSegments(timestamps, parallelism);
+		List<SegmentReader> readers = getSegmentReaders(segments.size());
+		if (readers.size() < segments.size()) {
+			segments = createSegments(timestamps, readers.size());
+		}
+
+		FrameDelivery delivery = new FrameDelivery(callback, timestamps.length, ordered);
+		CountDownLatch latch = new CountDownLatch(segments.size());
+		Executor executor = this.executor != null ? this.executor : getSharedExecutor();
+
+		List<SegmentTask> tasks = new ArrayList<>();
+		for (int i = 0; i < segments.size(); i++) {
+			SegmentTask task = new SegmentTask(readers.get(i), callback, delivery, timestamps, segments.get(i), frameWidth, frameHeight, latch);
+			tasks.add(task);
+			executor.execute(task);
+		}
+
+		// The readers (including frameReader) are used by later calls and close(), so this method only returns when
+		// no segment uses them anymore, when interrupted the segments stop at the next frame and segments that
+		// didn't start yet are canceled
+		boolean interrupted = false;
+		while (true) {
+			try {
+				latch.await();
+				break;
+			} catch (InterruptedException e) {
+				if (!interrupted) {
+					interrupted = true;
+					callback.cancel();
+					for (SegmentTask task : tasks) {
+						task.cancel();
+					}
+				}
+			}
+		}
+
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+
+		// Like the sequential loop the file is not used anymore after an exception
+		if (delivery.failed) {
+			fileOpen = false;
+		}
+
+	}
+
+	// Splits the timestamps in contiguous segments, segment boundaries are moved forward
+	// while they fall within the same GOP so every GOP is decoded by one reader only
+	private List<int[]> createSegments(long[] timestamps, int count) {
+
+		List<int[]> segments = new ArrayList<>();
+
+		int start = 0;
+		for (int i = 0; i < count && start < timestamps.length; i++) {
+
+			int end = (int) (((long) timestamps.length * (i + 1)) / count);
+			if (end <= start) {
+				continue;
+			}
+
+			while (end < timestamps.length && getKeyFrameTimestamp(timestamps[end]) == getKeyFrameTimestamp(timestamps[end - 1])) {
+				end++;
+			}
+
+			segments.add(new int[] { start, end });
+			start = end;
+
+		}
+
+		return segments;
+
+	}
+
+	// Without a key frame index segments can't be aligned to GOPs, every segment would decode
+	// the GOP before its first frame again, so loadFrames() stays sequential then
+	private boolean isKeyFrameIndexAvailable() {
+		KeyFrameIndex keyFrameIndex = getKeyFrameIndex();
+		return keyFrameIndex != null && keyFrameIndex.getCount() > 0;
+	}
+
+	// Returns the timestamp (milliseconds) of the key frame at or before the specified timestamp (both relative to
+	// the start of the video), without a key frame index every timestamp is considered to start its own segment
+	protected long getKeyFrameTimestamp(long timestamp) {
+		KeyFrameIndex keyFrameIndex = getKeyFrameIndex();
+		if (keyFrameIndex != null && keyFrameIndex.getCount() > 0) {
+			return keyFrameIndex.getKeyFrameTimestamp(timestamp * 1000) / 1000;
+		} else {
+			return timestamp;
+		}
+	}
+
+	private List<SegmentReader> getSegmentReaders(int count) {
+
+		if (segmentReaders.isEmpty()) {
+			segmentReaders.add(new SegmentReader(frameReader, frameConverter));
+		}
+
+		int threads = Math.max(1, getThreads() / parallelism);
+
+		while (segmentReaders.size() < count) {
+
+			IFFVideoFrameReader reader = FFmpegFactory.getInstance().createVideoFrameReader(video.getPath());
+			reader.setMaxSeekCount(maxSeekCount);
+			reader.setKeyFrameIndex(getKeyFrameIndex());
+			reader.setVideoOption("threads", "" + threads);
+
+			try {
+				reader.start();
+			} catch (java.lang.Exception e) {
+				e.printStackTrace();
+				try {
+					reader.close();
+				} catch (java.lang.Exception e2) {
+					e2.printStackTrace();
+				}
+				break;
+			}
+
+			segmentReaders.add(new SegmentReader(reader, new FFVideoFrameConverter()));
+
+		}
+
+		return segmentReaders.subList(0, Math.min(count, segmentReaders.size()));
+
+	}
+
+	// The first segment reader is the frame reader, it's closed by close()
+	private void closeSegmentReaders() {
+
+		for (int i = 1; i < segmentReaders.size(); i++) {
+			try {
+				segmentReaders.get(i).reader.close();
+			} catch (java.lang.Exception e) {
+				e.printStackTrace();
+			}
+		}
+		segmentReaders.clear();
+
+	}
+
 	public synchronized void loadFramesAtInterval(FrameLoaderCallback callback, long from, long interval, int count, int width, int height) {
 
 		if (fileOpen && count > 0) {
@@ -390,12 +633,12 @@ public class FFVideoFrameLoader extends FrameLoader {
 						// org.bytedeco.javacv.Frame frame = grabFrame(frameGrabber, timestamp, keyFrameMode);
 
 						if (frame != null && frame.image != null) {
-							BufferedImage image = frameConverter.createBufferedImage(frame);
+							BufferedImage image = frameConverter.createBufferedImage(frame, null, callback.getImagePool());
 							// callback.fireFrameLoaded(video, new Frame(video.getTimestamp() + timestamp, image));
 							if (TODO_DEBUG) {
 								System.out.println("Frame loaded for video: " + video.getName() + " pts: " + frame.timestamp);
 							}
-							callback.fireFrameLoaded(video, new Frame(timestamp, image));
+							callback.fireFrameLoaded(video, new Frame(timestamp, Frame.TIMEBASE_MILLISECONDS, image));
 						}
 
 						timestamp += interval;
@@ -425,6 +668,8 @@ public class FFVideoFrameLoader extends FrameLoader {
 
 			fileOpen = false;
 
+			closeSegmentReaders();
+
 			if (frameReader != null) {
 				frameReader.close();
 				frameReader = null;
@@ -436,6 +681,193 @@ public class FFVideoFrameLoader extends FrameLoader {
 
 	}
 
+	private class SegmentReader {
+
+		private final IFFVideoFrameReader reader;
+		private final FFVideoFrameConverter converter;
+
+		private SegmentReader(IFFVideoFrameReader reader, FFVideoFrameConverter converter) {
+			this.reader = reader;
+			this.converter = converter;
+		}
+
+		// Same retry and no-frame handling as the sequential loop in loadFrames(), a segment that reaches the end of
+		// the video stops the segments after it
+		private void decode(FrameLoaderCallback callback, FrameDelivery delivery, long[] timestamps, int start, int end, int frameWidth, int frameHeight) throws Exception {
+
+			reader.setImageWidth(frameWidth);
+			reader.setImageHeight(frameHeight);
+
+			int i = start;
+			int noFrameCount = 0;
+
+			try {
+
+				for (; i < end; i++) {
+
+					Frame frame = null;
+					long timestamp = timestamps[i];
+
+					if (!callback.isCanceled() && timestamp < delivery.endTimestamp) {
+
+						reader.setVideoTimestamp(timestamp * 1000);
+						org.bytedeco.javacv.Frame grabbedFrame = reader.grabFrame(false, true, true, false);
+
+						if (grabbedFrame == null) {
+
+							noFrameCount++;
+
+							if (timestamp > 5000 && noFrameCount > 3) {
+								delivery.endReached(timestamp);
+							} else if (timestamp == 0) {
+
+								while (timestamp < 1000) {
+
+									timestamp += 25;
+
+									reader.setVideoTimestamp(timestamp * 1000);
+									grabbedFrame = reader.grabFrame(false, true, false, false);
+									if (grabbedFrame != null) {
+										grabbedFrame = reader.grabFrame(false, true, true, false);
+										if (grabbedFrame != null) {
+											break;
+										}
+									}
+
+								}
+
+								if (grabbedFrame == null && TODO_DEBUG) {
+									System.err.println("Retry failed for video: " + video.getName() + " at: " + timestamp);
+								}
+
+							}
+
+						}
+
+						if (grabbedFrame != null && grabbedFrame.image != null) {
+							frame = new Frame(timestamp, Frame.TIMEBASE_MILLISECONDS, converter.createBufferedImage(grabbedFrame, null, callback.getImagePool()));
+						} else if (TODO_DEBUG) {
+							System.err.println("No frame loaded for video: " + video.getName() + " at: " + timestamps[i]);
+						}
+
+					}
+
+					delivery.frameDecoded(i, frame);
+
+				}
+
+			} finally {
+
+				// After an exception the remaining frames are delivered as missing, so ordered delivery continues
+				for (; i < end; i++) {
+					delivery.frameDecoded(i, null);
+				}
+
+			}
+
+		}
+
+	}
+
+	private class SegmentTask implements Runnable {
+
+		private final SegmentReader reader;
+		private final FrameLoaderCallback callback;
+		private final FrameDelivery delivery;
+		private final long[] timestamps;
+		private final int[] segment;
+		private final int frameWidth;
+		private final int frameHeight;
+		private final CountDownLatch latch;
+		private final AtomicBoolean started = new AtomicBoolean();
+
+		private SegmentTask(SegmentReader reader, FrameLoaderCallback callback, FrameDelivery delivery, long[] timestamps, int[] segment, int frameWidth, int frameHeight, CountDownLatch latch) {
+			this.reader = reader;
+			this.callback = callback;
+			this.delivery = delivery;
+			this.timestamps = timestamps;
+			this.segment = segment;
+			this.frameWidth = frameWidth;
+			this.frameHeight = frameHeight;
+			this.latch = latch;
+		}
+
+		@Override
+		public void run() {
+
+			if (!started.compareAndSet(false, true)) {
+				return; // Canceled
+			}
+
+			try {
+				reader.decode(callback, delivery, timestamps, segment[0], segment[1], frameWidth, frameHeight);
+			} catch (java.lang.Exception e) {
+				delivery.failed = true;
+				e.printStackTrace();
+			} finally {
+				latch.countDown();
+			}
+
+		}
+
+		// A task that didn't start yet won't run anymore, a running task stops at the next frame (the callback is canceled)
+		private void cancel() {
+			if (started.compareAndSet(false, true)) {
+				latch.countDown();
+			}
+		}
+
+	}
+
+	// Delivers frames to the callback one at a time, in order of the timestamps if ordered is true
+	private class FrameDelivery {
+
+		private final FrameLoaderCallback callback;
+		private final Frame[] frames;
+		private final boolean[] decoded;
+		private final boolean ordered;
+		private int next = 0;
+		private volatile long endTimestamp = Long.MAX_VALUE;
+		private volatile boolean failed = false;
+
+		private FrameDelivery(FrameLoaderCallback callback, int count, boolean ordered) {
+			this.callback = callback;
+			this.frames = ordered ? new Frame[count] : null;
+			this.decoded = ordered ? new boolean[count] : null;
+			this.ordered = ordered;
+		}
+
+		// Frames at or after the timestamp are not loaded anymore
+		private synchronized void endReached(long timestamp) {
+			if (timestamp < endTimestamp) {
+				endTimestamp = timestamp;
+			}
+		}
+
+		private synchronized void frameDecoded(int index, Frame frame) {
+
+			if (!ordered) {
+				if (frame != null && !callback.isCanceled()) {
+					callback.fireFrameLoaded(video, frame);
+				}
+				return;
+			}
+
+			frames[index] = frame;
+			decoded[index] = true;
+
+			while (next < decoded.length && decoded[next]) {
+				if (frames[next] != null && !callback.isCanceled()) {
+					callback.fireFrameLoaded(video, frames[next]);
+				}
+				frames[next] = null;
+				next++;
+			}
+
+		}
+
+	}
+
 	// TODO
 	/*
 	public static synchronized org.bytedeco.javacv.Frame grabFrame(FFmpegFrameGrabber frameGrabber, long timestamp, boolean keyFrameMode) {
@@ -232,6 +232,39 @@ public class FFmpegUtils {
 
 	}
 
+	// Copies the image of from into the buffers of to without allocating memory, returns false if the frames
+	// don't have the same layout (to is not changed then)
+	public static boolean copyImage(Frame from, Frame to) {
+
+		if (from.image == null || to.image == null || from.image.length != to.image.length || from.imageWidth != to.imageWidth || from.imageHeight != to.imageHeight || from.imageDepth != to.imageDepth || from.imageChannels != to.imageChannels || from.imageStride != to.imageStride) {
+			return false;
+		}
+
+		for (int i = 0; i < from.image.length; i++) {
+			if (!(from.image[i] instanceof ByteBuffer) || !(to.image[i] instanceof ByteBuffer) || from.image[i].capacity() != to.image[i].capacity()) {
+				return false;
+			}
+		}
+
+		for (int i = 0; i < from.image.length; i++) {
+
+			ByteBuffer source = ((ByteBuffer) from.image[i]).duplicate();
+			source.clear();
+
+			ByteBuffer target = ((ByteBuffer) to.image[i]).duplicate();
+			target.clear();
+			target.put(source);
+
+		}
+
+		to.keyFrame = from.keyFrame;
+		to.streamIndex = from.streamIndex;
+		to.timestamp = from.timestamp;
+
+		return true;
+
+	}
+
 	public static void copyFrame(Frame from, Frame to) {
 
 		if (from.image != null && to.image != null && from.image.length == to.image.length) {
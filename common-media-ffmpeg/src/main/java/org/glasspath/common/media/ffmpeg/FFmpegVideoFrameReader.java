@@ -25,11 +25,13 @@ package org.glasspath.common.media.ffmpeg;
 import java.io.File;
 
 import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.glasspath.common.media.video.KeyFrameIndex;
 
 public class FFmpegVideoFrameReader extends FFmpegFrameGrabber implements IFFVideoFrameReader {
 
 	private int maxSeekCount = -1;
 	private int seekCount = 0;
+	private volatile KeyFrameIndex keyFrameIndex = null;
 
 	public FFmpegVideoFrameReader(File file) {
 		super(file);
@@ -49,16 +51,60 @@ public class FFmpegVideoFrameReader extends FFmpegFrameGrabber implements IFFVid
 		this.maxSeekCount = maxSeekCount;
 	}
 
+	@Override
+	public KeyFrameIndex getKeyFrameIndex() {
+		return keyFrameIndex;
+	}
+
+	@Override
+	public void setKeyFrameIndex(KeyFrameIndex keyFrameIndex) {
+		this.keyFrameIndex = keyFrameIndex;
+	}
+
 	@Override
 	public void setVideoTimestamp(long timestamp) throws Exception {
+
 		seekCount = 0;
+
+		// The index can be set by the thread that creates it
+		KeyFrameIndex keyFrameIndex = this.keyFrameIndex;
+		if (keyFrameIndex != null && keyFrameIndex.getCount() > 0) {
+
+			long keyFrameTimestamp = keyFrameIndex.getKeyFrameTimestamp(timestamp);
+			double frameRate = super.getFrameRate();
+			long frameDuration = frameRate > 0 ? (long) (1000000.0 / frameRate) : 0;
+
+			// Instead of limiting the number of decoded frames (see getFrameRate()) the key frame
+			// is used when reaching the timestamp would take more than maxSeekCount frames
+			if (maxSeekCount >= 0 && frameDuration > 0 && (timestamp - keyFrameTimestamp) / frameDuration > maxSeekCount) {
+				timestamp = keyFrameTimestamp;
+			}
+
+			// If the timestamp is ahead in the GOP that is being decoded there is no need to seek
+			// back to the key frame, the frames in between are skipped without converting them
+			long currentTimestamp = getTimestamp();
+			if (frameDuration > 0 && currentTimestamp < timestamp && currentTimestamp >= keyFrameTimestamp && keyFrameIndex.getKeyFrameTimestamp(currentTimestamp) == keyFrameTimestamp) {
+
+				while (getTimestamp() + frameDuration < timestamp - (frameDuration / 2)) {
+					if (grabFrame(false, true, false, false) == null) {
+						break;
+					}
+				}
+
+				return;
+
+			}
+
+		}
+
 		super.setVideoTimestamp(timestamp);
+
 	}
 
 	@Override
 	public double getFrameRate() {
 
-		if (maxSeekCount >= 0) {
+		if (maxSeekCount >= 0 && keyFrameIndex == null) {
 
 			// TODO? This is a hack to trick FFmpegFrameGrabber,
 			// it uses getFrameRate() to calculate the frame duration,
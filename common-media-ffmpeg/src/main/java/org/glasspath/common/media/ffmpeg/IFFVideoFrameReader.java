@@ -26,6 +26,7 @@ import java.util.Map;
 
 import org.bytedeco.javacv.Frame;
 import org.bytedeco.javacv.FrameGrabber;
+import org.glasspath.common.media.video.KeyFrameIndex;
 
 public interface IFFVideoFrameReader {
 
@@ -65,6 +66,10 @@ public interface IFFVideoFrameReader {
 
 	public void setMaxSeekCount(int maxSeekCount);
 
+	public KeyFrameIndex getKeyFrameIndex();
+
+	public void setKeyFrameIndex(KeyFrameIndex keyFrameIndex);
+
 	public void close() throws FrameGrabber.Exception;
 
 }
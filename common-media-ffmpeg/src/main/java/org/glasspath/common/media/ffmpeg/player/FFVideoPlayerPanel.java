@@ -23,8 +23,14 @@
 package org.glasspath.common.media.ffmpeg.player;
 
 import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Executor;
 
 import javax.imageio.stream.FileImageOutputStream;
 import javax.imageio.stream.ImageOutputStream;
@@ -32,12 +38,16 @@ import javax.swing.SwingUtilities;
 
 import org.bytedeco.javacv.FFmpegFrameFilter;
 import org.bytedeco.javacv.FrameGrabber.Exception;
+import org.glasspath.common.media.ffmpeg.FFKeyFrameIndex;
 import org.glasspath.common.media.ffmpeg.FFVideoFrameConverter;
 import org.glasspath.common.media.ffmpeg.FFmpegUtils;
 import org.glasspath.common.media.ffmpeg.IFFVideoFrameReader;
 import org.glasspath.common.media.ffmpeg.FFVideoFrameLoader;
 import org.glasspath.common.media.ffmpeg.FFmpegFactory;
+import org.glasspath.common.media.image.BufferedImagePool;
+import org.glasspath.common.media.image.GifEncoder;
 import org.glasspath.common.media.image.GifExporter;
+import org.glasspath.common.media.image.GifWriter;
 import org.glasspath.common.media.player.ExportRequest;
 import org.glasspath.common.media.player.IVideoPlayer;
 import org.glasspath.common.media.player.VideoFramePlayerPanel;
@@ -45,6 +55,8 @@ import org.glasspath.common.media.video.DefaultVideo;
 import org.glasspath.common.media.video.Frame;
 import org.glasspath.common.media.video.FrameBuffer;
 import org.glasspath.common.media.video.FrameBuffer.BufferedFrame;
+import org.glasspath.common.media.video.FrameBufferStatistics;
+import org.glasspath.common.media.video.FrameHandle;
 import org.glasspath.common.media.video.FrameLoaderCallback;
 import org.glasspath.common.media.video.Video;
 import org.glasspath.common.media.video.VideoConfiguration;
@@ -68,13 +80,22 @@ public class FFVideoPlayerPanel extends VideoFramePlayerPanel {
 
 	private final VideoConfiguration videoConfiguration;
 	private final FFBufferedFrame[] buffer;
+	private final int minFrameBufferSize;
 	private final Frame frame;
 	private FFFrameBuffer frameBuffer = null;
+	private Executor frameBufferExecutor = null;
+	private boolean frameBufferStatisticsEnabled = false;
+	private boolean liveMode = false;
+	private int dropPolicy = FrameBuffer.DROP_OLDEST;
+	private boolean keyFrameIndexEnabled = false;
+	private File keyFrameIndexDirectory = null;
 	private long duration = 0L;
 	private double frameRate = 0.0;
 	private int interval = 0;
 	private int bufferIndex = 0;
 	private int decodeFailedCount = 0;
+	private final Object frameSourceLock = new Object();
+	private FrameHandle<org.bytedeco.javacv.Frame> frameSource = null;
 
 	public FFVideoPlayerPanel(IVideoPlayer context, Video video) {
 		this(context, video, VideoConfiguration.FF_H264, DEFAULT_FRAME_BUFFER_SIZE);
@@ -85,11 +106,17 @@ public class FFVideoPlayerPanel extends VideoFramePlayerPanel {
 	}
 
 	public FFVideoPlayerPanel(IVideoPlayer context, Video video, VideoConfiguration videoConfiguration, int frameBufferSize) {
+		this(context, video, videoConfiguration, frameBufferSize, frameBufferSize);
+	}
+
+	// The frame buffer size adapts between the bounds based on the measured decode time (see FrameBuffer.setDepthBounds())
+	public FFVideoPlayerPanel(IVideoPlayer context, Video video, VideoConfiguration videoConfiguration, int minFrameBufferSize, int maxFrameBufferSize) {
 		super(context);
 
 		this.videoConfiguration = videoConfiguration;
+		this.minFrameBufferSize = minFrameBufferSize;
 
-		buffer = new FFBufferedFrame[frameBufferSize];
+		buffer = new FFBufferedFrame[Math.max(minFrameBufferSize, maxFrameBufferSize)];
 		for (int i = 0; i < buffer.length; i++) {
 			buffer[i] = new FFBufferedFrame();
 		}
@@ -114,7 +141,14 @@ public class FFVideoPlayerPanel extends VideoFramePlayerPanel {
 	public void open(Video video) {
 		super.open(video);
 
-		frameBuffer = new FFFrameBuffer(video);
+		frameBuffer = new FFFrameBuffer(video, frameBufferExecutor);
+		frameBuffer.setLiveMode(liveMode);
+		frameBuffer.setDropPolicy(dropPolicy);
+		frameBuffer.setDepthBounds(minFrameBufferSize, buffer.length);
+		if (frameBufferStatisticsEnabled) {
+			frameBuffer.setStatisticsEnabled(true);
+			frameBuffer.getStatistics().registerMBean(video.getPath());
+		}
 		frameBuffer.start();
 
 	}
@@ -123,6 +157,8 @@ public class FFVideoPlayerPanel extends VideoFramePlayerPanel {
 	public void close() {
 		super.close();
 
+		setFrameSource(null);
+
 		if (frameBuffer != null) {
 
 			if (!frameBuffer.isExited()) {
@@ -162,6 +198,90 @@ public class FFVideoPlayerPanel extends VideoFramePlayerPanel {
 
 	}
 
+	public Executor getFrameBufferExecutor() {
+		return frameBufferExecutor;
+	}
+
+	// Takes effect when the next video is opened, null means each stage gets its own thread
+	public void setFrameBufferExecutor(Executor frameBufferExecutor) {
+		this.frameBufferExecutor = frameBufferExecutor;
+	}
+
+	public boolean isFrameBufferStatisticsEnabled() {
+		return frameBufferStatisticsEnabled;
+	}
+
+	// Takes effect when the next video is opened, statistics are also published through JMX
+	public void setFrameBufferStatisticsEnabled(boolean frameBufferStatisticsEnabled) {
+		this.frameBufferStatisticsEnabled = frameBufferStatisticsEnabled;
+	}
+
+	public boolean isLiveMode() {
+		return liveMode;
+	}
+
+	// Takes effect when the next video is opened, in live mode the decoder doesn't wait for the
+	// player and the newest decoded frame is shown (see FrameBuffer.setLiveMode())
+	public void setLiveMode(boolean liveMode) {
+		this.liveMode = liveMode;
+	}
+
+	public int getDropPolicy() {
+		return dropPolicy;
+	}
+
+	// Takes effect when the next video is opened, see FrameBuffer.DROP_OLDEST, DROP_NEWEST and KEEP_KEY_FRAMES
+	public void setDropPolicy(int dropPolicy) {
+		this.dropPolicy = dropPolicy;
+	}
+
+	public boolean isKeyFrameIndexEnabled() {
+		return keyFrameIndexEnabled;
+	}
+
+	// Takes effect when the next video is opened, the index is created in the background when it doesn't exist yet
+	public void setKeyFrameIndexEnabled(boolean keyFrameIndexEnabled) {
+		this.keyFrameIndexEnabled = keyFrameIndexEnabled;
+	}
+
+	public File getKeyFrameIndexDirectory() {
+		return keyFrameIndexDirectory;
+	}
+
+	// If null the default directory is used, see KeyFrameIndex.getDefaultIndexDirectory()
+	public void setKeyFrameIndexDirectory(File keyFrameIndexDirectory) {
+		this.keyFrameIndexDirectory = keyFrameIndexDirectory;
+	}
+
+	// Shares the decoded frame of the last frame returned by getFrame() (not a copy, processors and snapshot writers
+	// can use it while the frame buffer continues), the handle must be released, returns null if there is none
+	// (the decoded frame is only kept when converting on converter threads, see TODO_CONVERTER_COUNT)
+	public FrameHandle<org.bytedeco.javacv.Frame> retainFrameSource() {
+		synchronized (frameSourceLock) {
+			return frameSource != null ? frameSource.retain() : null;
+		}
+	}
+
+	// Takes over the reference of the handle and releases the previous one
+	private void setFrameSource(FrameHandle<org.bytedeco.javacv.Frame> frameSource) {
+
+		FrameHandle<org.bytedeco.javacv.Frame> previous;
+		synchronized (frameSourceLock) {
+			previous = this.frameSource;
+			this.frameSource = frameSource;
+		}
+
+		if (previous != null) {
+			previous.release();
+		}
+
+	}
+
+	public FrameBufferStatistics getFrameBufferStatistics() {
+		FFFrameBuffer frameBuffer = this.frameBuffer;
+		return frameBuffer != null ? frameBuffer.getStatistics() : null;
+	}
+
 	@Override
 	protected double getFrameRate() {
 		return frameRate;
@@ -170,7 +290,10 @@ public class FFVideoPlayerPanel extends VideoFramePlayerPanel {
 	@Override
 	protected boolean isFrameAvailable() {
 
-		if (buffer[bufferIndex].isImageReady()) {
+		FFFrameBuffer frameBuffer = this.frameBuffer;
+		if (frameBuffer != null && frameBuffer.isLiveMode()) {
+			return frameBuffer.isFrameReady();
+		} else if (buffer[bufferIndex].isImageReady()) {
 
 			return true;
 
@@ -210,10 +333,7 @@ public class FFVideoPlayerPanel extends VideoFramePlayerPanel {
 
 			buffer[bufferIndex].reset(buffer[bufferIndex].getImage());
 
-			bufferIndex++;
-			if (bufferIndex >= buffer.length) {
-				bufferIndex = 0;
-			}
+			bufferIndex = frameBuffer != null ? frameBuffer.nextIndex(bufferIndex) : 0;
 
 			return false;
 
@@ -226,19 +346,28 @@ public class FFVideoPlayerPanel extends VideoFramePlayerPanel {
 	@Override
 	protected Frame getFrame() {
 
-		if (buffer[bufferIndex].isImageReady()) {
+		FFFrameBuffer frameBuffer = this.frameBuffer;
+		if (frameBuffer != null && frameBuffer.isLiveMode()) {
+
+			if (frameBuffer.takeLatestFrame(frame)) {
+				decodeFailedCount = 0;
+				return frame;
+			} else {
+				return null;
+			}
+
+		} else if (buffer[bufferIndex].isImageReady()) {
 
 			BufferedImage swapImage = frame.getImage();
 
-			frame.setTimestamp(buffer[bufferIndex].getTimestamp());
+			frame.setTimestamp(buffer[bufferIndex].getTimestampValue());
+			frame.setTimebase(buffer[bufferIndex].getTimebase());
 			frame.setImage(buffer[bufferIndex].getImage());
 
+			setFrameSource(buffer[bufferIndex].retainSource());
 			buffer[bufferIndex].reset(swapImage);
 
-			bufferIndex++;
-			if (bufferIndex >= buffer.length) {
-				bufferIndex = 0;
-			}
+			bufferIndex = frameBuffer != null ? frameBuffer.nextIndex(bufferIndex) : 0;
 
 			decodeFailedCount = 0;
 
@@ -279,8 +408,8 @@ public class FFVideoPlayerPanel extends VideoFramePlayerPanel {
 
 			new Thread(new Runnable() {
 
-				private ImageOutputStream output = null;
-				private GifExporter gifExporter = null;
+				private Closeable output = null;
+				private GifWriter gifWriter = null;
 				private boolean writerInited = false;
 
 				@Override
@@ -302,8 +431,17 @@ public class FFVideoPlayerPanel extends VideoFramePlayerPanel {
 								if (!writerInited) {
 
 									try {
-										output = new FileImageOutputStream(request.getFile());
-										gifExporter = new GifExporter(output, image.getType(), request.getInterval(), true);
+										if (request.getEncoder() == ExportRequest.ENCODER_IMAGE_IO) {
+											ImageOutputStream imageOutputStream = new FileImageOutputStream(request.getFile());
+											output = imageOutputStream;
+											gifWriter = new GifExporter(imageOutputStream, image.getType(), request.getInterval(), true);
+										} else {
+											OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(request.getFile()));
+											output = outputStream;
+											GifEncoder gifEncoder = new GifEncoder(outputStream, request.getInterval(), true);
+											gifEncoder.setDeltaEncoding(request.isDeltaEncoding());
+											gifWriter = gifEncoder;
+										}
 									} catch (FileNotFoundException e) {
 										e.printStackTrace();
 									} catch (IOException e) {
@@ -314,10 +452,10 @@ public class FFVideoPlayerPanel extends VideoFramePlayerPanel {
 
 								}
 
-								if (gifExporter != null) {
+								if (gifWriter != null) {
 
 									try {
-										gifExporter.writeImage(image);
+										gifWriter.writeImage(image);
 										request.update(++frameCount, totalFrameCount);
 									} catch (IOException e) {
 										e.printStackTrace();
@@ -325,17 +463,20 @@ public class FFVideoPlayerPanel extends VideoFramePlayerPanel {
 
 								}
 
+								releaseImage(frame);
+
 							}
 
 						}
 					};
+					callback.setImagePool(BufferedImagePool.getDefault());
 
 					frameLoader.loadFramesAtInterval(callback, from, request.getInterval(), totalFrameCount, request.getWidth(), request.getHeight());
 
-					if (gifExporter != null) {
+					if (gifWriter != null) {
 
 						try {
-							gifExporter.close();
+							gifWriter.close();
 						} catch (IOException e) {
 							e.printStackTrace();
 						}
@@ -410,8 +551,8 @@ public class FFVideoPlayerPanel extends VideoFramePlayerPanel {
 		private IFFVideoFrameReader frameReader = null;
 		private int frameGrabberState = 0;
 
-		private FFFrameBuffer(Video video) {
-			super(1, TODO_PRE_PROCESSOR_COUNT, TODO_CONVERTER_COUNT, TODO_POST_PROCESSOR_COUNT);
+		private FFFrameBuffer(Video video, Executor executor) {
+			super(1, TODO_PRE_PROCESSOR_COUNT, TODO_CONVERTER_COUNT, TODO_POST_PROCESSOR_COUNT, executor);
 
 			this.video = video;
 			this.frameConverter = new FFVideoFrameConverter();
@@ -473,6 +614,10 @@ public class FFVideoPlayerPanel extends VideoFramePlayerPanel {
 
 				frameReader.start();
 
+				if (keyFrameIndexEnabled) {
+					FFKeyFrameIndex.loadKeyFrameIndex(new File(video.getPath()), keyFrameIndexDirectory, frameReader);
+				}
+
 				context.fireVideoOpened(video.getPath());
 
 				duration = frameReader.getLengthInTime();
@@ -521,6 +666,26 @@ public class FFVideoPlayerPanel extends VideoFramePlayerPanel {
 			return frameReader.getTimestamp();
 		}
 
+		@Override
+		protected void closeSource(org.bytedeco.javacv.Frame source) {
+			source.close();
+		}
+
+		@Override
+		protected void frameTaken(BufferedFrame<org.bytedeco.javacv.Frame> frame) {
+			setFrameSource(frame.retainSource());
+		}
+
+		@Override
+		protected long getFrameInterval() {
+			return frameRate > 1 ? (long) (1000000000L / frameRate) : 0L;
+		}
+
+		@Override
+		protected boolean isKeyFrame(int thread, org.bytedeco.javacv.Frame source) {
+			return source.keyFrame;
+		}
+
 		@Override
 		protected void setDecoderTimestamp(int thread, long timestamp) {
 			try {
@@ -539,21 +704,22 @@ public class FFVideoPlayerPanel extends VideoFramePlayerPanel {
 				if (frame != null && frame.image != null) {
 
 					if (getConverterThreads() == 0) {
-						return frame;
-					} else if (buffer.length > 1) {
+						return frame; // Converted on this thread before the next grab
+					}
 
-						// FFmpegFrameGrabber returns same instance each time, so for buffering we need to copy/clone
-						if (f != null) {
-							FFmpegUtils.copyFrame(frame, f);
+					// FFmpegFrameGrabber converts every picture into the same frame, the picture is moved once into
+					// a pooled frame (f is recycled by the frame buffer when the slot and all consumers released it),
+					// the slot, the converter and consumers of the source share that frame, a frame is only allocated
+					// when the pool is empty or the size changed
+					if (f != null) {
+						if (FFmpegUtils.copyImage(frame, f)) {
 							return f;
-						} else {
-							return frame.clone();
 						}
-
-					} else {
-						return frame;
+						f.close();
 					}
 
+					return frame.clone();
+
 				}
 
 			} catch (Exception e) {
@@ -629,7 +795,16 @@ public class FFVideoPlayerPanel extends VideoFramePlayerPanel {
 					frameFilters[thread].push(frame);
 					org.bytedeco.javacv.Frame f = frameFilters[thread].pull();
 					if (f != null) {
+
+						// The filter reuses its frame too, the result replaces the picture in the pooled frame (which
+						// was pushed already), a frame is only allocated if the filter changed the layout
+						if (FFmpegUtils.copyImage(f, frame)) {
+							return frame;
+						}
+
+						frame.close();
 						return f.clone();
+
 					}
 				} catch (org.bytedeco.javacv.FFmpegFrameFilter.Exception e) {
 					e.printStackTrace();
@@ -689,25 +864,14 @@ public class FFVideoPlayerPanel extends VideoFramePlayerPanel {
 	public static class FFBufferedFrame extends BufferedFrame<org.bytedeco.javacv.Frame> {
 
 		public FFBufferedFrame() {
-
-		}
-
-		@Override
-		public void reset(BufferedImage swapImage) {
-
-			if (source != null) {
-				if (!FrameBuffer.TODO_TEST_RECYCLE_MODE) {
-					source.close();
-				}
-			}
-
-			super.reset(swapImage);
-
+			setTimebase(TIMEBASE_MICROSECONDS);
 		}
 
 		public void close() {
 
-			if (source != null) {
+			if (isSourceShared()) {
+				detachSource();
+			} else if (source != null) {
 				// System.out.println("Closing frame");
 				source.close();
 				source = null;
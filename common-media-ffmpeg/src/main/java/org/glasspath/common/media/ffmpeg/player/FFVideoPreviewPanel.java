@@ -33,6 +33,7 @@ import javax.swing.SwingUtilities;
 import org.glasspath.common.media.ffmpeg.FFH264NalUnitDecoderThread;
 import org.glasspath.common.media.ffmpeg.FFVideoFrameConverter;
 import org.glasspath.common.media.h264.H264NalUnit;
+import org.glasspath.common.media.image.BufferedImagePool;
 import org.glasspath.common.media.player.FramePanel;
 import org.glasspath.common.media.player.IVideoPlayerListener;
 import org.glasspath.common.media.player.IVideoPlayerListener.VideoPlayerStatistics;
@@ -114,6 +115,9 @@ public abstract class FFVideoPreviewPanel extends FramePanel implements IVideoPr
 								}
 
 								decoderThread.reset();
+								if (parameterSets.videoParameterSet != null) {
+									decoderThread.addNalUnit(parameterSets.videoParameterSet);
+								}
 								decoderThread.addNalUnit(parameterSets.sequenceParameterSet);
 								decoderThread.addNalUnit(parameterSets.pictureParameterSet);
 
@@ -173,6 +177,7 @@ public abstract class FFVideoPreviewPanel extends FramePanel implements IVideoPr
 		decoderThread.setSkipFrames(skipFrames);
 
 		converter = new FFVideoFrameConverter();
+		converter.setImagePool(BufferedImagePool.getDefault());
 
 		setFrame(previewFrame);
 
@@ -184,6 +189,8 @@ public abstract class FFVideoPreviewPanel extends FramePanel implements IVideoPr
 
 	protected abstract void installStreamListener(RtspStreamListener listener);
 
+	// NAL units received from a pooled H264AnnexBWriter are only valid while nalUnitReceived() runs, the
+	// implementation has to retain() the NAL units it buffers for resuming (and release them when dropped)
 	protected abstract void getResumeNalUnits(List<H264NalUnit> resumeNalUnits);
 
 	protected abstract void uninstallStreamListener(RtspStreamListener listener);
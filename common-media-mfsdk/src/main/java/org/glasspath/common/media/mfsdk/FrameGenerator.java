@@ -25,6 +25,8 @@ package org.glasspath.common.media.mfsdk;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferByte;
 
+import org.glasspath.common.media.image.PixelFormatConverter;
+
 public class FrameGenerator {
 
 	static {
@@ -88,20 +90,9 @@ public class FrameGenerator {
 				// System.out.println("Copying bytes!");
 				// buffer.get(bufferPixels);
 
-				// A R
-				// B G
-				// G B
-				// R A
-
-				int j = 2;
-				for (int i = 3; i < bitmapData.length && j < bufferPixels.length; i += 4) {
-					bufferPixels[j - 0] = bitmapData[i - 1];
-					bufferPixels[j - 1] = bitmapData[i - 2];
-					bufferPixels[j - 2] = bitmapData[i - 3];
-					// bufferPixels[i - 3] = bitmapData[i - 0];
-					// bufferPixels[i - 3] = (byte)255;
-					j += 3;
-				}
+				// Bitmap data is BGRA, alpha is dropped
+				int rows = Math.min(height, bitmapData.length / (width * 4));
+				PixelFormatConverter.bgraToBgr(bitmapData, width * 4, width, rows, bufferPixels, width * 3);
 
 				return image;
 
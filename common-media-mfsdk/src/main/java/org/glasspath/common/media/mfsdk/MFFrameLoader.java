@@ -22,10 +22,9 @@
  */
 package org.glasspath.common.media.mfsdk;
 
-import java.awt.Graphics2D;
-import java.awt.Image;
 import java.awt.image.BufferedImage;
 
+import org.glasspath.common.media.image.PixelFormatConverter;
 import org.glasspath.common.media.video.DefaultVideo;
 import org.glasspath.common.media.video.Frame;
 import org.glasspath.common.media.video.FrameLoader;
@@ -59,7 +58,7 @@ public class MFFrameLoader extends FrameLoader {
 						}
 
 						// activeCallback.fireFrameLoaded(video, new Frame(video.getTimestamp() + (requestedTimestamp / 10000) + video.getStartTimeCorrectionOffset(), image));
-						activeCallback.fireFrameLoaded(video, new Frame(requestedTimestamp / 10000, image));
+						activeCallback.fireFrameLoaded(video, new Frame(requestedTimestamp / 10000, Frame.TIMEBASE_MILLISECONDS, image));
 
 					}
 
@@ -236,23 +235,7 @@ public class MFFrameLoader extends FrameLoader {
 	}
 
 	public static BufferedImage scaleImage(BufferedImage image, int width, int height) {
-
-		Image scaledImage = image.getScaledInstance(width, height, Image.SCALE_SMOOTH);
-
-		if (scaledImage instanceof BufferedImage) {
-			return (BufferedImage) scaledImage;
-		} else {
-
-			BufferedImage scaledBufferedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-
-			Graphics2D g2d = scaledBufferedImage.createGraphics();
-			g2d.drawImage(scaledImage, 0, 0, null);
-			g2d.dispose();
-
-			return scaledBufferedImage;
-
-		}
-
+		return PixelFormatConverter.scale(image, width, height, null);
 	}
 
 	@Override
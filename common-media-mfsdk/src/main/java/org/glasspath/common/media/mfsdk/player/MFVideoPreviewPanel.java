@@ -90,7 +90,7 @@ public abstract class MFVideoPreviewPanel extends EvrCanvasPanel implements IVid
 								if (resumeNalUnit == nalUnit) {
 									break;
 								} else {
-									evrCanvas.queueNalUnit(playerInstance, resumeNalUnit.bytes, resumeNalUnit.bytes.length, resumeNalUnit.timestamp);
+									queueNalUnit(resumeNalUnit, resumeNalUnit.timestamp);
 								}
 							}
 
@@ -100,8 +100,8 @@ public abstract class MFVideoPreviewPanel extends EvrCanvasPanel implements IVid
 						} else if (parameterSets != null && nalUnit.isIFrame()) {
 
 							System.out.println("Sending parameter sets");
-							evrCanvas.queueNalUnit(playerInstance, parameterSets.sequenceParameterSet.bytes, parameterSets.sequenceParameterSet.bytes.length, nalUnit.timestamp);
-							evrCanvas.queueNalUnit(playerInstance, parameterSets.pictureParameterSet.bytes, parameterSets.pictureParameterSet.bytes.length, nalUnit.timestamp);
+							queueNalUnit(parameterSets.sequenceParameterSet, nalUnit.timestamp);
+							queueNalUnit(parameterSets.pictureParameterSet, nalUnit.timestamp);
 
 							evrCanvas.setPaintBackgroundOnly(playerInstance, false);
 							parameterSetsSent = true;
@@ -112,7 +112,7 @@ public abstract class MFVideoPreviewPanel extends EvrCanvasPanel implements IVid
 
 					}
 
-					evrCanvas.queueNalUnit(playerInstance, nalUnit.bytes, nalUnit.bytes.length, nalUnit.timestamp);
+					queueNalUnit(nalUnit, nalUnit.timestamp);
 
 					if (nalUnit.isFrame()) {
 
@@ -155,6 +155,8 @@ public abstract class MFVideoPreviewPanel extends EvrCanvasPanel implements IVid
 
 	protected abstract void installStreamListener(RtspStreamListener listener);
 
+	// NAL units received from a pooled H264AnnexBWriter are only valid while nalUnitReceived() runs, the
+	// implementation has to retain() the NAL units it buffers for resuming (and release them when dropped)
 	protected abstract void getResumeNalUnits(List<H264NalUnit> resumeNalUnits);
 
 	protected abstract void uninstallStreamListener(RtspStreamListener listener);
@@ -227,6 +229,12 @@ public abstract class MFVideoPreviewPanel extends EvrCanvasPanel implements IVid
 		setPreviewEnabled(false);
 	}
 
+	// The renderer needs the NAL unit in Annex B format in a separate array, it is only copied if it's a view
+	private void queueNalUnit(H264NalUnit nalUnit, long timestamp) {
+		byte[] bytes = nalUnit.toByteArray();
+		evrCanvas.queueNalUnit(playerInstance, bytes, bytes.length, timestamp);
+	}
+
 	private synchronized void startPlayer() {
 
 		if (playerState == PlayerState.PLAYER_STOPPED) {
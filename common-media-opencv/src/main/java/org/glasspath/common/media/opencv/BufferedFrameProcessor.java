@@ -33,6 +33,8 @@ import org.bytedeco.opencv.opencv_core.Mat;
 import org.bytedeco.opencv.opencv_core.Rect;
 import org.bytedeco.opencv.opencv_core.Size;
 import org.glasspath.common.Common;
+import org.glasspath.common.media.video.FrameHandle;
+import org.glasspath.common.media.video.PlanarFrame;
 
 public class BufferedFrameProcessor implements ObjectTracker.Listener<DetectionResult> {
 
@@ -96,14 +98,46 @@ public class BufferedFrameProcessor implements ObjectTracker.Listener<DetectionR
 	}
 
 	public Frame process(Frame frame) {
+		BufferedMat bufferedMat = matBuffer[index];
+		bufferedMat.setFrameHandle(null);
+		return process(bufferedMat, frame != null ? bufferedMat.matConverter.convert(frame) : null);
+	}
 
+	public Frame process(PlanarFrame frame) {
 		BufferedMat bufferedMat = matBuffer[index];
+		bufferedMat.setFrameHandle(null);
+		return process(bufferedMat, frame != null ? bufferedMat.planarFrameConverter.convert(frame) : null);
+	}
 
-		if (frame != null) {
+	// The mat wraps the shared frame (no copy), a reference is kept while the mat is buffered, the
+	// frame is only copied if it's blurred while other consumers still hold it (copy-on-write)
+	public Frame processFrame(FrameHandle<Frame> frameHandle) {
+		BufferedMat bufferedMat = matBuffer[index];
+		FrameHandle<Frame> handle = frameHandle != null ? frameHandle.retain() : null;
+		bufferedMat.setFrameHandle(handle);
+		return process(bufferedMat, handle != null ? bufferedMat.matConverter.convert(handle.get()) : null);
+	}
+
+	public Frame processPlanarFrame(FrameHandle<PlanarFrame> frameHandle) {
+		BufferedMat bufferedMat = matBuffer[index];
+		FrameHandle<PlanarFrame> handle = frameHandle != null ? frameHandle.retain() : null;
+		bufferedMat.setFrameHandle(handle);
+		return process(bufferedMat, handle != null ? bufferedMat.planarFrameConverter.convert(handle.get()) : null);
+	}
+
+	public void close() {
+		for (BufferedMat bufferedMat : matBuffer) {
+			bufferedMat.close();
+		}
+	}
+
+	private Frame process(BufferedMat bufferedMat, Mat mat) {
+
+		if (mat != null) {
 
 			// System.out.println("performing detection on index: " + index);
 
-			bufferedMat.mat = bufferedMat.matConverter.convert(frame);
+			bufferedMat.mat = mat;
 
 			try (PointerScope pointerScope = new PointerScope()) {
 				bufferedMat.results = objectTracker.processObjects(model.process(bufferedMat.mat, resultFilter));
@@ -130,7 +164,7 @@ public class BufferedFrameProcessor implements ObjectTracker.Listener<DetectionR
 
 			if (blurMode == BLUR_MODE_BLUR) {
 				try (PointerScope pointerScope = new PointerScope()) {
-					blur(bufferedMat.mat, bufferedMat.results);
+					blur(bufferedMat.getWritableMat(), bufferedMat.results);
 				} catch (Exception e) {
 					Common.LOGGER.error("Exception while blurring mat: ", e); //$NON-NLS-1$
 				}
@@ -229,10 +263,56 @@ public class BufferedFrameProcessor implements ObjectTracker.Listener<DetectionR
 	public static class BufferedMat {
 
 		public final OpenCVFrameConverter.ToMat matConverter = new OpenCVFrameConverter.ToMat();
+		public final PlanarFrameConverter planarFrameConverter = new PlanarFrameConverter();
 		public Mat mat = null;
 		public List<DetectionResult> results = null;
 		// public Frame frame = null;
 		public boolean processed = false;
+		private FrameHandle<?> frameHandle = null;
+		private Mat copy = null;
+
+		// Releases the frame that was buffered in this slot before
+		private void setFrameHandle(FrameHandle<?> frameHandle) {
+			if (this.frameHandle != null) {
+				this.frameHandle.release();
+			}
+			this.frameHandle = frameHandle;
+		}
+
+		// Returns the mat, or a copy of it if it wraps a frame that is still shared with other consumers (the
+		// shared frame is released then), the copy is reused for the next frames of this slot
+		private Mat getWritableMat() {
+
+			if (frameHandle != null && frameHandle.getReferenceCount() > 1) {
+
+				if (copy == null) {
+					copy = new Mat();
+				}
+
+				mat.copyTo(copy);
+				mat = copy;
+				setFrameHandle(null);
+
+			}
+
+			return mat;
+
+		}
+
+		private void close() {
+
+			setFrameHandle(null);
+
+			if (copy != null) {
+				copy.close();
+				copy = null;
+			}
+
+			// The mat can be owned by the converter, it's closed by the converter
+			mat = null;
+			planarFrameConverter.close();
+
+		}
 
 	}
 
@@ -0,0 +1,183 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.media.opencv;
+
+import java.nio.ByteBuffer;
+
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.opencv.global.opencv_core;
+import org.bytedeco.opencv.global.opencv_imgproc;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.glasspath.common.media.video.PlanarFrame;
+
+// Converts planar frames to BGR mats, BGR24 frames with direct planes are wrapped without copying,
+// YUV frames are converted into a mat that is reused for following frames
+public class PlanarFrameConverter {
+
+	private Mat mat = null;
+	private ByteBuffer matBuffer = null;
+	private Mat bgrMat = null;
+	private Mat yuvMat = null;
+	private ByteBuffer yuvBuffer = null;
+	private byte[] row = null;
+
+	public PlanarFrameConverter() {
+
+	}
+
+	public Mat convert(PlanarFrame frame) {
+
+		if (frame == null) {
+			return null;
+		}
+
+		int width = frame.getWidth();
+		int height = frame.getHeight();
+
+		switch (frame.getPixelFormat()) {
+
+		case PlanarFrame.PIXEL_FORMAT_BGR24:
+			return wrap(frame.getPlane(0), height, width, opencv_core.CV_8UC3, frame.getStride(0));
+
+		case PlanarFrame.PIXEL_FORMAT_NV12:
+
+			try (Mat y = wrapPlane(frame, 0, opencv_core.CV_8UC1); Mat uv = wrapPlane(frame, 1, opencv_core.CV_8UC2)) {
+				opencv_imgproc.cvtColorTwoPlane(y, uv, getBgrMat(width, height), opencv_imgproc.COLOR_YUV2BGR_NV12);
+			}
+
+			return bgrMat;
+
+		case PlanarFrame.PIXEL_FORMAT_YUV420P:
+
+			// OpenCV expects the I420 planes in one continuous block
+			Mat yuv = getYuvMat(width, height);
+
+			ByteBuffer buffer = yuvBuffer;
+			buffer.clear();
+			for (int i = 0; i < 3; i++) {
+
+				ByteBuffer plane = frame.getPlane(i).duplicate();
+				int rowBytes = frame.getPlaneWidthInBytes(i);
+				int planeHeight = frame.getPlaneHeight(i);
+				int stride = frame.getStride(i);
+
+				if (stride == rowBytes) {
+					plane.clear();
+					plane.limit(rowBytes * planeHeight);
+					buffer.put(plane);
+				} else {
+					if (row == null || row.length < rowBytes) {
+						row = new byte[rowBytes];
+					}
+					for (int r = 0; r < planeHeight; r++) {
+						plane.position(r * stride);
+						plane.get(row, 0, rowBytes);
+						buffer.put(row, 0, rowBytes);
+					}
+				}
+
+			}
+
+			opencv_imgproc.cvtColor(yuv, getBgrMat(width, height), opencv_imgproc.COLOR_YUV2BGR_I420);
+
+			return bgrMat;
+
+		default:
+			return null;
+		}
+
+	}
+
+	private Mat wrap(ByteBuffer buffer, int rows, int cols, int type, int stride) {
+
+		// Heap buffers are copied to native memory by BytePointer, so those can't be reused
+		if (mat == null || !buffer.isDirect() || matBuffer != buffer || mat.rows() != rows || mat.cols() != cols || mat.type() != type) {
+
+			if (mat != null) {
+				mat.close();
+			}
+
+			mat = new Mat(rows, cols, type, pointer(buffer), stride);
+			matBuffer = buffer;
+
+		}
+
+		return mat;
+
+	}
+
+	private static Mat wrapPlane(PlanarFrame frame, int plane, int type) {
+		int cols = plane == 0 ? frame.getWidth() : (frame.getWidth() + 1) / 2;
+		return new Mat(frame.getPlaneHeight(plane), cols, type, pointer(frame.getPlane(plane)), frame.getStride(plane));
+	}
+
+	private static BytePointer pointer(ByteBuffer buffer) {
+		ByteBuffer duplicate = buffer.duplicate();
+		duplicate.clear();
+		return new BytePointer(duplicate);
+	}
+
+	private Mat getBgrMat(int width, int height) {
+		if (bgrMat == null) {
+			bgrMat = new Mat(height, width, opencv_core.CV_8UC3);
+		}
+		return bgrMat;
+	}
+
+	private Mat getYuvMat(int width, int height) {
+
+		int rows = height + (height + 1) / 2;
+		if (yuvMat == null || yuvMat.rows() != rows || yuvMat.cols() != width) {
+
+			if (yuvMat != null) {
+				yuvMat.close();
+			}
+
+			yuvMat = new Mat(rows, width, opencv_core.CV_8UC1);
+			yuvBuffer = yuvMat.createBuffer();
+
+		}
+
+		return yuvMat;
+
+	}
+
+	public void close() {
+		if (mat != null) {
+			mat.close();
+			mat = null;
+			matBuffer = null;
+		}
+		if (bgrMat != null) {
+			bgrMat.close();
+			bgrMat = null;
+		}
+		if (yuvMat != null) {
+			yuvMat.close();
+			yuvMat = null;
+			yuvBuffer = null;
+		}
+		row = null;
+	}
+
+}
@@ -32,10 +32,15 @@ public abstract class ExportRequest {
 	public static final int DEFAULT_HEIGHT = (int) (Resolution.W1280_H720.getHeight() * 0.5);
 	public static final int DEFAULT_INTERVAL = 100;
 
+	public static final int ENCODER_IMAGE_IO = 0;
+	public static final int ENCODER_PARALLEL = 1;
+
 	private final File file;
 	private int width = DEFAULT_WIDTH;
 	private int height = DEFAULT_HEIGHT;
 	private int interval = DEFAULT_INTERVAL;
+	private int encoder = ENCODER_IMAGE_IO;
+	private boolean deltaEncoding = false;
 
 	public ExportRequest(File file) {
 		this.file = file;
@@ -69,6 +74,22 @@ public abstract class ExportRequest {
 		this.interval = interval;
 	}
 
+	public int getEncoder() {
+		return encoder;
+	}
+
+	public void setEncoder(int encoder) {
+		this.encoder = encoder;
+	}
+
+	public boolean isDeltaEncoding() {
+		return deltaEncoding;
+	}
+
+	public void setDeltaEncoding(boolean deltaEncoding) {
+		this.deltaEncoding = deltaEncoding;
+	}
+
 	public abstract void update(int progress, int total);
 
 	public abstract void finish();
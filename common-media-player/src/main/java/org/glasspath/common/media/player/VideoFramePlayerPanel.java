@@ -205,7 +205,7 @@ public abstract class VideoFramePlayerPanel implements IVideoPlayerPanel {
 
 	private void showFrame(Frame frame) {
 
-		timestamp = frame.getTimestamp().longValue();
+		timestamp = frame.getTimestampValue();
 
 		if (isOverlayVisible()) {
 			IOverlay overlay = getOverlay();
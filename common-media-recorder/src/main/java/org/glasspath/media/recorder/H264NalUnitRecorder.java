@@ -22,8 +22,11 @@
  */
 package org.glasspath.media.recorder;
 
+import java.util.ArrayList;
 import java.util.List;
 
+import org.glasspath.common.media.h264.H264AccessUnit;
+import org.glasspath.common.media.h264.H264AccessUnitAssembler;
 import org.glasspath.common.media.h264.H264NalUnit;
 import org.glasspath.common.media.rtsp.H264ParameterSets;
 import org.glasspath.common.media.video.Resolution;
@@ -50,6 +53,8 @@ public abstract class H264NalUnitRecorder<T extends Recording> {
 	private long ptsCorrection = 0L;
 	private long pts = 0L;
 	private long duration = 0L;
+	private final H264AccessUnitAssembler accessUnitAssembler = new H264AccessUnitAssembler();
+	private final List<H264AccessUnit> accessUnits = new ArrayList<>();
 
 	public H264NalUnitRecorder() {
 
@@ -109,6 +114,20 @@ public abstract class H264NalUnitRecorder<T extends Recording> {
 
 	protected abstract Resolution getResolution();
 
+	// The size in the SPS (H.264 or HEVC) is used when it matches a known resolution, getResolution() is used otherwise
+	protected Resolution getResolution(H264ParameterSets parameterSets) {
+
+		if (parameterSets.getWidth() > 0 && parameterSets.getHeight() > 0) {
+			Resolution resolution = Resolution.get(parameterSets.getWidth(), parameterSets.getHeight());
+			if (resolution != null) {
+				return resolution;
+			}
+		}
+
+		return getResolution();
+
+	}
+
 	protected abstract String getNextRecordingPath(long timestamp);
 
 	protected abstract boolean createRecording(String recordPath, Resolution resolution, H264ParameterSets parameterSets, long pts, long created);
@@ -141,9 +160,23 @@ public abstract class H264NalUnitRecorder<T extends Recording> {
 
 		if (nalUnits != null && nalUnits.size() > 0 && parameterSets != null && parameterSets.sequenceParameterSet != null && parameterSets.pictureParameterSet != null) {
 
+			int index = 0;
+
 			try {
 
-				for (H264NalUnit nextNalUnit : nalUnits) {
+				// Slices of the same picture are grouped so each picture is written as one sample, pooled NAL units
+				// are retained by the recorder (the caller keeps its own reference) and released once written
+				accessUnits.clear();
+				for (H264NalUnit receivedNalUnit : nalUnits) {
+					H264NalUnit retainedNalUnit = receivedNalUnit.retain();
+					if (retainedNalUnit != null) {
+						accessUnitAssembler.add(retainedNalUnit, accessUnits);
+					}
+				}
+
+				for (; index < accessUnits.size(); index++) {
+
+					H264AccessUnit nextNalUnit = accessUnits.get(index);
 
 					// The NalUnit from a previous iteration is used because we need to determine the duration between NalUnits (frames only)
 					if (nalUnit != null) {
@@ -167,7 +200,7 @@ public abstract class H264NalUnitRecorder<T extends Recording> {
 										pts = nalUnit.timestamp + ptsOffset;
 									}
 
-									if (createRecording(path, getResolution(), parameterSets, pts, nalUnit.receivedAt)) {
+									if (createRecording(path, getResolution(parameterSets), parameterSets, pts, nalUnit.receivedAt)) {
 
 										recordingCreated(path);
 
@@ -239,13 +272,26 @@ public abstract class H264NalUnitRecorder<T extends Recording> {
 					}
 
 					if (nextNalUnit.isFrame()) {
+						if (nalUnit != null) {
+							nalUnit.release();
+						}
 						nalUnit = nextNalUnit;
+					} else {
+						nextNalUnit.release();
 					}
 
 				}
 
 			} catch (Exception e) {
 				e.printStackTrace();
+			} finally {
+
+				// Access units that were not handled because of a break or exception
+				for (int i = index; i < accessUnits.size(); i++) {
+					accessUnits.get(i).release();
+				}
+				accessUnits.clear();
+
 			}
 
 		}
@@ -276,14 +322,41 @@ public abstract class H264NalUnitRecorder<T extends Recording> {
 		close(true);
 	}
 
+	// When writeLastNalUnit is false the stream continues (in a new recording), the access unit that is still
+	// being assembled belongs to the stream then, otherwise it's the last picture of this recording
 	protected void close(boolean writeLastNalUnit) {
 
-		if (nalUnit != null && writeLastNalUnit) {
+		if (writeLastNalUnit) {
+
+			H264AccessUnit lastAccessUnit = accessUnitAssembler.flush();
+			accessUnitAssembler.reset();
+
+			if (lastAccessUnit != null && !lastAccessUnit.isFrame()) {
+				lastAccessUnit.release();
+				lastAccessUnit = null;
+			}
+
+			if (nalUnit != null) {
+
+				if (recordingStarted) {
+					writeNalUnit(nalUnit, lastAccessUnit != null ? lastAccessUnit : nalUnit);
+				}
+
+				nalUnit.release();
+				nalUnit = null;
+
+			}
 
-			// We don't have a next nal-unit here, so pass the same nal-unit as next nal-unit
-			writeNalUnit(nalUnit, nalUnit);
+			if (lastAccessUnit != null) {
 
-			nalUnit = null;
+				// We don't have a next nal-unit here, so pass the same nal-unit as next nal-unit
+				if (recordingStarted) {
+					writeNalUnit(lastAccessUnit, lastAccessUnit);
+				}
+
+				lastAccessUnit.release();
+
+			}
 
 		}
 
@@ -0,0 +1,129 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.media.recorder;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.glasspath.common.media.h264.H264NalUnit;
+import org.glasspath.common.media.h265.H265NalUnit;
+import org.glasspath.common.media.h265.H265SequenceParameterSet;
+import org.jcodec.containers.mp4.boxes.Box;
+import org.jcodec.containers.mp4.boxes.Header;
+
+// HEVC decoder configuration record (ISO/IEC 14496-15 8.3.3.1), added to the hev1 sample entry. The parameter
+// sets are stored without start code, the samples use 4 byte NAL unit lengths
+public class HevcConfigurationBox extends Box {
+
+	public static final String FOURCC = "hvcC";
+	public static final int NAL_UNIT_LENGTH_SIZE = 4;
+
+	private H265SequenceParameterSet sps = null;
+	private final List<byte[]> nalUnits = new ArrayList<>();
+	private final List<Integer> nalUnitTypes = new ArrayList<>();
+
+	public HevcConfigurationBox(Header header) {
+		super(header);
+	}
+
+	// Returns null if the SPS can't be parsed
+	public static HevcConfigurationBox createHevcConfigurationBox(H264NalUnit vps, H264NalUnit sps, H264NalUnit pps) {
+
+		H265SequenceParameterSet spsInfo = H265SequenceParameterSet.parse(sps);
+		if (spsInfo == null) {
+			return null;
+		}
+
+		HevcConfigurationBox box = new HevcConfigurationBox(Header.createHeader(FOURCC, 0));
+		box.sps = spsInfo;
+		box.addNalUnit(vps);
+		box.addNalUnit(sps);
+		box.addNalUnit(pps);
+
+		return box;
+
+	}
+
+	private void addNalUnit(H264NalUnit nalUnit) {
+
+		int headerOffset;
+		if (nalUnit != null && (headerOffset = nalUnit.getHeaderOffset()) >= 0) {
+
+			byte[] bytes = new byte[nalUnit.offset + nalUnit.length - headerOffset];
+			System.arraycopy(nalUnit.bytes, headerOffset, bytes, 0, bytes.length);
+
+			nalUnits.add(bytes);
+			nalUnitTypes.add(H265NalUnit.getType(bytes[0]));
+
+		}
+
+	}
+
+	@Override
+	public void parse(ByteBuffer buf) {
+		// Only written
+	}
+
+	@Override
+	protected void doWrite(ByteBuffer out) {
+
+		out.put((byte) 1); // configurationVersion
+		out.put((byte) ((sps.getProfileSpace() << 6) | (sps.isTier() ? 0x20 : 0) | sps.getProfileIdc()));
+		out.putInt((int) sps.getProfileCompatibilityFlags());
+		out.putShort((short) (sps.getConstraintIndicatorFlags() >> 32));
+		out.putInt((int) sps.getConstraintIndicatorFlags());
+		out.put((byte) sps.getLevelIdc());
+		out.putShort((short) 0xF000); // min_spatial_segmentation_idc
+		out.put((byte) 0xFC); // parallelismType
+		out.put((byte) (0xFC | sps.getChromaFormatIdc()));
+		out.put((byte) (0xF8 | (sps.getBitDepthLuma() - 8)));
+		out.put((byte) (0xF8 | (sps.getBitDepthChroma() - 8)));
+		out.putShort((short) 0); // avgFrameRate
+		out.put((byte) ((sps.getMaxSubLayers() << 3) | (sps.isTemporalIdNesting() ? 0x04 : 0) | (NAL_UNIT_LENGTH_SIZE - 1)));
+
+		// One array per parameter set, array_completeness is 0 because the samples also contain the parameter sets (hev1)
+		out.put((byte) nalUnits.size());
+		for (int i = 0; i < nalUnits.size(); i++) {
+			out.put((byte) (nalUnitTypes.get(i) & 0x3F));
+			out.putShort((short) 1);
+			out.putShort((short) nalUnits.get(i).length);
+			out.put(nalUnits.get(i));
+		}
+
+	}
+
+	@Override
+	public int estimateSize() {
+		int size = 8 + 23;
+		for (byte[] nalUnit : nalUnits) {
+			size += 5 + nalUnit.length;
+		}
+		return size;
+	}
+
+	public static String fourcc() {
+		return FOURCC;
+	}
+
+}
@@ -23,7 +23,10 @@
 package org.glasspath.media.recorder;
 
 import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
 
+import org.glasspath.common.media.h264.H264AccessUnit;
 import org.glasspath.common.media.h264.H264NalUnit;
 import org.glasspath.common.media.rtsp.H264ParameterSets;
 import org.glasspath.common.media.video.Resolution;
@@ -35,11 +38,22 @@ public abstract class Mp4Recorder extends H264NalUnitRecorder<Mp4Recording> {
 	public static boolean TODO_DEBUG = false;
 
 	private Mp4Recording recording = null;
+	private boolean hevcEnabled = false;
 
 	public Mp4Recorder() {
 
 	}
 
+	public boolean isHevcEnabled() {
+		return hevcEnabled;
+	}
+
+	// HEVC tracks are written with a sample entry created here (the jcodec muxer only converts H.264) which relies
+	// on the internals of the jcodec 0.2.5 muxer track, there is no read back check yet so it's disabled by default
+	public void setHevcEnabled(boolean hevcEnabled) {
+		this.hevcEnabled = hevcEnabled;
+	}
+
 	@Override
 	protected boolean createRecording(String recordPath, Resolution resolution, H264ParameterSets parameterSets, long pts, long created) {
 
@@ -49,7 +63,43 @@ public abstract class Mp4Recorder extends H264NalUnitRecorder<Mp4Recording> {
 				System.out.println("Creating MP4 muxer for file: " + recordPath);
 			}
 
-			recording = new Mp4Recording(recordPath, resolution, created, getTimeScale());
+			// Use the exact size from the SPS (which doesn't have to match one of the known resolutions) if available
+			int width = resolution != null ? resolution.getWidth() : 0;
+			int height = resolution != null ? resolution.getHeight() : 0;
+			if (parameterSets != null && parameterSets.getWidth() > 0 && parameterSets.getHeight() > 0) {
+				width = parameterSets.getWidth();
+				height = parameterSets.getHeight();
+			}
+
+			if (parameterSets != null && parameterSets.isHevc()) {
+
+				if (!hevcEnabled) {
+					if (TODO_DEBUG) {
+						System.err.println("HEVC recording is not enabled, recording not created");
+					}
+					return false;
+				}
+
+				// HEVC parameter sets are stored in the sample entry (and in the samples of key frames)
+				HevcConfigurationBox hevcConfigurationBox = HevcConfigurationBox.createHevcConfigurationBox(parameterSets.videoParameterSet, parameterSets.sequenceParameterSet, parameterSets.pictureParameterSet);
+				if (hevcConfigurationBox != null) {
+
+					recording = new Mp4Recording(recordPath, width, height, created, getTimeScale(), hevcConfigurationBox);
+					if (recording.isReady()) {
+						recording.ptsStart = pts;
+						return true;
+					}
+
+				} else if (TODO_DEBUG) {
+					System.err.println("HEVC SPS could not be parsed, recording not created");
+				}
+
+				return false;
+
+			}
+
+			recording = new Mp4Recording(recordPath, width, height, created, getTimeScale());
+
 			if (recording.isReady() && parameterSets != null && parameterSets.sequenceParameterSet != null && parameterSets.pictureParameterSet != null) {
 
 				Packet frame = nextFrame(parameterSets.sequenceParameterSet, pts, 0, recording.frameCount);
@@ -167,7 +217,8 @@ public abstract class Mp4Recorder extends H264NalUnitRecorder<Mp4Recording> {
 				}
 			}
 
-			ByteBuffer byteBuffer = ByteBuffer.wrap(nalUnit.bytes);
+			// Views (and access units of multiple NAL units) are copied into a new array, the muxer modifies the sample in place
+			ByteBuffer byteBuffer = nalUnit.isHevc() ? toLengthPrefixed(nalUnit) : ByteBuffer.wrap(nalUnit.toByteArray());
 
 			FrameType frameType;
 			if (nalUnit.isIFrame()) {
@@ -191,4 +242,31 @@ public abstract class Mp4Recorder extends H264NalUnitRecorder<Mp4Recording> {
 
 	}
 
+	// HEVC samples are stored with 4 byte lengths instead of start codes (ISO/IEC 14496-15), for H.264 the muxer does this
+	private static ByteBuffer toLengthPrefixed(H264NalUnit nalUnit) {
+
+		List<H264NalUnit> nalUnits = nalUnit instanceof H264AccessUnit ? ((H264AccessUnit) nalUnit).getNalUnits() : Collections.singletonList(nalUnit);
+
+		int length = 0;
+		for (H264NalUnit n : nalUnits) {
+			int headerOffset = n.getHeaderOffset();
+			if (headerOffset >= 0) {
+				length += HevcConfigurationBox.NAL_UNIT_LENGTH_SIZE + n.offset + n.length - headerOffset;
+			}
+		}
+
+		ByteBuffer byteBuffer = ByteBuffer.allocate(length);
+		for (H264NalUnit n : nalUnits) {
+			int headerOffset = n.getHeaderOffset();
+			if (headerOffset >= 0) {
+				byteBuffer.putInt(n.offset + n.length - headerOffset);
+				byteBuffer.put(n.bytes, headerOffset, n.offset + n.length - headerOffset);
+			}
+		}
+		byteBuffer.flip();
+
+		return byteBuffer;
+
+	}
+
 }
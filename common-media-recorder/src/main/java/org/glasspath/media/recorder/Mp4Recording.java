@@ -36,6 +36,9 @@ import org.jcodec.common.model.ColorSpace;
 import org.jcodec.common.model.Packet;
 import org.jcodec.common.model.Size;
 import org.jcodec.containers.mp4.Brand;
+import org.jcodec.containers.mp4.boxes.VideoSampleEntry;
+import org.jcodec.containers.mp4.muxer.CodecMP4MuxerTrack;
+import org.jcodec.containers.mp4.muxer.MP4Muxer;
 
 public class Mp4Recording extends Recording {
 
@@ -44,6 +47,16 @@ public class Mp4Recording extends Recording {
 	private MuxerTrack videoTrack = null;
 
 	public Mp4Recording(String path, Resolution resolution, long created, int timeScale) {
+		this(path, resolution.getWidth(), resolution.getHeight(), created, timeScale);
+	}
+
+	public Mp4Recording(String path, int width, int height, long created, int timeScale) {
+		this(path, width, height, created, timeScale, null);
+	}
+
+	// With a HEVC configuration box a HEVC track is created (hev1 sample entry), the frames have to
+	// be added with 4 byte NAL unit lengths instead of start codes (see Mp4Recorder)
+	public Mp4Recording(String path, int width, int height, long created, int timeScale, HevcConfigurationBox hevcConfigurationBox) {
 		super(path, created, timeScale);
 
 		try {
@@ -53,9 +66,24 @@ public class Mp4Recording extends Recording {
 			muxer.setCreated(created);
 
 			// TODO: Support more ColorSpaces?
-			VideoCodecMeta videoCodecMeta = VideoCodecMeta.createSimpleVideoCodecMeta(new Size(resolution.getWidth(), resolution.getHeight()), ColorSpace.YUV420);
+			VideoCodecMeta videoCodecMeta = VideoCodecMeta.createSimpleVideoCodecMeta(new Size(width, height), ColorSpace.YUV420);
+
+			if (hevcConfigurationBox != null) {
 
-			videoTrack = muxer.addVideoTrack(Codec.H264, videoCodecMeta);
+				// The muxer has no HEVC support, the samples are written as they are and the sample entry is created here
+				CodecMP4MuxerTrack hevcTrack = muxer.addVideoTrack(Codec.H265, videoCodecMeta);
+
+				VideoSampleEntry sampleEntry = MP4Muxer.videoSampleEntry("hev1", new Size(width, height), "glasspath");
+				sampleEntry.add(hevcConfigurationBox);
+
+				hevcTrack.getEntries().clear();
+				hevcTrack.addSampleEntry(sampleEntry);
+
+				videoTrack = hevcTrack;
+
+			} else {
+				videoTrack = muxer.addVideoTrack(Codec.H264, videoCodecMeta);
+			}
 
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -24,14 +24,26 @@ package org.glasspath.common.media.rtsp;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Arrays;
 
+import org.glasspath.common.media.h264.H264Buffer;
+import org.glasspath.common.media.h264.H264BufferPool;
 import org.glasspath.common.media.h264.H264NalUnit;
 
 public class H264AnnexBWriter {
 
+	public static final int INITIAL_NAL_UNIT_CAPACITY = 16 * 1024;
+
 	private OutputStream outputStream = null;
 	private int nalUnitType = 0;
 	private long timestamp = 0;
+	private boolean nalUnitsEnabled = false;
+	private boolean nalUnitStarted = false;
+	private H264BufferPool bufferPool = null;
+	private H264Buffer nalUnitBuffer = null;
+	private byte[] nalUnitBytes = null;
+	private int nalUnitLength = 0;
+	private int lastNalUnitLength = INITIAL_NAL_UNIT_CAPACITY;
 
 	public H264AnnexBWriter() {
 
@@ -45,6 +57,26 @@ public class H264AnnexBWriter {
 		this.outputStream = outputStream;
 	}
 
+	public boolean isNalUnitsEnabled() {
+		return nalUnitsEnabled;
+	}
+
+	// When enabled the NAL units are also reassembled and passed to nalUnitReceived(), with the end of access
+	// unit flag set from the RTP marker bit (so H264AccessUnitAssembler can complete a picture right away)
+	public void setNalUnitsEnabled(boolean nalUnitsEnabled) {
+		this.nalUnitsEnabled = nalUnitsEnabled;
+	}
+
+	public H264BufferPool getBufferPool() {
+		return bufferPool;
+	}
+
+	// When set the NAL units are reassembled in pooled buffers instead of being copied to new arrays, the
+	// NAL unit passed to nalUnitReceived() is released when that method returns (consumers call retain())
+	public void setBufferPool(H264BufferPool bufferPool) {
+		this.bufferPool = bufferPool;
+	}
+
 	public void rtpPacketReceived(RtpPacket rtpPacket) {
 
 		switch (rtpPacket.getNalFragmentType()) {
@@ -54,10 +86,10 @@ public class H264AnnexBWriter {
 			nalUnitType = rtpPacket.getNalType();
 			timestamp = rtpPacket.getTimestamp();
 
-			write(H264NalUnit.NAL_START_PREFIX_CODE);
+			startNalUnit();
 			write(rtpPacket.getBytes(), rtpPacket.getHeaderLength(), rtpPacket.getBytes().length - rtpPacket.getHeaderLength());
 
-			nalUnitWritten(nalUnitType, timestamp);
+			nalUnitCompleted(nalUnitType, timestamp, rtpPacket.isMarker());
 
 			break;
 
@@ -68,7 +100,7 @@ public class H264AnnexBWriter {
 				nalUnitType = rtpPacket.getNalTypeOctet();
 				timestamp = rtpPacket.getTimestamp();
 
-				write(H264NalUnit.NAL_START_PREFIX_CODE);
+				startNalUnit();
 				write(rtpPacket.getNalTypeOctet());
 
 			}
@@ -76,7 +108,7 @@ public class H264AnnexBWriter {
 			write(rtpPacket.getBytes(), rtpPacket.getHeaderLength() + 2, rtpPacket.getBytes().length - (rtpPacket.getHeaderLength() + 2));
 
 			if (rtpPacket.isEnd()) {
-				nalUnitWritten(nalUnitType, timestamp);
+				nalUnitCompleted(nalUnitType, timestamp, rtpPacket.isMarker());
 			}
 
 			break;
@@ -94,7 +126,100 @@ public class H264AnnexBWriter {
 
 	}
 
-	private void write(byte b) {
+	// Starts a new NAL unit, a NAL unit of which the last fragment was lost is dropped
+	protected void startNalUnit() {
+		nalUnitStarted = true;
+		nalUnitLength = 0;
+		write(H264NalUnit.NAL_START_PREFIX_CODE);
+	}
+
+	protected void nalUnitCompleted(int nalUnitType, long timestamp, boolean endOfAccessUnit) {
+
+		if (nalUnitsEnabled && nalUnitStarted) {
+
+			// The NAL unit takes over the reference of the pooled buffer
+			H264NalUnit nalUnit = createNalUnit(nalUnitBuffer, nalUnitBytes, nalUnitLength, nalUnitType, timestamp, System.currentTimeMillis(), endOfAccessUnit);
+			lastNalUnitLength = nalUnitLength;
+			if (nalUnitBuffer != null) {
+				nalUnitBuffer = null;
+				nalUnitBytes = null;
+			}
+
+			try {
+				nalUnitReceived(nalUnit);
+			} finally {
+				nalUnit.release();
+			}
+
+		}
+		nalUnitStarted = false;
+		nalUnitLength = 0;
+
+		nalUnitWritten(nalUnitType, timestamp, endOfAccessUnit);
+
+	}
+
+	// Without a pool (buffer is null) the bytes are copied, the reassembly array is reused for the next NAL unit then
+	protected H264NalUnit createNalUnit(H264Buffer buffer, byte[] bytes, int length, int nalUnitType, long timestamp, long receivedAt, boolean endOfAccessUnit) {
+		if (buffer != null) {
+			return new H264NalUnit(buffer, 0, length, nalUnitType, timestamp, receivedAt, endOfAccessUnit);
+		} else {
+			return new H264NalUnit(Arrays.copyOf(bytes, length), 0, length, nalUnitType, timestamp, receivedAt, endOfAccessUnit);
+		}
+	}
+
+	private boolean ensureCapacity(int length) {
+
+		if (!nalUnitsEnabled || !nalUnitStarted) {
+			return false;
+		}
+
+		if (nalUnitBytes == null || nalUnitLength + length > nalUnitBytes.length) {
+
+			int capacity = nalUnitBytes != null ? nalUnitBytes.length * 2 : INITIAL_NAL_UNIT_CAPACITY;
+			while (capacity < nalUnitLength + length) {
+				capacity *= 2;
+			}
+
+			H264BufferPool bufferPool = this.bufferPool;
+			if (bufferPool != null) {
+
+				// The first buffer has the size of the previous NAL unit, so most NAL units don't have to grow
+				H264Buffer buffer = bufferPool.acquire(nalUnitBytes != null ? capacity : Math.max(capacity, lastNalUnitLength));
+				if (nalUnitBytes != null) {
+					System.arraycopy(nalUnitBytes, 0, buffer.getArray(), 0, nalUnitLength);
+				}
+				if (nalUnitBuffer != null) {
+					nalUnitBuffer.release();
+				}
+				nalUnitBuffer = buffer;
+				nalUnitBytes = buffer.getArray();
+
+			} else {
+				nalUnitBytes = nalUnitBytes != null ? Arrays.copyOf(nalUnitBytes, capacity) : new byte[capacity];
+				if (nalUnitBuffer != null) {
+					nalUnitBuffer.release();
+					nalUnitBuffer = null;
+				}
+			}
+
+		}
+
+		return true;
+
+	}
+
+	private void append(byte[] bytes, int offset, int length) {
+		if (ensureCapacity(length)) {
+			System.arraycopy(bytes, offset, nalUnitBytes, nalUnitLength, length);
+			nalUnitLength += length;
+		}
+	}
+
+	protected void write(byte b) {
+		if (ensureCapacity(1)) {
+			nalUnitBytes[nalUnitLength++] = b;
+		}
 		if (outputStream != null) {
 			try {
 				outputStream.write(b);
@@ -104,7 +229,8 @@ public class H264AnnexBWriter {
 		}
 	}
 
-	private void write(byte[] bytes) {
+	protected void write(byte[] bytes) {
+		append(bytes, 0, bytes.length);
 		if (outputStream != null) {
 			try {
 				outputStream.write(bytes);
@@ -114,7 +240,8 @@ public class H264AnnexBWriter {
 		}
 	}
 
-	private void write(byte[] bytes, int offset, int length) {
+	protected void write(byte[] bytes, int offset, int length) {
+		append(bytes, offset, length);
 		if (outputStream != null) {
 			try {
 				outputStream.write(bytes, offset, length);
@@ -128,4 +255,15 @@ public class H264AnnexBWriter {
 
 	}
 
+	// Only called when NAL units are enabled, the NAL unit has the RTP timestamp and marker bit. With a buffer pool
+	// the NAL unit is released when this method returns, call retain() if it's kept (see RtspStreamListener)
+	public void nalUnitReceived(H264NalUnit nalUnit) {
+
+	}
+
+	// endOfAccessUnit is the RTP marker bit, see also setNalUnitsEnabled()
+	public void nalUnitWritten(int nalUnitType, long timestamp, boolean endOfAccessUnit) {
+		nalUnitWritten(nalUnitType, timestamp);
+	}
+
 }
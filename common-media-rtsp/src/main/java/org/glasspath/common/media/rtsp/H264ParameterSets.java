@@ -26,36 +26,129 @@ import java.util.Base64;
 
 import org.glasspath.common.media.h264.H264NalUnit;
 import org.glasspath.common.media.h264.H264NalUnit.NalUnitType;
+import org.glasspath.common.media.h264.H264PictureParameterSet;
+import org.glasspath.common.media.h264.H264SequenceParameterSet;
+import org.glasspath.common.media.h265.H265NalUnit;
+import org.glasspath.common.media.h265.H265SequenceParameterSet;
 
+// Parameter sets of a H.264 or HEVC stream, for HEVC the NAL units are H265NalUnits and videoParameterSet is set
 public class H264ParameterSets {
 
+	public volatile H264NalUnit videoParameterSet = null;
 	public volatile H264NalUnit sequenceParameterSet = null;
 	public volatile H264NalUnit pictureParameterSet = null;
 	public volatile boolean spropParmeterSets = false;
+	private H264NalUnit parsedSequenceParameterSet = null;
+	private H264SequenceParameterSet sequenceParameterSetInfo = null;
+	private H264NalUnit parsedPictureParameterSet = null;
+	private H264PictureParameterSet pictureParameterSetInfo = null;
+	private H264NalUnit parsedHevcSequenceParameterSet = null;
+	private H265SequenceParameterSet hevcSequenceParameterSetInfo = null;
 
 	public H264ParameterSets() {
 
 	}
 
+	public boolean isHevc() {
+		H264NalUnit nalUnit = sequenceParameterSet;
+		return nalUnit != null ? nalUnit.isHevc() : videoParameterSet != null;
+	}
+
+	// Parsed from sequenceParameterSet (and parsed again when it is replaced), null if not available or not valid (or HEVC)
+	public synchronized H264SequenceParameterSet getSequenceParameterSetInfo() {
+		H264NalUnit nalUnit = sequenceParameterSet;
+		if (nalUnit != null && nalUnit.isHevc()) {
+			return null;
+		} else if (nalUnit != parsedSequenceParameterSet) {
+			sequenceParameterSetInfo = H264SequenceParameterSet.parse(nalUnit);
+			parsedSequenceParameterSet = nalUnit;
+		}
+		return sequenceParameterSetInfo;
+	}
+
+	// Parsed from pictureParameterSet (and parsed again when it is replaced), null if not available or not valid
+	public synchronized H264PictureParameterSet getPictureParameterSetInfo() {
+		H264NalUnit nalUnit = pictureParameterSet;
+		if (nalUnit != parsedPictureParameterSet) {
+			pictureParameterSetInfo = H264PictureParameterSet.parse(nalUnit);
+			parsedPictureParameterSet = nalUnit;
+		}
+		return pictureParameterSetInfo;
+	}
+
+	// Parsed from sequenceParameterSet if the stream is HEVC, null otherwise
+	public synchronized H265SequenceParameterSet getHevcSequenceParameterSetInfo() {
+		H264NalUnit nalUnit = sequenceParameterSet;
+		if (nalUnit == null || !nalUnit.isHevc()) {
+			return null;
+		} else if (nalUnit != parsedHevcSequenceParameterSet) {
+			hevcSequenceParameterSetInfo = H265SequenceParameterSet.parse(nalUnit);
+			parsedHevcSequenceParameterSet = nalUnit;
+		}
+		return hevcSequenceParameterSetInfo;
+	}
+
+	// Display size and frame rate from the SPS of either codec, 0 if not known
+	public int getWidth() {
+		H265SequenceParameterSet hevcSps = getHevcSequenceParameterSetInfo();
+		H264SequenceParameterSet sps = hevcSps == null ? getSequenceParameterSetInfo() : null;
+		return hevcSps != null ? hevcSps.getWidth() : (sps != null ? sps.getWidth() : 0);
+	}
+
+	public int getHeight() {
+		H265SequenceParameterSet hevcSps = getHevcSequenceParameterSetInfo();
+		H264SequenceParameterSet sps = hevcSps == null ? getSequenceParameterSetInfo() : null;
+		return hevcSps != null ? hevcSps.getHeight() : (sps != null ? sps.getHeight() : 0);
+	}
+
+	public double getFrameRate() {
+		H265SequenceParameterSet hevcSps = getHevcSequenceParameterSetInfo();
+		H264SequenceParameterSet sps = hevcSps == null ? getSequenceParameterSetInfo() : null;
+		return hevcSps != null ? hevcSps.getFrameRate() : (sps != null ? sps.getFrameRate() : 0.0);
+	}
+
 	public void parseSpropParameterSets(String spropParameterSets) {
 
 		int indexOfComma;
 		if (spropParameterSets != null && spropParameterSets.length() > 0 && (indexOfComma = spropParameterSets.indexOf(",")) > 0) {
 
-			String spsString = spropParameterSets.substring(0, indexOfComma);
-			byte[] spsBytes = Base64.getDecoder().decode(spsString);
-			byte[] sps = new byte[H264NalUnit.NAL_START_PREFIX_CODE.length + spsBytes.length];
-			System.arraycopy(H264NalUnit.NAL_START_PREFIX_CODE, 0, sps, 0, H264NalUnit.NAL_START_PREFIX_CODE.length);
-			System.arraycopy(spsBytes, 0, sps, H264NalUnit.NAL_START_PREFIX_CODE.length, spsBytes.length);
+			// The public bytes keep the Annex B start code, getHeaderOffset() skips it for the bare NAL unit
+			videoParameterSet = null;
+
+			byte[] sps = withStartCode(Base64.getDecoder().decode(spropParameterSets.substring(0, indexOfComma)));
 			sequenceParameterSet = new H264NalUnit(sps, NalUnitType.SEQUENCE_PARAMETER_SET.getTypeValue(), 0, System.currentTimeMillis()); // TODO: Timestamp?
 
-			String ppsString = spropParameterSets.substring(indexOfComma + 1);
-			byte[] ppsBytes = Base64.getDecoder().decode(ppsString);
-			byte[] pps = new byte[H264NalUnit.NAL_START_PREFIX_CODE.length + ppsBytes.length];
-			System.arraycopy(H264NalUnit.NAL_START_PREFIX_CODE, 0, pps, 0, H264NalUnit.NAL_START_PREFIX_CODE.length);
-			System.arraycopy(ppsBytes, 0, pps, H264NalUnit.NAL_START_PREFIX_CODE.length, ppsBytes.length);
+			byte[] pps = withStartCode(Base64.getDecoder().decode(spropParameterSets.substring(indexOfComma + 1)));
 			pictureParameterSet = new H264NalUnit(pps, NalUnitType.PICTURE_PARAMETER_SET.getTypeValue(), 0, System.currentTimeMillis()); // TODO: Timestamp?
 
+			// Parse now so the picture size and frame rate are known before the first frame is received
+			getSequenceParameterSetInfo();
+			getPictureParameterSetInfo();
+
+			spropParmeterSets = true;
+
+		} else {
+			spropParmeterSets = false;
+		}
+
+	}
+
+	// HEVC parameter sets from the sprop-vps, sprop-sps and sprop-pps parameters (RFC 7798 7.1), each parameter
+	// can contain a comma separated list, the first parameter set is used
+	public void parseSpropHevcParameterSets(String spropVps, String spropSps, String spropPps) {
+
+		H264NalUnit vps = createHevcNalUnit(spropVps, H265NalUnit.NalUnitType.VIDEO_PARAMETER_SET.getTypeValue());
+		H264NalUnit sps = createHevcNalUnit(spropSps, H265NalUnit.NalUnitType.SEQUENCE_PARAMETER_SET.getTypeValue());
+		H264NalUnit pps = createHevcNalUnit(spropPps, H265NalUnit.NalUnitType.PICTURE_PARAMETER_SET.getTypeValue());
+
+		if (vps != null && sps != null && pps != null) {
+
+			videoParameterSet = vps;
+			sequenceParameterSet = sps;
+			pictureParameterSet = pps;
+
+			getHevcSequenceParameterSetInfo();
+
 			spropParmeterSets = true;
 
 		} else {
@@ -64,6 +157,36 @@ public class H264ParameterSets {
 
 	}
 
+	private static H264NalUnit createHevcNalUnit(String sprop, int nalUnitType) {
+
+		if (sprop != null && sprop.trim().length() > 0) {
+
+			int indexOfComma = sprop.indexOf(",");
+			String first = (indexOfComma > 0 ? sprop.substring(0, indexOfComma) : sprop).trim();
+
+			try {
+				byte[] bytes = Base64.getDecoder().decode(first);
+				if (bytes.length > H265NalUnit.HEADER_LENGTH) {
+					bytes = withStartCode(bytes);
+					return new H265NalUnit(bytes, 0, bytes.length, nalUnitType, 0, System.currentTimeMillis(), false); // TODO: Timestamp?
+				}
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+
+		}
+
+		return null;
+
+	}
+
+	private static byte[] withStartCode(byte[] nalUnit) {
+		byte[] bytes = new byte[H264NalUnit.NAL_START_PREFIX_CODE.length + nalUnit.length];
+		System.arraycopy(H264NalUnit.NAL_START_PREFIX_CODE, 0, bytes, 0, H264NalUnit.NAL_START_PREFIX_CODE.length);
+		System.arraycopy(nalUnit, 0, bytes, H264NalUnit.NAL_START_PREFIX_CODE.length, nalUnit.length);
+		return bytes;
+	}
+
 	public RtpPacket createSequenceParameterSetRtpPacket() {
 
 		if (sequenceParameterSet != null) {
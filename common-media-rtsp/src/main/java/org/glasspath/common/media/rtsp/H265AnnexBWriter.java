@@ -0,0 +1,140 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.media.rtsp;
+
+import java.util.Arrays;
+
+import org.glasspath.common.media.h264.H264Buffer;
+import org.glasspath.common.media.h264.H264NalUnit;
+import org.glasspath.common.media.h265.H265NalUnit;
+import org.glasspath.common.media.h265.H265NalUnit.NalFragmentType;
+
+// Writes HEVC RTP packets (RFC 7798 single NAL unit, AP and FU packets) as Annex B byte stream, the
+// nalUnitType passed to nalUnitWritten() is the 6 bit HEVC type
+public class H265AnnexBWriter extends H264AnnexBWriter {
+
+	private int nalUnitType = 0;
+	private long timestamp = 0;
+	private boolean fragmentStarted = false;
+
+	public H265AnnexBWriter() {
+
+	}
+
+	@Override
+	public void rtpPacketReceived(RtpPacket rtpPacket) {
+
+		byte[] bytes = rtpPacket.getBytes();
+		int headerLength = rtpPacket.getHeaderLength();
+
+		if (bytes.length < headerLength + H265NalUnit.HEADER_LENGTH) {
+			return;
+		}
+
+		int payloadType = H265NalUnit.getType(bytes[headerLength]);
+
+		switch (NalFragmentType.get(payloadType)) {
+
+		case NAL_UNIT:
+
+			startNalUnit();
+			write(bytes, headerLength, bytes.length - headerLength);
+
+			nalUnitCompleted(payloadType, rtpPacket.getTimestamp(), rtpPacket.isMarker());
+
+			break;
+
+		case AP:
+
+			int offset = headerLength + H265NalUnit.HEADER_LENGTH;
+			while (offset + 2 < bytes.length) {
+
+				int size = RtpPacket.toUInt16(bytes[offset], bytes[offset + 1]);
+				offset += 2;
+
+				if (size == 0 || offset + size > bytes.length) {
+					break;
+				}
+
+				startNalUnit();
+				write(bytes, offset, size);
+				offset += size;
+
+				nalUnitCompleted(H265NalUnit.getType(bytes[offset - size]), rtpPacket.getTimestamp(), rtpPacket.isMarker() && offset >= bytes.length);
+
+			}
+
+			break;
+
+		case FU:
+
+			int fuHeaderOffset = headerLength + H265NalUnit.HEADER_LENGTH;
+			if (bytes.length <= fuHeaderOffset) {
+				break;
+			}
+
+			int fuHeader = bytes[fuHeaderOffset] & 0xFF;
+
+			if ((fuHeader & 0x80) != 0) {
+
+				nalUnitType = fuHeader & 0x3F;
+				timestamp = rtpPacket.getTimestamp();
+				fragmentStarted = true;
+
+				startNalUnit();
+				write((byte) ((bytes[headerLength] & 0x81) | (nalUnitType << 1)));
+				write(bytes[headerLength + 1]);
+
+			}
+
+			if (fragmentStarted) {
+
+				write(bytes, fuHeaderOffset + 1, bytes.length - (fuHeaderOffset + 1));
+
+				if ((fuHeader & 0x40) != 0) {
+					fragmentStarted = false;
+					nalUnitCompleted(nalUnitType, timestamp, rtpPacket.isMarker());
+				}
+
+			}
+
+			break;
+
+		default:
+			System.err.println("HEVC NAL: Unimplemented payload type: " + payloadType);
+			break;
+
+		}
+
+	}
+
+	@Override
+	protected H264NalUnit createNalUnit(H264Buffer buffer, byte[] bytes, int length, int nalUnitType, long timestamp, long receivedAt, boolean endOfAccessUnit) {
+		if (buffer != null) {
+			return new H265NalUnit(buffer, 0, length, nalUnitType, timestamp, receivedAt, endOfAccessUnit);
+		} else {
+			return new H265NalUnit(Arrays.copyOf(bytes, length), 0, length, nalUnitType, timestamp, receivedAt, endOfAccessUnit);
+		}
+	}
+
+}
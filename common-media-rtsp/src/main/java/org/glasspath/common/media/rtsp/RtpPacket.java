@@ -146,9 +146,13 @@ public class RtpPacket {
 
 	public static byte[] parseNalUnit(H264NalUnit nalUnit) {
 
-		byte[] bytes = new byte[(nalUnit.bytes.length - 4) + 12];
+		// The payload is the NAL unit without start code
+		int headerOffset = nalUnit.getHeaderOffset();
+		int payloadLength = nalUnit.offset + nalUnit.length - headerOffset;
 
-		int padding = 0, extension = 0, cc = 0, marker = 0, sequenceNumber = 0, ssrc = 0;
+		byte[] bytes = new byte[payloadLength + 12];
+
+		int padding = 0, extension = 0, cc = 0, marker = nalUnit.endOfAccessUnit ? 1 : 0, sequenceNumber = 0, ssrc = 0;
 
 		// fill the header array of byte with RTP header fields
 		bytes[0] = (byte) (VERSION << 6 | padding << 5 | extension << 4 | cc);
@@ -164,7 +168,7 @@ public class RtpPacket {
 		bytes[10] = (byte) (ssrc >> 8);
 		bytes[11] = (byte) (ssrc & 0xFF);
 
-		System.arraycopy(nalUnit.bytes, 4, bytes, 12, nalUnit.bytes.length - 4);
+		System.arraycopy(nalUnit.bytes, headerOffset, bytes, 12, payloadLength);
 
 		return bytes;
 
@@ -235,6 +239,21 @@ public class RtpPacket {
 		return fuEnd;
 	}
 
+	// Returns a view on the payload of a single NAL unit packet (the NAL unit is not copied), returns null
+	// for fragmented and aggregated packets, these have to be reassembled (see H264AnnexBWriter)
+	public H264NalUnit createNalUnit(long receivedAt) {
+		if (bytes != null && nalFragmentType == NalFragmentType.NAL_UNIT && bytes.length > headerLength) {
+			return new H264NalUnit(bytes, headerLength, bytes.length - headerLength, bytes[headerLength] & 0xFF, timestamp, receivedAt, isMarker());
+		} else {
+			return null;
+		}
+	}
+
+	// For H.264 the marker bit is set on the last packet of an access unit (RFC 6184 5.1)
+	public boolean isMarker() {
+		return secondRtpHeaderByte.marker;
+	}
+
 	@Override
 	public String toString() {
 		return "RTP"
@@ -32,7 +32,11 @@ public class RtspDescribeResponseParser extends RtspResponseParser {
 	public static final String M_AUDIO_KEY_LOWER_CASE = "m=audio ";
 	public static final String A_CONTROL_KEY_LOWER_CASE = "a=control:";
 	public static final String A_FRAME_RATE_KEY_LOWER_CASE = "a=framerate:";
+	public static final String A_RTP_MAP_KEY_LOWER_CASE = "a=rtpmap:";
 	public static final String A_SPROP_PARAMETER_SETS_KEY_LOWER_CASE = "sprop-parameter-sets=";
+	public static final String A_SPROP_VPS_KEY_LOWER_CASE = "sprop-vps=";
+	public static final String A_SPROP_SPS_KEY_LOWER_CASE = "sprop-sps=";
+	public static final String A_SPROP_PPS_KEY_LOWER_CASE = "sprop-pps=";
 
 	private VideoTrackInfo videoTrackInfo = null;
 	private AudioTrackInfo audioTrackInfo = null;
@@ -78,6 +82,17 @@ public class RtspDescribeResponseParser extends RtspResponseParser {
 				e.printStackTrace();
 			}
 
+		} else if (lastConfiguredTrack != null && lineLowerCase.startsWith(A_RTP_MAP_KEY_LOWER_CASE)) {
+
+			// a=rtpmap:<payload type> <encoding name>/<clock rate>
+			String rtpMap = line.substring(A_RTP_MAP_KEY_LOWER_CASE.length()).trim();
+			int indexOfSpace = rtpMap.indexOf(" ");
+			if (indexOfSpace > 0) {
+				String encoding = rtpMap.substring(indexOfSpace + 1).trim();
+				int indexOfSlash = encoding.indexOf("/");
+				lastConfiguredTrack.setEncodingName(indexOfSlash > 0 ? encoding.substring(0, indexOfSlash) : encoding);
+			}
+
 		} else if (lastConfiguredTrack != null && lineLowerCase.startsWith(A_CONTROL_KEY_LOWER_CASE)) {
 
 			String trackIdString = line.substring(A_CONTROL_KEY_LOWER_CASE.length());
@@ -119,10 +134,32 @@ public class RtspDescribeResponseParser extends RtspResponseParser {
 
 			lastConfiguredTrack.setSpropsParameterSets(spropParameterSets);
 
+		} else if (lastConfiguredTrack != null && lineLowerCase.indexOf(A_SPROP_SPS_KEY_LOWER_CASE) >= 0) {
+
+			lastConfiguredTrack.setSpropHevcParameterSets(getFormatParameter(line, lineLowerCase, A_SPROP_VPS_KEY_LOWER_CASE), getFormatParameter(line, lineLowerCase, A_SPROP_SPS_KEY_LOWER_CASE), getFormatParameter(line, lineLowerCase, A_SPROP_PPS_KEY_LOWER_CASE));
+
 		}
 
 	}
 
+	// Returns the value of a parameter in a a=fmtp line (parameters are separated by ';'), or null
+	private static String getFormatParameter(String line, String lineLowerCase, String keyLowerCase) {
+
+		int index = lineLowerCase.indexOf(keyLowerCase);
+		if (index < 0) {
+			return null;
+		}
+
+		String value = line.substring(index + keyLowerCase.length());
+		int indexOfSemicolon = value.indexOf(";");
+		if (indexOfSemicolon >= 0) {
+			value = value.substring(0, indexOfSemicolon);
+		}
+
+		return value.trim();
+
+	}
+
 	private void updateMediaInfo(TrackInfo track, String mediaInfoAsString) {
 
 		String[] mediaInfo = mediaInfoAsString.split(" ");
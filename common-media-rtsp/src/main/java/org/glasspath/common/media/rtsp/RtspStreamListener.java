@@ -28,6 +28,7 @@ public interface RtspStreamListener {
 
 	public void parameterSetsUpdated(H264ParameterSets parameterSets);
 
+	// The NAL unit can be backed by a pooled buffer, call retain() if it's kept after this method returns
 	public void nalUnitReceived(H264NalUnit nalUnit);
 
 	public void recordingStateChanged(boolean recording, String path);
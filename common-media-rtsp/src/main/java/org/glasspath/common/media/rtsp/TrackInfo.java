@@ -22,6 +22,9 @@
  */
 package org.glasspath.common.media.rtsp;
 
+import org.glasspath.common.media.h264.H264SequenceParameterSet;
+import org.glasspath.common.media.h265.H265SequenceParameterSet;
+
 public class TrackInfo {
 
 	public static enum TrackIdentifier {
@@ -39,6 +42,8 @@ public class TrackInfo {
 	}
 
 	public static final String DEFAULT_MEDIA_TRANSPORT_PROTOCOL = "RTP/AVP";
+	public static final String ENCODING_NAME_H264 = "H264";
+	public static final String ENCODING_NAME_H265 = "H265";
 
 	private String control = "";
 	private TrackIdentifier trackIdentifier = TrackIdentifier.TRACK_ID;
@@ -47,6 +52,10 @@ public class TrackInfo {
 	private String mediaTransportProtocol = DEFAULT_MEDIA_TRANSPORT_PROTOCOL;
 	private int mediaFormat = 0;
 	private String spropsParameterSets = null;
+	private String encodingName = null;
+	private String spropVps = null;
+	private String spropSps = null;
+	private String spropPps = null;
 
 	public TrackInfo() {
 
@@ -108,6 +117,49 @@ public class TrackInfo {
 		this.spropsParameterSets = spropsParameterSets;
 	}
 
+	// Encoding name from the a=rtpmap attribute (H264, H265, ..), null if the SDP didn't contain it
+	public String getEncodingName() {
+		return encodingName;
+	}
+
+	public void setEncodingName(String encodingName) {
+		this.encodingName = encodingName;
+	}
+
+	public boolean isHevc() {
+		return ENCODING_NAME_H265.equalsIgnoreCase(encodingName) || spropVps != null;
+	}
+
+	public String getSpropVps() {
+		return spropVps;
+	}
+
+	public String getSpropSps() {
+		return spropSps;
+	}
+
+	public String getSpropPps() {
+		return spropPps;
+	}
+
+	// HEVC parameter sets (sprop-vps, sprop-sps and sprop-pps, RFC 7798 7.1)
+	public void setSpropHevcParameterSets(String spropVps, String spropSps, String spropPps) {
+		this.spropVps = spropVps;
+		this.spropSps = spropSps;
+		this.spropPps = spropPps;
+	}
+
+	// Creates the parameter sets from the sprop parameters of either codec
+	public H264ParameterSets createParameterSets() {
+		H264ParameterSets parameterSets = new H264ParameterSets();
+		if (spropVps != null || spropSps != null || spropPps != null) {
+			parameterSets.parseSpropHevcParameterSets(spropVps, spropSps, spropPps);
+		} else {
+			parameterSets.parseSpropParameterSets(spropsParameterSets);
+		}
+		return parameterSets;
+	}
+
 	public static String getDefaultMediaTransportProtocol() {
 		return DEFAULT_MEDIA_TRANSPORT_PROTOCOL;
 	}
@@ -124,8 +176,11 @@ public class TrackInfo {
 		public static final int DEFAULT_HEIGHT = 780;
 
 		private double frameRate = DEFAULT_FRAME_RATE;
+		private boolean frameRateSet = false;
 		private int width = DEFAULT_WIDTH;
 		private int height = DEFAULT_HEIGHT;
+		private H264SequenceParameterSet sequenceParameterSet = null;
+		private H265SequenceParameterSet hevcSequenceParameterSet = null;
 
 		public VideoTrackInfo() {
 
@@ -137,6 +192,7 @@ public class TrackInfo {
 
 		public void setFrameRate(double frameRate) {
 			this.frameRate = frameRate;
+			this.frameRateSet = true;
 		}
 
 		public int getWidth() {
@@ -155,6 +211,56 @@ public class TrackInfo {
 			this.height = height;
 		}
 
+		// Parsed from sprop-parameter-sets, null if the SDP didn't contain a (valid) SPS
+		public H264SequenceParameterSet getSequenceParameterSet() {
+			return sequenceParameterSet;
+		}
+
+		// Parsed from sprop-sps, null if the SDP didn't contain a (valid) HEVC SPS
+		public H265SequenceParameterSet getHevcSequenceParameterSet() {
+			return hevcSequenceParameterSet;
+		}
+
+		@Override
+		public void setSpropsParameterSets(String spropsParameterSets) {
+			super.setSpropsParameterSets(spropsParameterSets);
+
+			H264ParameterSets parameterSets = new H264ParameterSets();
+			parameterSets.parseSpropParameterSets(spropsParameterSets);
+
+			sequenceParameterSet = parameterSets.getSequenceParameterSetInfo();
+			updateVideoInfo(parameterSets);
+
+		}
+
+		@Override
+		public void setSpropHevcParameterSets(String spropVps, String spropSps, String spropPps) {
+			super.setSpropHevcParameterSets(spropVps, spropSps, spropPps);
+
+			H264ParameterSets parameterSets = new H264ParameterSets();
+			parameterSets.parseSpropHevcParameterSets(spropVps, spropSps, spropPps);
+
+			hevcSequenceParameterSet = parameterSets.getHevcSequenceParameterSetInfo();
+			updateVideoInfo(parameterSets);
+
+		}
+
+		private void updateVideoInfo(H264ParameterSets parameterSets) {
+
+			if (parameterSets.getWidth() > 0 && parameterSets.getHeight() > 0) {
+
+				width = parameterSets.getWidth();
+				height = parameterSets.getHeight();
+
+				// An a=framerate attribute takes precedence over the VUI timing info
+				if (!frameRateSet && parameterSets.getFrameRate() > 0.0) {
+					frameRate = parameterSets.getFrameRate();
+				}
+
+			}
+
+		}
+
 	}
 
 	public static class AudioTrackInfo extends TrackInfo {